@@ -1,7 +1,6 @@
 package spaceshapes;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.awt.Rectangle;
 /**
  * The CarrierShape class is a subclass of Shape.
  * 
@@ -23,7 +22,13 @@ public class CarrierShape extends Shape {
 	/**
 	 * List of shapes representing all Shape instances contained by this CarrierShape instance.
 	 */
-	List<Shape> _containedShapes = new ArrayList<Shape>();
+	final ChildList _containedShapes = new ChildList();
+	
+	/*
+	 * Collision detector for this CarrierShape's children, created by the 
+	 * ShapeModel when collision detection is enabled.
+	 */
+	SweepAndPrune _sweep;
 	
 	/**
 	 * Default constructor that creates a CarrierShape instance whose instance
@@ -101,30 +106,12 @@ public class CarrierShape extends Shape {
 	 */
 	@Override
 	public void move(int width, int height) {
-		int nextX = _x + _deltaX;
-		int nextY = _y + _deltaY;
-
-		if (nextX <= 0) {
-			nextX = 0;
-			_deltaX = -_deltaX;
-		} else if (nextX + _width >= width) {
-			nextX = width - _width;
-			_deltaX = -_deltaX;
-		}
-
-		if (nextY <= 0) {
-			nextY = 0;
-			_deltaY = -_deltaY;
-		} else if (nextY + _height >= height) {
-			nextY = height - _height;
-			_deltaY = -_deltaY;
-		}
-
-		_x = nextX;
-		_y = nextY;
+		_store.move(_slot, width, height);
 		
+		int carrierWidth = width();
+		int carrierHeight = height();
 		for (Shape s: _containedShapes) {
-			s.move(_width, _height);
+			s.move(carrierWidth, carrierHeight);
 		}
 	}
 	
@@ -132,16 +119,35 @@ public class CarrierShape extends Shape {
 	 * Paints this CarrierShape object using the supplied Painter object.
 	 * 
 	 * Is also responsible for painting all Shape instances contained by
-	 * this CarrierShape instance.
+	 * this CarrierShape instance. Contained Shapes that lie wholly outside
+	 * the Painter's clip bounds are skipped, together with any Shapes they
+	 * contain.
 	 */
 	@Override
 	public void doPaint(Painter painter) {
-		painter.drawRect(_x,_y,_width,_height);
-		painter.translate(_x, _y);
-		for (Shape s: _containedShapes) {		
-			s.paint(painter);
+		int x = x();
+		int y = y();
+		doPaint(painter, x, y, width(), height(), false);
+		painter.translate(x, y);
+		
+		// Contained Shapes bounce within this carrier, so a carrier's own
+		// bounds cover all that it contains.
+		Rectangle clip = painter.getClipBounds();
+		for (Shape s: _containedShapes) {
+			if (isVisible(clip, s.x(), s.y(), s.width(), s.height())) {
+				s.paint(painter);
+			}
 		}
-		painter.translate(-_x, -_y);
+		painter.translate(-x, -y);
+	}
+	
+	/**
+	 * Paints the outline of a CarrierShape with the specified position and
+	 * size, excluding the Shapes it contains.
+	 */
+	@Override
+	public void doPaint(Painter painter, int x, int y, int width, int height, boolean fill) {
+		painter.drawRect(x,y,width,height);
 	}
 	
 	/*
@@ -155,22 +161,35 @@ public class CarrierShape extends Shape {
 	 * instance, or its size exceeds the bounds of this CarrierShape object.
 	 */
 	void add(Shape shape) throws IllegalArgumentException {		
-		if (shape._width + shape._x> this._width) {
+		if (!canAdd(shape)) {
 			throw new IllegalArgumentException();
 		}
-		else if (shape._height + shape._y > this._height) {
-			throw new IllegalArgumentException();
+		else {
+			shape._parent = this;
+			shape.relocate(_store, width(), height());
+			_containedShapes.append(shape);
+			childrenChanged();
+		}		
+	}
+	
+	/*
+	 * Returns true if shape can be added to this CarrierShape, i.e. it is not
+	 * already a child of a CarrierShape and it fits within the bounds of 
+	 * this CarrierShape.
+	 */
+	boolean canAdd(Shape shape) {
+		if (shape.width() + shape.x()> this.width()) {
+			return false;
 		}
-		else if (shape._parent != null) {
-			throw new IllegalArgumentException();
+		else if (shape.height() + shape.y() > this.height()) {
+			return false;
 		}
-		else if (shape._parent == this) {
-			throw new IllegalArgumentException();
+		else if (shape._parent != null) {
+			return false;
 		}
 		else {
-			shape._parent = this;
-			_containedShapes.add(shape);
-		}		
+			return true;
+		}
 	}
 	
 	/**
@@ -180,11 +199,43 @@ public class CarrierShape extends Shape {
 	 * @param shape shape to be removed.
 	 */
 	void remove(Shape shape) {
-		for (int i = 0; i < _containedShapes.size(); i++) {
-			if (_containedShapes.get(i) == shape) {
-				shape._parent = null;
-				_containedShapes.remove(i);
-			}
+		if (contains(shape)) {
+			shape._parent = null;
+			_containedShapes.delete(shape);
+			shape.relocate(new ShapeStore(), 0, 0);
+			childrenChanged();
+		}
+	}
+	
+	/*
+	 * Removes the children held at the specified index positions, which 
+	 * must be valid and in ascending order. The two-way link between this
+	 * CarrierShape and each former child is destroyed.
+	 */
+	void removeAll(int[] indices) {
+		if (indices.length == 0) {
+			return;
+		}
+		
+		Shape[] removed = new Shape[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			removed[i] = _containedShapes.get(indices[i]);
+		}
+		for (Shape shape : removed) {
+			shape._parent = null;
+			_containedShapes.delete(shape);
+			shape.relocate(new ShapeStore(), 0, 0);
+		}
+		childrenChanged();
+	}
+	
+	/*
+	 * Informs the collision detector, if any, that children have been added
+	 * or removed.
+	 */
+	private void childrenChanged() {
+		if (_sweep != null) {
+			_sweep.invalidate();
 		}
 	}
 	
@@ -220,12 +271,10 @@ public class CarrierShape extends Shape {
 	 * @param shape shape to find.
 	 */
 	public int indexOf(Shape shape) {
-		for (int i = 0; i < _containedShapes.size(); i++) {
-			if (_containedShapes.get(i) == shape) {
-				return i;
-			}
+		if (shape == null || shape._parent != this) {
+			return -1;
 		}
-		return -1;
+		return _containedShapes.indexOf(shape);
 	}
 	
 	/**
@@ -233,11 +282,21 @@ public class CarrierShape extends Shape {
 	 * @param shape shape in question
 	 */
 	public boolean contains(Shape shape) {
-		if (indexOf(shape) == -1) {
-			return false;
-		}
-		else {
-			return true;
-		}
+		return shape != null && shape._parent == this;
 	}	
+	
+	/*
+	 * Transfers the state of this CarrierShape, and of every Shape it
+	 * contains, into the specified store.
+	 */
+	@Override
+	void relocate(ShapeStore store, int boundWidth, int boundHeight) {
+		super.relocate(store, boundWidth, boundHeight);
+		
+		int carrierWidth = width();
+		int carrierHeight = height();
+		for (Shape s: _containedShapes) {
+			s.relocate(store, carrierWidth, carrierHeight);
+		}
+	}
 }
@@ -0,0 +1,205 @@
+package spaceshapes;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Ordered list of the children of a CarrierShape, supporting append, removal
+ * of any child, and conversion between a child and its position, each in
+ * O(log n) amortised time.
+ *
+ * Children are held in an array of slots in the order they were added. Each
+ * child records its slot in Shape._index. Removing a child leaves its slot
+ * empty rather than shifting the children after it, and a Fenwick tree
+ * counting the occupied slots gives the position of a child (the number of
+ * children in earlier slots) and the child at a position in O(log n) time.
+ * The slots are compacted, renumbering every child, once the empty slots
+ * outnumber the children, so that compaction costs O(1) per removal when
+ * amortised, and iteration, which skips the empty slots, stays O(n).
+ */
+final class ChildList extends AbstractList<Shape> {
+	private static final int DEFAULT_CAPACITY = 8;
+
+	// Children by slot; removed children leave null slots.
+	private Shape[] _slots = new Shape[DEFAULT_CAPACITY];
+
+	// Fenwick tree over the occupation of _slots: entry i (from 1) counts
+	// the children in slots i - lowbit(i) to i - 1. Entries beyond _end are
+	// undefined, and are computed as slots are appended.
+	private int[] _tree = new int[DEFAULT_CAPACITY + 1];
+
+	// Number of slots used, including empty ones.
+	private int _end;
+
+	// Number of children.
+	private int _size;
+
+	@Override
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * Returns the child at index, in O(1) time if no slots are empty and
+	 * O(log n) time otherwise.
+	 */
+	@Override
+	public Shape get(int index) {
+		if (index < 0 || index >= _size) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (_end == _size) {
+			return _slots[index];
+		}
+
+		// Find the slot holding the (index + 1)th child.
+		int position = 0;
+		int remaining = index + 1;
+		for (int step = Integer.highestOneBit(_end); step > 0; step >>= 1) {
+			int next = position + step;
+			if (next <= _end && _tree[next] < remaining) {
+				position = next;
+				remaining -= _tree[next];
+			}
+		}
+		return _slots[position];
+	}
+
+	/**
+	 * Returns the position of o, or -1 if it is not a child in this list.
+	 */
+	@Override
+	public int indexOf(Object o) {
+		if (!(o instanceof Shape)) {
+			return -1;
+		}
+		int slot = ((Shape) o)._index;
+		if (slot < 0 || slot >= _end || _slots[slot] != o) {
+			return -1;
+		}
+		return (_end == _size) ? slot : count(slot);
+	}
+
+	@Override
+	public int lastIndexOf(Object o) {
+		return indexOf(o);
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return indexOf(o) != -1;
+	}
+
+	/**
+	 * Appends shape, recording its slot in shape._index.
+	 */
+	void append(Shape shape) {
+		if (_end == _slots.length) {
+			if (2 * _size > _end) {
+				_slots = Arrays.copyOf(_slots, 2 * _end);
+				_tree = new int[2 * _end + 1];
+			}
+			compact();
+		}
+		int slot = _end++;
+		_slots[slot] = shape;
+		shape._index = slot;
+		_size++;
+
+		// Entry slot + 1 covers the slots from slot + 1 - lowbit(slot + 1).
+		int i = slot + 1;
+		_tree[i] = 1 + count(slot) - count(i - (i & -i));
+		modCount++;
+	}
+
+	/**
+	 * Removes shape, which must be a child in this list.
+	 */
+	void delete(Shape shape) {
+		int slot = shape._index;
+		_slots[slot] = null;
+		_size--;
+		for (int i = slot + 1; i <= _end; i += i & -i) {
+			_tree[i]--;
+		}
+		if (_end - _size > Math.max(_size, DEFAULT_CAPACITY)) {
+			compact();
+		}
+		modCount++;
+	}
+
+	@Override
+	public Iterator<Shape> iterator() {
+		return new Iterator<Shape>() {
+			private int _slot = skip(0);
+
+			private final int _expectedModCount = modCount;
+
+			public boolean hasNext() {
+				return _slot < _end;
+			}
+
+			public Shape next() {
+				if (modCount != _expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				if (_slot >= _end) {
+					throw new NoSuchElementException();
+				}
+				Shape shape = _slots[_slot];
+				_slot = skip(_slot + 1);
+				return shape;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/*
+	 * Returns the number of children in the slots before slot.
+	 */
+	private int count(int slot) {
+		int count = 0;
+		for (int i = slot; i > 0; i -= i & -i) {
+			count += _tree[i];
+		}
+		return count;
+	}
+
+	/*
+	 * Returns the first occupied slot at or after slot, or _end if none.
+	 */
+	private int skip(int slot) {
+		while (slot < _end && _slots[slot] == null) {
+			slot++;
+		}
+		return slot;
+	}
+
+	/*
+	 * Moves the children into the leading slots, renumbering them, and
+	 * rebuilds the tree, in O(n) time.
+	 */
+	private void compact() {
+		int write = 0;
+		for (int read = 0; read < _end; read++) {
+			Shape shape = _slots[read];
+			if (shape != null) {
+				_slots[write] = shape;
+				shape._index = write++;
+			}
+		}
+		Arrays.fill(_slots, write, _end, null);
+		_end = write;
+
+		// Every slot is occupied, so entry i covers lowbit(i) children.
+		for (int i = 1; i <= _end; i++) {
+			_tree[i] = i & -i;
+		}
+	}
+}
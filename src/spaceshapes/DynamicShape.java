@@ -108,16 +108,30 @@ public class DynamicShape extends Shape {
 	 * @param painter Painter object used to paint the shape. 
 	 */
 	@Override
-	public void doPaint(Painter painter) {	
-		if (_shouldFill) {
+	public void doPaint(Painter painter, int x, int y, int width, int height, boolean fill) {	
+		if (fill) {
 			Color tempColour;
 			tempColour = painter.getColor();
 			painter.setColor(_c);
-			painter.fillRect(_x, _y, _width, _height);
+			painter.fillRect(x, y, width, height);
 			painter.setColor(tempColour);
 		}
 		else {
-			painter.drawRect(_x, _y, _width, _height);
+			painter.drawRect(x, y, width, height);
 		}
 	}
+	
+	/*
+	 * Returns the colour this DynamicShape is filled with.
+	 */
+	Color colour() {
+		return _c;
+	}
+	
+	/*
+	 * Sets the colour this DynamicShape is filled with.
+	 */
+	void setColour(Color colour) {
+		_c = colour;
+	}
 }
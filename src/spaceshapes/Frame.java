@@ -0,0 +1,361 @@
+package spaceshapes;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class to represent an immutable snapshot of the draw state of every Shape in
+ * a ShapeModel, captured at the end of a clock() call. A Frame holds, in
+ * primitive arrays, each Shape's position (both relative to its parent and in
+ * world coordinates), size and fill state, listed in the order in which the
+ * Shapes are painted: a CarrierShape is followed by the Shapes it contains.
+ *
+ * A Frame also records where each Shape was in the previous Frame, so that a
+ * renderer can paint the Shapes part way between the two ticks (see 
+ * paint(Painter, double)). 
+ * 
+ * A Frame is obtained from ShapeModel.acquireFrame() and may be read from any
+ * thread, without locking, while the model goes on to compute further ticks.
+ * Frames are recycled by the model: once a Frame has been released, it must
+ * no longer be used.
+ *
+ */
+public final class Frame {
+	// Number of ticks the model had performed when this Frame was captured.
+	private long _tick;
+
+	// Value of System.nanoTime() when this Frame was captured.
+	private long _nanoTime;
+
+	// Number of Shapes in this Frame.
+	private int _size;
+
+	// === Draw state of each Shape, in paint order. ===
+	private int[] _x = new int[0];
+
+	private int[] _y = new int[0];
+
+	private int[] _worldX = new int[0];
+
+	private int[] _worldY = new int[0];
+
+	private int[] _width = new int[0];
+
+	private int[] _height = new int[0];
+
+	private byte[] _flags = new byte[0];
+
+	// Position of each Shape, relative to its parent, in the previous Frame.
+	private int[] _previousX = new int[0];
+
+	private int[] _previousY = new int[0];
+
+	// Index just beyond the last Shape contained, directly or indirectly, by
+	// each Shape.
+	private int[] _end = new int[0];
+
+	private Shape[] _shapes = new Shape[0];
+
+	private String[] _text = new String[0];
+	// ===
+
+	/*
+	 * Number of holders of this Frame; the model holds a reference to the
+	 * latest Frame. A count of -1 marks a Frame being recaptured.
+	 */
+	private final AtomicInteger _references = new AtomicInteger();
+
+	Frame() {
+	}
+
+	/**
+	 * Returns the number of ticks the model had performed when this Frame was
+	 * captured.
+	 */
+	public long tick() {
+		return _tick;
+	}
+
+	/**
+	 * Returns the value of System.nanoTime() when this Frame was captured.
+	 */
+	public long nanoTime() {
+		return _nanoTime;
+	}
+
+	/**
+	 * Returns the number of Shapes in this Frame, including the root.
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * Returns the x position of the ith Shape, relative to its parent.
+	 */
+	public int x(int i) {
+		return _x[i];
+	}
+
+	/**
+	 * Returns the y position of the ith Shape, relative to its parent.
+	 */
+	public int y(int i) {
+		return _y[i];
+	}
+
+	/**
+	 * Returns the x position of the ith Shape, relative to its parent, in the
+	 * previous Frame. If the Shape was not in the previous Frame, or the
+	 * hierarchy was restructured between the two, this is x(i).
+	 */
+	public int previousX(int i) {
+		return _previousX[i];
+	}
+
+	/**
+	 * Returns the y position of the ith Shape, relative to its parent, in the
+	 * previous Frame, or y(i) if it is not known.
+	 */
+	public int previousY(int i) {
+		return _previousY[i];
+	}
+
+	/**
+	 * Returns the x position of the ith Shape in world coordinates.
+	 */
+	public int worldX(int i) {
+		return _worldX[i];
+	}
+
+	/**
+	 * Returns the y position of the ith Shape in world coordinates.
+	 */
+	public int worldY(int i) {
+		return _worldY[i];
+	}
+
+	/**
+	 * Returns the width of the ith Shape.
+	 */
+	public int width(int i) {
+		return _width[i];
+	}
+
+	/**
+	 * Returns the height of the ith Shape.
+	 */
+	public int height(int i) {
+		return _height[i];
+	}
+
+	/**
+	 * Returns true if the ith Shape is painted filled.
+	 */
+	public boolean isFilled(int i) {
+		return (_flags[i] & ShapeStore.FILL) != 0;
+	}
+
+	/**
+	 * Returns true if the ith Shape is a CarrierShape.
+	 */
+	public boolean isCarrier(int i) {
+		return (_flags[i] & ShapeStore.CARRIER) != 0;
+	}
+
+	/**
+	 * Returns the index just beyond the last Shape contained, directly or
+	 * indirectly, by the ith Shape; for a Shape that contains nothing, this
+	 * is i + 1.
+	 */
+	public int end(int i) {
+		return _end[i];
+	}
+
+	/**
+	 * Returns the ith Shape. Its current state may differ from that recorded
+	 * by this Frame.
+	 */
+	public Shape shape(int i) {
+		return _shapes[i];
+	}
+
+	/**
+	 * Returns the text of the ith Shape, or null if it has none.
+	 */
+	public String text(int i) {
+		return _text[i];
+	}
+
+	/**
+	 * Paints the Shapes in this Frame, exactly as painting the root of the
+	 * model would have done when this Frame was captured. Shapes lying wholly
+	 * outside the Painter's clip bounds are skipped, as are the Shapes they
+	 * contain.
+	 */
+	public void paint(Painter painter) {
+		paint(painter, 1.0);
+	}
+
+	/**
+	 * Paints the Shapes in this Frame at positions interpolated between the
+	 * previous Frame and this one. Each Shape's position relative to its 
+	 * parent is blended, so Shapes within a CarrierShape move smoothly with
+	 * it; sizes and fill states are always those of this Frame.
+	 * @param painter the Painter used for drawing.
+	 * @param alpha the fraction of the way from the previous Frame to this
+	 * one, from 0.0 (the previous positions) to 1.0 (this Frame's positions);
+	 * values outside this range are clamped.
+	 */
+	public void paint(Painter painter, double alpha) {
+		alpha = Math.max(0.0, Math.min(1.0, alpha));
+		Rectangle clip = painter.getClipBounds();
+		if (clip != null) {
+			clip = new Rectangle(clip);
+		}
+		int i = 0;
+		while (i < _size) {
+			i = paint(painter, i, alpha, clip);
+		}
+	}
+
+	/**
+	 * Releases this Frame, which must have been obtained from
+	 * ShapeModel.acquireFrame(). The Frame must not be used afterwards.
+	 */
+	public void release() {
+		_references.decrementAndGet();
+	}
+
+	/*
+	 * Paints the ith Shape, followed by the Shapes it contains, and returns
+	 * the index of the next Shape to paint. clip is the Painter's clip bounds
+	 * in the ith Shape's parent's co-ordinate space, or null; the whole 
+	 * subtree is skipped if it lies outside clip.
+	 */
+	private int paint(Painter painter, int i, double alpha, Rectangle clip) {
+		int x = _previousX[i] + (int) Math.round((_x[i] - _previousX[i]) * alpha);
+		int y = _previousY[i] + (int) Math.round((_y[i] - _previousY[i]) * alpha);
+		int next = i + 1;
+
+		if (!Shape.isVisible(clip, x, y, _width[i], _height[i])) {
+			return _end[i];
+		}
+
+		_shapes[i].doPaint(painter, x, y, _width[i], _height[i], isFilled(i));
+		if (isCarrier(i)) {
+			painter.translate(x, y);
+			if (clip != null) {
+				clip.translate(-x, -y);
+			}
+			while (next < _end[i]) {
+				next = paint(painter, next, alpha, clip);
+			}
+			if (clip != null) {
+				clip.translate(x, y);
+			}
+			painter.translate(-x, -y);
+		}
+		Shape.paintText(painter, _text[i], x, y, _width[i], _height[i]);
+		return next;
+	}
+
+	/*
+	 * Increments the reference count, unless the Frame is unreferenced or
+	 * being recaptured. Returns true if successful.
+	 */
+	boolean retain() {
+		while (true) {
+			int references = _references.get();
+			if (references <= 0) {
+				return false;
+			}
+			if (_references.compareAndSet(references, references + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/*
+	 * Claims an unreferenced Frame for recapture. Returns true if successful.
+	 */
+	boolean claim() {
+		return _references.compareAndSet(0, -1);
+	}
+
+	/*
+	 * Records the state of the hierarchy rooted at root, which must have
+	 * been claimed, and leaves this Frame with a single reference. previous
+	 * is the Frame captured at the preceding tick, or null.
+	 */
+	void capture(CarrierShape root, long tick, Frame previous) {
+		_tick = tick;
+		_nanoTime = System.nanoTime();
+		_size = 0;
+		capture(root, 0, 0);
+
+		// Shapes are matched with the previous Frame by paint order; those
+		// whose order has changed are not interpolated.
+		for (int i = 0; i < _size; i++) {
+			if (previous != null && i < previous._size && previous._shapes[i] == _shapes[i]) {
+				_previousX[i] = previous._x[i];
+				_previousY[i] = previous._y[i];
+			} else {
+				_previousX[i] = _x[i];
+				_previousY[i] = _y[i];
+			}
+		}
+		_references.set(1);
+	}
+
+	/*
+	 * Records shape, whose parent is at world position (originX, originY),
+	 * and the Shapes it contains.
+	 */
+	private void capture(Shape shape, int originX, int originY) {
+		int i = _size++;
+		if (i == _x.length) {
+			grow();
+		}
+
+		ShapeStore store = shape._store;
+		int slot = shape._slot;
+		int x = store._x[slot];
+		int y = store._y[slot];
+
+		_x[i] = x;
+		_y[i] = y;
+		_worldX[i] = originX + x;
+		_worldY[i] = originY + y;
+		_width[i] = store._width[slot];
+		_height[i] = store._height[slot];
+		_flags[i] = store._flags[slot];
+		_shapes[i] = shape;
+		_text[i] = shape.text();
+
+		if (shape instanceof CarrierShape) {
+			CarrierShape carrier = (CarrierShape) shape;
+			for (int child = 0; child < carrier.shapeCount(); child++) {
+				capture(carrier.shapeAt(child), originX + x, originY + y);
+			}
+		}
+		_end[i] = _size;
+	}
+
+	private void grow() {
+		int capacity = Math.max(16, _x.length * 2);
+		_x = Arrays.copyOf(_x, capacity);
+		_y = Arrays.copyOf(_y, capacity);
+		_worldX = Arrays.copyOf(_worldX, capacity);
+		_worldY = Arrays.copyOf(_worldY, capacity);
+		_width = Arrays.copyOf(_width, capacity);
+		_height = Arrays.copyOf(_height, capacity);
+		_flags = Arrays.copyOf(_flags, capacity);
+		_previousX = Arrays.copyOf(_previousX, capacity);
+		_previousY = Arrays.copyOf(_previousY, capacity);
+		_end = Arrays.copyOf(_end, capacity);
+		_shapes = Arrays.copyOf(_shapes, capacity);
+		_text = Arrays.copyOf(_text, capacity);
+	}
+}
@@ -0,0 +1,62 @@
+package spaceshapes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pool of Frames through which a ShapeModel publishes a snapshot of its
+ * Shapes after each tick. Frames are recycled once no reader holds them, so
+ * with a single reader the pool settles at three Frames: the one being read,
+ * the latest and the one being captured. Further Frames are allocated only
+ * while readers hold on to older ones.
+ *
+ * publish() must only be called by the thread that clocks the model;
+ * acquire() may be called from any thread.
+ */
+final class FrameBuffer {
+	// Most recently published Frame, to which the buffer holds a reference.
+	private final AtomicReference<Frame> _latest = new AtomicReference<Frame>();
+
+	// Every Frame allocated by this buffer; accessed only by publish().
+	private final List<Frame> _frames = new ArrayList<Frame>();
+
+	/**
+	 * Captures the hierarchy rooted at root into an unused Frame and makes
+	 * it the latest Frame.
+	 */
+	void publish(CarrierShape root, long tick) {
+		Frame frame = null;
+		for (Frame candidate : _frames) {
+			if (candidate.claim()) {
+				frame = candidate;
+				break;
+			}
+		}
+		if (frame == null) {
+			frame = new Frame();
+			frame.claim();
+			_frames.add(frame);
+		}
+
+		frame.capture(root, tick, _latest.get());
+		Frame previous = _latest.getAndSet(frame);
+		if (previous != null) {
+			previous.release();
+		}
+	}
+
+	/**
+	 * Returns the latest Frame, which the caller must release, or null if no
+	 * Frame has been published.
+	 */
+	Frame acquire() {
+		while (true) {
+			Frame frame = _latest.get();
+			if (frame == null || frame.retain()) {
+				return frame;
+			}
+			// The Frame was superseded and recycled; try the new latest.
+		}
+	}
+}
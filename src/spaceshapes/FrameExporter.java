@@ -0,0 +1,270 @@
+package spaceshapes;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Class that renders a range of ticks of an animation to numbered image files,
+ * headlessly and as fast as the machine allows rather than in real time.
+ *
+ * The state of a ShapeModel at any tick can be computed directly (see
+ * ShapeModel.clock(long)), so frames are rendered by several workers at once.
+ * Each worker builds its own ShapeModel from a ModelFactory, repeatedly claims
+ * a run of consecutive ticks, jumps its model to the first of them and then
+ * clocks and rasterises (with a RasterPainter) one tick at a time. Workers
+ * also encode the frames they render, so encoding (which dominates the cost
+ * of a PNG frame) is spread across all of them. Encoded frames are handed
+ * through a bounded queue to the thread that called export(), which only
+ * writes them to disk; workers wait when the writer falls behind, so memory
+ * use is bounded however slow the disk. Each worker reuses one image for all
+ * its frames.
+ *
+ * Frames are written as PNG files or as raw files holding, row by row,
+ * three bytes (red, green, blue) per pixel. Frame n is written to a file
+ * named frame-n, with n padded to six digits.
+ *
+ */
+public class FrameExporter {
+	/**
+	 * Creates the ShapeModels rendered by an exporter. Every model created
+	 * must be identical at tick 0.
+	 */
+	public interface ModelFactory {
+		public ShapeModel create();
+	}
+
+	public enum Format {Png, Raw};
+
+	// Default number of consecutive ticks claimed by a worker at a time.
+	public static final int DEFAULT_RUN_LENGTH = 16;
+
+	private ModelFactory _factory;
+
+	private File _directory;
+
+	private Format _format;
+
+	private int _threads = Runtime.getRuntime().availableProcessors();
+
+	private int _runLength = DEFAULT_RUN_LENGTH;
+
+	// Maximum number of rendered frames awaiting the writer.
+	private int _queueCapacity = 2 * Runtime.getRuntime().availableProcessors();
+
+	// Frame rate achieved by the most recent export.
+	private double _framesPerSecond;
+
+	/**
+	 * Creates a FrameExporter.
+	 * @param factory the source of the models to render.
+	 * @param directory the directory that frames are written to, which must
+	 * exist.
+	 * @param format the format in which frames are written.
+	 */
+	public FrameExporter(ModelFactory factory, File directory, Format format) {
+		_factory = factory;
+		_directory = directory;
+		_format = format;
+	}
+
+	/**
+	 * Sets the number of worker threads that render frames, the number of
+	 * consecutive ticks each claims at a time and the number of rendered
+	 * frames that may await writing.
+	 * @throws IllegalArgumentException if any argument is less than 1.
+	 */
+	public void setParallelism(int threads, int runLength, int queueCapacity) {
+		if (threads < 1 || runLength < 1 || queueCapacity < 1) {
+			throw new IllegalArgumentException();
+		}
+		_threads = threads;
+		_runLength = runLength;
+		_queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Renders and writes the frames for ticks first (inclusive) to last
+	 * (exclusive).
+	 * @return the number of frames rendered and written per second.
+	 * @throws IllegalArgumentException if first is negative or last is less
+	 * than first.
+	 * @throws IOException if a frame cannot be written, in which case
+	 * rendering is abandoned.
+	 */
+	public double export(final long first, final long last) throws IOException, InterruptedException {
+		if (first < 0 || last < first) {
+			throw new IllegalArgumentException();
+		}
+		long start = System.nanoTime();
+		long count = last - first;
+
+		final BlockingQueue<EncodedFrame> encoded = new ArrayBlockingQueue<EncodedFrame>(_queueCapacity);
+		final AtomicLong nextRun = new AtomicLong(first);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		ExecutorService workers = Executors.newFixedThreadPool(_threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "FrameExporter");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			for (int i = 0; i < _threads; i++) {
+				workers.execute(new Runnable() {
+					public void run() {
+						try {
+							render(first, last, nextRun, encoded);
+						} catch (InterruptedException e) {
+							// Export abandoned.
+						} catch (Throwable e) {
+							failure.compareAndSet(null, e);
+						}
+					}
+				});
+			}
+
+			for (long written = 0; written < count; ) {
+				EncodedFrame frame = encoded.poll(100, TimeUnit.MILLISECONDS);
+				if (frame == null) {
+					Throwable cause = failure.get();
+					if (cause instanceof IOException) {
+						throw (IOException) cause;
+					} else if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					} else if (cause instanceof Error) {
+						throw (Error) cause;
+					}
+					continue;
+				}
+				write(frame);
+				written++;
+			}
+		} finally {
+			workers.shutdownNow();
+		}
+
+		long elapsed = Math.max(1, System.nanoTime() - start);
+		_framesPerSecond = count * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+		return _framesPerSecond;
+	}
+
+	/**
+	 * Returns the number of frames per second achieved by the most recent
+	 * export.
+	 */
+	public double framesPerSecond() {
+		return _framesPerSecond;
+	}
+
+	/**
+	 * Returns the file that frame tick is written to.
+	 */
+	public File file(long tick) {
+		String extension = (_format == Format.Png) ? ".png" : ".rgb";
+		return new File(_directory, String.format("frame-%06d%s", tick, extension));
+	}
+
+	/*
+	 * Body of a worker: claims runs of ticks until none remain, rendering
+	 * each tick into an image, encoding it and queuing it for the writer.
+	 */
+	private void render(long first, long last, AtomicLong nextRun, BlockingQueue<EncodedFrame> encoded)
+			throws IOException, InterruptedException {
+		ShapeModel model = _factory.create();
+		CarrierShape root = model.root();
+		BufferedImage image = new BufferedImage(root.width(), root.height(), BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		long tick = 0;
+
+		while (true) {
+			long runStart = nextRun.getAndAdd(_runLength);
+			if (runStart >= last) {
+				return;
+			}
+			long runEnd = Math.min(last, runStart + _runLength);
+
+			// Runs are claimed in increasing order, so the model only moves
+			// forward.
+			model.clock(runStart - tick);
+			tick = runStart;
+			while (true) {
+				Arrays.fill(pixels, 0);
+				RasterPainter painter = new RasterPainter(image);
+				root.paint(painter);
+				painter.dispose();
+				encoded.put(new EncodedFrame(tick, encode(image)));
+
+				if (tick + 1 == runEnd) {
+					break;
+				}
+				model.clock();
+				tick++;
+			}
+		}
+	}
+
+	/*
+	 * Returns the contents of the file for a frame showing image.
+	 */
+	private byte[] encode(BufferedImage image) throws IOException {
+		if (_format == Format.Png) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			if (!ImageIO.write(image, "png", out)) {
+				throw new IOException("No PNG writer available");
+			}
+			return out.toByteArray();
+		}
+
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		byte[] bytes = new byte[pixels.length * 3];
+		for (int i = 0; i < pixels.length; i++) {
+			int pixel = pixels[i];
+			bytes[3 * i] = (byte) (pixel >> 16);
+			bytes[3 * i + 1] = (byte) (pixel >> 8);
+			bytes[3 * i + 2] = (byte) pixel;
+		}
+		return bytes;
+	}
+
+	/*
+	 * Writes frame to its file.
+	 */
+	private void write(EncodedFrame frame) throws IOException {
+		FileOutputStream out = new FileOutputStream(file(frame._tick));
+		try {
+			out.write(frame._bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	/*
+	 * The encoded contents of a frame's file, and the tick it shows.
+	 */
+	private static final class EncodedFrame {
+		private final long _tick;
+
+		private final byte[] _bytes;
+
+		EncodedFrame(long tick, byte[] bytes) {
+			_tick = tick;
+			_bytes = bytes;
+		}
+	}
+}
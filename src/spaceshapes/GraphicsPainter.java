@@ -1,8 +1,17 @@
 package spaceshapes;
 
 import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Implementation of the Painter interface that delegates drawing to a
@@ -12,15 +21,65 @@ import java.awt.Image;
  * 
  */
 public class GraphicsPainter implements Painter {
+	// Colour that shapes are painted in by default.
+	static final Color DEFAULT_COLOUR = new Color(212, 212, 212);
+	
+	// Number of entries beyond which a text cache is emptied.
+	private static final int TEXT_CACHE_LIMIT = 4096;
+	
+	// Text metrics shared by all GraphicsPainters.
+	private static final Map<TextKey, CachedText> _textCache = new ConcurrentHashMap<TextKey, CachedText>();
+	
+	// Glyphs laid out by each thread. A GlyphVector is mutable, and computes
+	// glyph positions lazily, so it is never drawn by two threads at once.
+	private static final ThreadLocal<Map<TextKey, GlyphVector>> _glyphCache = new ThreadLocal<Map<TextKey, GlyphVector>>() {
+		@Override
+		protected Map<TextKey, GlyphVector> initialValue() {
+			return new HashMap<TextKey, GlyphVector>();
+		}
+	};
+	
 	// Delegate object.
 	private Graphics _g;
 	
+	// Distance by which text may extend beyond the shapes it labels.
+	private int _textMarginX;
+	private int _textMarginY;
+	
+	// Delegate's clip, widened by the text margins, in the current 
+	// co-ordinate space; null until first requested or if unclipped.
+	private Rectangle _clip;
+	
+	private boolean _clipKnown;
+	
 	/**
 	 * Creates a GraphicsPainter object and sets its Graphics delegate.
 	 */
 	public GraphicsPainter(Graphics g) {
+		setGraphics(g);
+	}
+	
+	/**
+	 * Sets this GraphicsPainter's Graphics delegate, so that the painter can
+	 * be reused for successive frames. 
+	 */
+	public void setGraphics(Graphics g) {
 		this._g = g;
-		_g.setColor(new Color(212, 212, 212));
+		_g.setColor(DEFAULT_COLOUR);
+		_clipKnown = false;
+	}
+	
+	/**
+	 * Sets the distance by which centred text may extend horizontally and
+	 * vertically beyond the shape it labels. The clip bounds reported to
+	 * shapes are widened by this margin, so that a shape lying just outside
+	 * the clip is still painted if its text reaches into it. The margin is 
+	 * 0 by default.
+	 */
+	public void setTextMargin(int x, int y) {
+		_textMarginX = x;
+		_textMarginY = y;
+		_clipKnown = false;
 	}
 
 	/**
@@ -70,13 +129,45 @@ public class GraphicsPainter implements Painter {
 	 */
 	public void translate(int x, int y) {
 		_g.translate(x, y);
+		if (_clip != null) {
+			_clip.translate(-x, -y);
+		}
+	}
+	
+	/**
+	 * @see spaceshapes.Painter.getClipBounds.
+	 * 
+	 * The delegate's clip is read once, when first requested after 
+	 * setGraphics() or setTextMargin(), and thereafter tracks translate() 
+	 * calls; the clip must not be changed through the delegate meanwhile.
+	 */
+	public Rectangle getClipBounds() {
+		if (!_clipKnown) {
+			_clip = _g.getClipBounds();
+			if (_clip != null) {
+				_clip.grow(_textMarginX, _textMarginY);
+			}
+			_clipKnown = true;
+		}
+		return _clip;
 	}
 	
 	/**
 	 * @see spaceshapes.Painter.drawCentredText.
+	 * 
+	 * The text's metrics are looked up in a cache shared by all
+	 * GraphicsPainters, and the GlyphVector used to draw it in a cache held
+	 * by the calling thread, so that labels which do not change between
+	 * frames are measured once and laid out once per thread.
 	 */
 	public void drawCentredText(String text, int x, int y, int shapeWidth, int shapeHeight) {
-		int textWidth = _g.getFontMetrics().stringWidth(text);
+		Font font = _g.getFont();
+		FontRenderContext context = (_g instanceof Graphics2D) ? ((Graphics2D)_g).getFontRenderContext() : null;
+		TextKey key = new TextKey(font, context, text);
+		CachedText cached = cachedText(key);
+		int textWidth = cached._width;
+		int ascent = cached._ascent;
+		int descent = cached._descent;
 		int startX;
 		int startY;
 		int adjustmentY = 0;
@@ -87,26 +178,130 @@ public class GraphicsPainter implements Painter {
 		else {
 			startX = x - ((textWidth - shapeWidth) / 2);
 		}
-		//System.out.println("Ascent = " + _g.getFontMetrics().getMaxAscent());
-		//System.out.println("Descent = " + _g.getFontMetrics().getMaxDescent());
 		//Adjustments in the y direction to centre the text
-		if (_g.getFontMetrics().getAscent() > _g.getFontMetrics().getDescent()) {
-			adjustmentY = (_g.getFontMetrics().getAscent() - _g.getFontMetrics().getDescent()) /2;
+		if (ascent > descent) {
+			adjustmentY = (ascent - descent) /2;
 			startY = y + shapeHeight/2 + adjustmentY;
 		}
-		else if (_g.getFontMetrics().getAscent() < _g.getFontMetrics().getDescent()) {
-			adjustmentY = (_g.getFontMetrics().getDescent() - _g.getFontMetrics().getAscent()) /2;
+		else if (ascent < descent) {
+			adjustmentY = (descent - ascent) /2;
 			startY = y + shapeHeight/2 - adjustmentY;
 		}
 		else {
 			startY = y;
 		}
 		//Draws the text
-		_g.drawString(text, startX, startY);
+		if (cached._simple) {
+			((Graphics2D)_g).drawGlyphVector(glyphs(key), startX, startY);
+		}
+		else {
+			_g.drawString(text, startX, startY);
+		}
 	}
 
 	@Override
 	public void drawImage(Image _picture, int _x, int _y, int _width, int _height) {
 		_g.drawImage(_picture, _x, _y, _width, _height, null);		
 	}
+
+	/*
+	 * Returns the metrics of the text identified by key, measuring the text
+	 * if it is not already cached.
+	 */
+	private CachedText cachedText(TextKey key) {
+		CachedText cached = _textCache.get(key);
+		if (cached == null) {
+			FontMetrics metrics = _g.getFontMetrics(key._font);
+			
+			// Text that may need complex layout is left to drawString().
+			boolean simple = key._context != null && !requiresLayout(key._text);
+			cached = new CachedText(metrics.stringWidth(key._text), metrics.getAscent(), metrics.getDescent(), simple);
+			
+			if (_textCache.size() >= TEXT_CACHE_LIMIT) {
+				_textCache.clear();
+			}
+			_textCache.put(key, cached);
+		}
+		return cached;
+	}
+	
+	/*
+	 * Returns the calling thread's GlyphVector for the text identified by
+	 * key, laying out the text if necessary.
+	 */
+	private static GlyphVector glyphs(TextKey key) {
+		Map<TextKey, GlyphVector> cache = _glyphCache.get();
+		GlyphVector glyphs = cache.get(key);
+		if (glyphs == null) {
+			glyphs = key._font.createGlyphVector(key._context, key._text.toCharArray());
+			if (cache.size() >= TEXT_CACHE_LIMIT) {
+				cache.clear();
+			}
+			cache.put(key, glyphs);
+		}
+		return glyphs;
+	}
+	
+	/*
+	 * Returns true if text may need more than a one-to-one mapping of 
+	 * characters to glyphs. Characters from U+0590 (Hebrew) onwards are 
+	 * conservatively assumed to belong to scripts that need shaping or 
+	 * bidirectional layout.
+	 */
+	private static boolean requiresLayout(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) >= '\u0590') {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/*
+	 * Key identifying text drawn in a particular font and rendering context.
+	 */
+	private static final class TextKey {
+		final Font _font;
+		final FontRenderContext _context;
+		final String _text;
+		
+		TextKey(Font font, FontRenderContext context, String text) {
+			_font = font;
+			_context = context;
+			_text = text;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof TextKey)) {
+				return false;
+			}
+			TextKey other = (TextKey)obj;
+			return _text.equals(other._text) && _font.equals(other._font) 
+					&& (_context == null ? other._context == null : _context.equals(other._context));
+		}
+		
+		@Override
+		public int hashCode() {
+			return (_text.hashCode() * 31 + _font.hashCode()) * 31 + (_context == null ? 0 : _context.hashCode());
+		}
+	}
+	
+	/*
+	 * Measured text. _simple is true if the text is drawn from a cached
+	 * GlyphVector, and false if it is drawn with drawString().
+	 */
+	private static final class CachedText {
+		final int _width;
+		final int _ascent;
+		final int _descent;
+		final boolean _simple;
+		
+		CachedText(int width, int ascent, int descent, boolean simple) {
+			_width = width;
+			_ascent = ascent;
+			_descent = descent;
+			_simple = simple;
+		}
+	}
 }
@@ -69,22 +69,22 @@ public class HexagonShape extends Shape {
 	 * Paints the HexagonShape instance with the supplied painter object.
 	 */
 	@Override
-	public void doPaint(Painter painter) {
+	public void doPaint(Painter painter, int x, int y, int width, int height, boolean fill) {
 		// 6 edges if the Hexagon's width is greater than or equal to 40 pixels.
-		if (_width >= 40) {
-			painter.drawLine(_x, _y+_height/2, _x+20, _y);
-			painter.drawLine(_x+20, _y, _x+_width-20, _y);
-			painter.drawLine(_x+_width-20, _y, _x+_width, _y+_height/2);
-			painter.drawLine(_x+_width, _y+_height/2, _x+_width-20, _y+_height);
-			painter.drawLine(_x+_width-20, _y+_height, _x+20, _y+_height);
-			painter.drawLine(_x+20, _y+_height, _x, _y+_height/2);
+		if (width >= 40) {
+			painter.drawLine(x, y+height/2, x+20, y);
+			painter.drawLine(x+20, y, x+width-20, y);
+			painter.drawLine(x+width-20, y, x+width, y+height/2);
+			painter.drawLine(x+width, y+height/2, x+width-20, y+height);
+			painter.drawLine(x+width-20, y+height, x+20, y+height);
+			painter.drawLine(x+20, y+height, x, y+height/2);
 		}
 		// 4 edges if the Hexagon's width is less than 40.
 		else {
-			painter.drawLine(_x, _y+_height/2, _x+_width/2, _y);
-			painter.drawLine(_x+_width/2, _y, _x+_width, _y+_height/2);
-			painter.drawLine(_x+_width, _y+_height/2, _x+_width/2, _y+_height);
-			painter.drawLine(_x+_width/2, _y+_height, _x, _y+_height/2);
+			painter.drawLine(x, y+height/2, x+width/2, y);
+			painter.drawLine(x+width/2, y, x+width, y+height/2);
+			painter.drawLine(x+width, y+height/2, x+width/2, y+height);
+			painter.drawLine(x+width/2, y+height, x, y+height/2);
 		}
 	}
 
@@ -20,8 +20,8 @@ public class ImageRectangleShape extends RectangleShape {
 	}
 	
 	@Override
-	public void doPaint(Painter painter) {
-		painter.drawImage(_picture,_x,_y,_width,_height);
+	public void doPaint(Painter painter, int x, int y, int width, int height, boolean fill) {
+		painter.drawImage(_picture,x,y,width,height);
 	}
 }
 
@@ -0,0 +1,244 @@
+package spaceshapes;
+
+import java.awt.Rectangle;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ShapeModelListener that queues the events it receives and delivers them to
+ * another ShapeModelListener asynchronously. Events are delivered in order by
+ * tasks submitted to an Executor: either one of the caller's choosing (for
+ * example, one that hands tasks to the Event Dispatch Thread) or a dedicated
+ * delivery thread. A delivery task drains every event queued when it runs.
+ *
+ * The queue is bounded. What happens when an event arrives at a full queue is
+ * governed by a ShapeModel.OverflowPolicy.
+ *
+ * An exception thrown by the target is passed to the delivering thread's
+ * uncaught exception handler, and delivery continues with the next event. An
+ * Error thrown by the target ends the delivery task, but a new task is
+ * submitted for any events that remain. If the Executor rejects a delivery
+ * task, for example because it has been shut down, the ListenerQueue behaves
+ * as if it had been closed.
+ */
+final class ListenerQueue implements ShapeModelListener {
+	private final ShapeModelListener _target;
+
+	private final ShapeModel.OverflowPolicy _policy;
+
+	private final int _capacity;
+
+	private final Executor _executor;
+
+	// Executor created by this ListenerQueue, shut down by close().
+	private final ExecutorService _ownExecutor;
+
+	// Events awaiting delivery; guarded by this.
+	private final ArrayDeque<ShapeModelEvent> _queue = new ArrayDeque<ShapeModelEvent>();
+
+	// True while a delivery task is pending or running; guarded by this.
+	private boolean _scheduled;
+
+	private boolean _closed;
+
+	private final Runnable _delivery = new Runnable() {
+		public void run() {
+			deliver();
+		}
+	};
+
+	/**
+	 * Creates a ListenerQueue that delivers events to target.
+	 * @param target the listener to deliver events to.
+	 * @param policy the action taken when the queue is full.
+	 * @param capacity the maximum number of events queued.
+	 * @param executor the Executor that runs delivery tasks, or null to run
+	 * them on a dedicated daemon thread.
+	 * @throws IllegalArgumentException if capacity is less than 1.
+	 */
+	ListenerQueue(ShapeModelListener target, ShapeModel.OverflowPolicy policy, int capacity, Executor executor) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException();
+		}
+		_target = target;
+		_policy = policy;
+		_capacity = capacity;
+
+		if (executor == null) {
+			_ownExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ShapeModelListener");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			_executor = _ownExecutor;
+		} else {
+			_ownExecutor = null;
+			_executor = executor;
+		}
+	}
+
+	/**
+	 * Returns the listener to which events are delivered.
+	 */
+	ShapeModelListener target() {
+		return _target;
+	}
+
+	/**
+	 * Queues event for delivery. Depending on the overflow policy, this
+	 * method may block until there is room in the queue.
+	 */
+	public void update(ShapeModelEvent event) {
+		boolean schedule;
+
+		synchronized (this) {
+			if (_closed) {
+				return;
+			}
+
+			if (_policy == ShapeModel.OverflowPolicy.Coalesce) {
+				ShapeModelEvent last = _queue.peekLast();
+				if (last != null && isMove(last) && isMove(event)) {
+					_queue.pollLast();
+					event = merge(last, event);
+				}
+			}
+
+			while (_queue.size() >= _capacity) {
+				if (_policy == ShapeModel.OverflowPolicy.DropOldest) {
+					_queue.pollFirst();
+				} else {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+					if (_closed) {
+						return;
+					}
+				}
+			}
+
+			_queue.addLast(event);
+			schedule = !_scheduled;
+			_scheduled = true;
+		}
+
+		if (schedule) {
+			schedule();
+		}
+	}
+
+	/**
+	 * Discards any undelivered events and stops delivery. Threads blocked in
+	 * update() are released.
+	 */
+	void close() {
+		discard();
+		if (_ownExecutor != null) {
+			_ownExecutor.shutdown();
+		}
+	}
+
+	/*
+	 * Body of a delivery task: delivers queued events until the queue is
+	 * empty.
+	 */
+	private void deliver() {
+		boolean finished = false;
+		try {
+			while (true) {
+				ShapeModelEvent event;
+				synchronized (this) {
+					event = _queue.pollFirst();
+					if (event == null || _closed) {
+						_scheduled = false;
+						finished = true;
+						return;
+					}
+					notifyAll();
+				}
+
+				try {
+					_target.update(event);
+				} catch (RuntimeException e) {
+					// Report the failure and carry on: a producer blocked in
+					// update() relies on this task to drain the queue.
+					Thread thread = Thread.currentThread();
+					thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+				}
+			}
+		} finally {
+			if (!finished) {
+				// An Error is escaping from the target; hand any remaining
+				// events to a new task.
+				boolean schedule;
+				synchronized (this) {
+					schedule = !_queue.isEmpty() && !_closed;
+					_scheduled = schedule;
+					notifyAll();
+				}
+				if (schedule) {
+					schedule();
+				}
+			}
+		}
+	}
+
+	/*
+	 * Submits a delivery task, closing this ListenerQueue if the Executor
+	 * rejects it.
+	 */
+	private void schedule() {
+		try {
+			_executor.execute(_delivery);
+		} catch (RejectedExecutionException e) {
+			discard();
+		}
+	}
+
+	/*
+	 * Discards any undelivered events and stops delivery, releasing threads
+	 * blocked in update().
+	 */
+	private synchronized void discard() {
+		_closed = true;
+		_scheduled = false;
+		_queue.clear();
+		notifyAll();
+	}
+
+	/*
+	 * Returns true if event is a ShapeMoved event fired by clock(), which
+	 * describes the root.
+	 */
+	private static boolean isMove(ShapeModelEvent event) {
+		return event.eventType() == ShapeModelEvent.EventType.ShapeMoved && event.parent() == null;
+	}
+
+	/*
+	 * Returns a single ShapeMoved event equivalent to earlier followed by
+	 * later; its dirty region covers both.
+	 */
+	private static ShapeModelEvent merge(ShapeModelEvent earlier, ShapeModelEvent later) {
+		Rectangle first = earlier.dirtyRegion();
+		Rectangle second = later.dirtyRegion();
+		Rectangle dirtyRegion;
+
+		if (first == null) {
+			dirtyRegion = second;
+		} else if (second == null) {
+			dirtyRegion = first;
+		} else {
+			dirtyRegion = first.union(second);
+		}
+		return ShapeModelEvent.makeShapeMovedEvent(later.operand(), later.source(), dirtyRegion);
+	}
+}
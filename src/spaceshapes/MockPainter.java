@@ -2,6 +2,7 @@ package spaceshapes;
 
 import java.awt.Color;
 import java.awt.Image;
+import java.awt.Rectangle;
 
 /**
  * Implementation of the Painter interface that does not actually do any
@@ -91,4 +92,11 @@ public class MockPainter implements Painter {
 		// TODO Auto-generated method stub
 		
 	}
+
+	/**
+	 * Returns null, so that every call is logged.
+	 */
+	public Rectangle getClipBounds() {
+		return null;
+	}
 }
\ No newline at end of file
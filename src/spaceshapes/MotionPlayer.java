@@ -0,0 +1,297 @@
+package spaceshapes;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Class that replays a recording written by a MotionRecorder. A MotionPlayer
+ * is positioned at one recorded tick at a time, and reports the state of
+ * every Shape at that tick; Shapes are identified by their position in the
+ * breadth-first listing described by MotionRecorder, and are positioned
+ * relative to their parent.
+ *
+ * The index is read when the player is created. seek() finds the latest
+ * keyframe at or before the requested tick through the index, maps the
+ * frames from that keyframe to the next into memory, loads the keyframe and
+ * applies the following frames up to that tick, so the cost of a seek is
+ * bounded by the keyframe interval, however long the recording.
+ *
+ */
+public class MotionPlayer implements Closeable {
+	private final FileInputStream _in;
+
+	private final FileChannel _channel;
+
+	// Tick and offset of each keyframe, in order.
+	private final long[] _keyframeTicks;
+
+	private final long[] _keyframeOffsets;
+
+	// Frames from keyframe _keyframe to the next, or null before the first
+	// seek.
+	private ByteBuffer _frames;
+
+	private int _keyframe;
+
+	// Tick the player is positioned at, or -1 before the first seek.
+	private long _tick = -1;
+
+	private int _count;
+
+	// === State of each Shape at the current tick. ===
+	private int[] _parent = new int[0];
+
+	private int[] _x = new int[0];
+
+	private int[] _y = new int[0];
+
+	private int[] _deltaX = new int[0];
+
+	private int[] _deltaY = new int[0];
+
+	private int[] _width = new int[0];
+
+	private int[] _height = new int[0];
+	// ===
+
+	/**
+	 * Creates a MotionPlayer for the recording held in file, which remains
+	 * open until close() is called.
+	 * @throws IOException if the recording or its index cannot be read, or
+	 * the recording holds no keyframes.
+	 */
+	public MotionPlayer(File file) throws IOException {
+		File indexFile = MotionRecorder.indexFile(file);
+		int keyframes = (int) Math.min(indexFile.length() / 16, Integer.MAX_VALUE);
+		if (keyframes == 0) {
+			throw new IOException(file + " holds no keyframes");
+		}
+		_keyframeTicks = new long[keyframes];
+		_keyframeOffsets = new long[keyframes];
+		DataInputStream index = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+		try {
+			for (int i = 0; i < keyframes; i++) {
+				_keyframeTicks[i] = index.readLong();
+				_keyframeOffsets[i] = index.readLong();
+			}
+		} finally {
+			index.close();
+		}
+
+		_in = new FileInputStream(file);
+		_channel = _in.getChannel();
+		try {
+			long size = _channel.size();
+			for (int i = 0; i < keyframes; i++) {
+				long end = (i + 1 < keyframes) ? _keyframeOffsets[i + 1] : size;
+				if (_keyframeOffsets[i] < 0 || end < _keyframeOffsets[i] || end > size
+						|| end - _keyframeOffsets[i] > Integer.MAX_VALUE) {
+					throw new IOException(file + " is corrupt");
+				}
+			}
+		} catch (IOException e) {
+			_in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the first tick recorded.
+	 */
+	public long firstTick() {
+		return _keyframeTicks[0];
+	}
+
+	/**
+	 * Positions the player at tick.
+	 * @throws IllegalArgumentException if tick was not recorded.
+	 * @throws IOException if the recording is corrupt.
+	 */
+	public void seek(long tick) throws IOException {
+		int keyframe = Arrays.binarySearch(_keyframeTicks, tick);
+		if (keyframe < 0) {
+			keyframe = -keyframe - 2;
+		}
+		if (keyframe < 0) {
+			throw new IllegalArgumentException("Tick " + tick + " was not recorded");
+		}
+		if (_tick > tick || _tick < _keyframeTicks[keyframe]) {
+			map(keyframe);
+			readFrame();
+		}
+		while (_tick < tick) {
+			if (!next() || _tick > tick) {
+				throw new IllegalArgumentException("Tick " + tick + " was not recorded");
+			}
+		}
+	}
+
+	/**
+	 * Advances the player to the next recorded tick.
+	 * @return false, leaving the player where it was, if the player is at the
+	 * end of the recording.
+	 * @throws IllegalStateException if seek() has not been called.
+	 * @throws IOException if the recording is corrupt.
+	 */
+	public boolean next() throws IOException {
+		if (_tick == -1) {
+			throw new IllegalStateException();
+		}
+		while (!_frames.hasRemaining()) {
+			if (_keyframe + 1 == _keyframeTicks.length) {
+				return false;
+			}
+			map(_keyframe + 1);
+		}
+		readFrame();
+		return true;
+	}
+
+	/**
+	 * Closes the recording.
+	 */
+	public void close() throws IOException {
+		_in.close();
+	}
+
+	/**
+	 * Returns the tick the player is positioned at.
+	 */
+	public long tick() {
+		return _tick;
+	}
+
+	/**
+	 * Returns the number of Shapes in the model at the current tick.
+	 */
+	public int shapeCount() {
+		return _count;
+	}
+
+	/**
+	 * Returns the index of the parent of Shape i, or -1 if its parent is the
+	 * root CarrierShape.
+	 */
+	public int parent(int i) {
+		check(i);
+		return _parent[i];
+	}
+
+	public int x(int i) {
+		check(i);
+		return _x[i];
+	}
+
+	public int y(int i) {
+		check(i);
+		return _y[i];
+	}
+
+	public int deltaX(int i) {
+		check(i);
+		return _deltaX[i];
+	}
+
+	public int deltaY(int i) {
+		check(i);
+		return _deltaY[i];
+	}
+
+	public int width(int i) {
+		check(i);
+		return _width[i];
+	}
+
+	public int height(int i) {
+		check(i);
+		return _height[i];
+	}
+
+	private void check(int i) {
+		if (i < 0 || i >= _count) {
+			throw new IndexOutOfBoundsException();
+		}
+	}
+
+	/*
+	 * Reads the frame at the current position of the recording, applying it
+	 * to the state of the player.
+	 */
+	private void readFrame() throws IOException {
+		try {
+			byte type = _frames.get();
+			if (type == MotionRecorder.KEYFRAME) {
+				long tick = MotionRecorder.getVarLong(_frames);
+				int count = (int) MotionRecorder.getVarLong(_frames);
+				if (count < 0 || count > _frames.remaining()) {
+					throw new IOException("Recording is corrupt");
+				}
+				if (count > _parent.length) {
+					_parent = new int[count];
+					_x = new int[count];
+					_y = new int[count];
+					_deltaX = new int[count];
+					_deltaY = new int[count];
+					_width = new int[count];
+					_height = new int[count];
+				}
+				for (int i = 0; i < count; i++) {
+					_parent[i] = (int) MotionRecorder.getVarLong(_frames) - 1;
+					_x[i] = getInt();
+					_y[i] = getInt();
+					_deltaX[i] = getInt();
+					_deltaY[i] = getInt();
+					_width[i] = getInt();
+					_height[i] = getInt();
+				}
+				_count = count;
+				_tick = tick;
+			} else if (type == MotionRecorder.DELTA && _tick != -1) {
+				// Shapes that are not listed moved as predicted.
+				for (int i = 0; i < _count; i++) {
+					_x[i] += _deltaX[i];
+					_y[i] += _deltaY[i];
+				}
+				int changed = _frames.getInt();
+				int i = -1;
+				for (int j = 0; j < changed; j++) {
+					i += (int) MotionRecorder.getVarLong(_frames) + 1;
+					if (i < 0 || i >= _count) {
+						throw new IOException("Recording is corrupt");
+					}
+					_x[i] += getInt();
+					_y[i] += getInt();
+					_deltaX[i] += getInt();
+					_deltaY[i] += getInt();
+				}
+				_tick++;
+			} else {
+				throw new IOException("Recording is corrupt");
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Recording is truncated", e);
+		}
+	}
+
+	private int getInt() {
+		return (int) MotionRecorder.unZigZag(MotionRecorder.getVarLong(_frames));
+	}
+
+	/*
+	 * Maps the frames from the keyframe-th keyframe to the next into memory.
+	 */
+	private void map(int keyframe) throws IOException {
+		long start = _keyframeOffsets[keyframe];
+		long end = (keyframe + 1 < _keyframeOffsets.length) ? _keyframeOffsets[keyframe + 1] : _channel.size();
+		_frames = _channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		_keyframe = keyframe;
+	}
+}
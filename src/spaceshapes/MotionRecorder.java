@@ -0,0 +1,317 @@
+package spaceshapes;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * ShapeModelListener that records the motion of every Shape in a ShapeModel,
+ * tick by tick, to a compact file that a MotionPlayer can replay.
+ *
+ * Each recorded tick is a frame. A keyframe holds, for every Shape, the index
+ * of its parent, its position, velocity and size. Other frames hold only the
+ * changes since the previous tick: the difference between each Shape's
+ * position and the one predicted by its previous velocity, and the change in
+ * its velocity. Shapes are listed breadth first, as in a SceneSnapshot. Values
+ * are written as zig-zag varints, and Shapes whose changes are all zero (those
+ * that did not bounce) are skipped altogether, so most frames occupy a few
+ * bytes.
+ *
+ * A keyframe is written every keyframeInterval ticks, at the first tick
+ * recorded after Shapes have been added or removed, and after clock(long)
+ * advances the model by more than one tick. The tick and file offset of each
+ * keyframe are written to an index file, named by appending ".index" to the
+ * recording's name, through which a MotionPlayer seeks.
+ *
+ * Frames are gathered in a buffer, which is written to the file when it fills
+ * and after each keyframe, so recording a tick rarely involves a write.
+ *
+ * A MotionRecorder must be registered as a synchronous listener of its model
+ * (see ShapeModel.addShapeModelListener(ShapeModelListener)).
+ *
+ */
+public final class MotionRecorder implements ShapeModelListener {
+	// Default number of ticks between keyframes.
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 256;
+
+	// === Frame types. ===
+	static final byte KEYFRAME = 1;
+
+	static final byte DELTA = 2;
+	// ===
+
+	// Number of bytes of frames gathered before they are written.
+	private static final int FLUSH_SIZE = 64 * 1024;
+
+	private final ShapeModel _model;
+
+	private final int _keyframeInterval;
+
+	private final FileOutputStream _out;
+
+	private final FileChannel _channel;
+
+	private final DataOutputStream _index;
+
+	// Number of bytes written to the file.
+	private long _offset;
+
+	// Buffer in which frames are encoded until they are written.
+	private ByteBuffer _buffer = ByteBuffer.allocate(2 * FLUSH_SIZE);
+
+	// Shapes, breadth first, as of the latest keyframe.
+	private Shape[] _shapes;
+
+	// Number of Shapes held in _shapes.
+	private int _count;
+
+	// === State of each Shape at the previously recorded tick. ===
+	private int[] _x;
+
+	private int[] _y;
+
+	private int[] _deltaX;
+
+	private int[] _deltaY;
+	// ===
+
+	// Tick of the previous frame, and of the previous keyframe.
+	private long _tick;
+
+	private long _keyframeTick;
+
+	// True if Shapes have been added or removed since the previous frame.
+	private boolean _changed;
+
+	// First failure to write the recording, or null.
+	private IOException _failure;
+
+	/**
+	 * Creates a MotionRecorder that records model to file, with the default
+	 * keyframe interval.
+	 */
+	public MotionRecorder(ShapeModel model, File file) throws IOException {
+		this(model, file, DEFAULT_KEYFRAME_INTERVAL);
+	}
+
+	/**
+	 * Creates a MotionRecorder that records model to file, replacing any
+	 * existing recording, and writes a keyframe of the model's current state.
+	 * @throws IllegalArgumentException if keyframeInterval is less than 1.
+	 */
+	public MotionRecorder(ShapeModel model, File file, int keyframeInterval) throws IOException {
+		if (keyframeInterval < 1) {
+			throw new IllegalArgumentException();
+		}
+		_model = model;
+		_keyframeInterval = keyframeInterval;
+		_out = new FileOutputStream(file);
+		_channel = _out.getChannel();
+		try {
+			_index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile(file))));
+		} catch (IOException e) {
+			_out.close();
+			throw e;
+		}
+		writeKeyframe(model.tick());
+	}
+
+	/**
+	 * Records a frame for each tick, and notes that Shapes have been added
+	 * or removed.
+	 */
+	public void update(ShapeModelEvent event) {
+		switch (event.eventType()) {
+		case ShapeMoved:
+			if (_failure == null) {
+				try {
+					long tick = _model.tick();
+					if (_changed || tick != _tick + 1 || tick - _keyframeTick >= _keyframeInterval) {
+						writeKeyframe(tick);
+					} else {
+						writeDelta(tick);
+					}
+				} catch (IOException e) {
+					_failure = e;
+				}
+			}
+			break;
+		case ShapesCollided:
+			break;
+		default:
+			_changed = true;
+		}
+	}
+
+	/**
+	 * Finishes the recording. The recorder should first be removed as a
+	 * listener of its model.
+	 * @throws IOException if any frame could not be written.
+	 */
+	public void close() throws IOException {
+		try {
+			if (_failure == null) {
+				flush();
+			}
+		} catch (IOException e) {
+			_failure = e;
+		}
+		try {
+			_index.close();
+		} finally {
+			_out.close();
+		}
+		if (_failure != null) {
+			throw _failure;
+		}
+	}
+
+	/**
+	 * Returns the index file of the recording held in file.
+	 */
+	static File indexFile(File file) {
+		return new File(file.getPath() + ".index");
+	}
+
+	/*
+	 * Lists the model's Shapes and writes a keyframe of their state.
+	 */
+	private void writeKeyframe(long tick) throws IOException {
+		ShapeListing listing = new ShapeListing(_model);
+		_count = listing.size();
+		_shapes = listing.shapes().toArray(new Shape[_count]);
+		_x = new int[_count];
+		_y = new int[_count];
+		_deltaX = new int[_count];
+		_deltaY = new int[_count];
+
+		ensureBuffer(32 + 7 * 10 * _count);
+		long offset = _offset + _buffer.position();
+		_buffer.put(KEYFRAME);
+		putVarLong(_buffer, tick);
+		putVarLong(_buffer, _count);
+		for (int i = 0; i < _count; i++) {
+			Shape shape = _shapes[i];
+			_x[i] = shape.x();
+			_y[i] = shape.y();
+			_deltaX[i] = shape.deltaX();
+			_deltaY[i] = shape.deltaY();
+			putVarLong(_buffer, listing.parent(i) + 1);
+			putVarLong(_buffer, zigZag(_x[i]));
+			putVarLong(_buffer, zigZag(_y[i]));
+			putVarLong(_buffer, zigZag(_deltaX[i]));
+			putVarLong(_buffer, zigZag(_deltaY[i]));
+			putVarLong(_buffer, zigZag(shape.width()));
+			putVarLong(_buffer, zigZag(shape.height()));
+		}
+
+		_index.writeLong(tick);
+		_index.writeLong(offset);
+		flush();
+		_tick = tick;
+		_keyframeTick = tick;
+		_changed = false;
+	}
+
+	/*
+	 * Writes a frame holding the changes made by the latest tick.
+	 */
+	private void writeDelta(long tick) throws IOException {
+		ensureBuffer(16 + 5 * 10 * _count);
+		_buffer.put(DELTA);
+		int countPosition = _buffer.position();
+		_buffer.putInt(0);
+
+		int changed = 0;
+		int previous = -1;
+		for (int i = 0; i < _count; i++) {
+			Shape shape = _shapes[i];
+			int x = shape.x();
+			int y = shape.y();
+			int deltaX = shape.deltaX();
+			int deltaY = shape.deltaY();
+			int errorX = x - (_x[i] + _deltaX[i]);
+			int errorY = y - (_y[i] + _deltaY[i]);
+			if (errorX != 0 || errorY != 0 || deltaX != _deltaX[i] || deltaY != _deltaY[i]) {
+				putVarLong(_buffer, i - previous - 1);
+				putVarLong(_buffer, zigZag(errorX));
+				putVarLong(_buffer, zigZag(errorY));
+				putVarLong(_buffer, zigZag(deltaX - _deltaX[i]));
+				putVarLong(_buffer, zigZag(deltaY - _deltaY[i]));
+				previous = i;
+				changed++;
+			}
+			_x[i] = x;
+			_y[i] = y;
+			_deltaX[i] = deltaX;
+			_deltaY[i] = deltaY;
+		}
+		_buffer.putInt(countPosition, changed);
+
+		if (_buffer.position() >= FLUSH_SIZE) {
+			flush();
+		}
+		_tick = tick;
+	}
+
+	/*
+	 * Writes the frames gathered in the buffer.
+	 */
+	private void flush() throws IOException {
+		_buffer.flip();
+		while (_buffer.hasRemaining()) {
+			_offset += _channel.write(_buffer);
+		}
+		_buffer.clear();
+	}
+
+	/*
+	 * Makes room in the buffer for a frame of up to size bytes.
+	 */
+	private void ensureBuffer(int size) throws IOException {
+		if (_buffer.remaining() < size) {
+			flush();
+			if (_buffer.capacity() < size) {
+				_buffer = ByteBuffer.allocate(size);
+			}
+		}
+	}
+
+	// === Variable-length encoding shared with MotionPlayer. ===
+
+	static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/*
+	 * Writes value in 7-bit groups, least significant first, setting the top
+	 * bit of every byte but the last.
+	 */
+	static void putVarLong(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	static long getVarLong(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+	// ===
+}
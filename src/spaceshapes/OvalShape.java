@@ -51,7 +51,7 @@ public class OvalShape extends Shape {
 	 * Paints this RectangleShape object using the supplied Painter object.
 	 */
 	@Override
-	public void doPaint(Painter painter) {
-		painter.drawOval(_x, _y, _width, _height);
+	public void doPaint(Painter painter, int x, int y, int width, int height, boolean fill) {
+		painter.drawOval(x, y, width, height);
 	}
 }
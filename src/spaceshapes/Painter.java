@@ -2,6 +2,7 @@ package spaceshapes;
 
 import java.awt.Color;
 import java.awt.Image;
+import java.awt.Rectangle;
 
 /** 
  * Interface to represent a type that offers primitive drawing methods.
@@ -56,4 +57,12 @@ public interface Painter {
 	public void drawCentredText(String text, int x, int y, int shapeWidth, int shapeHeight);
 
 	public void drawImage(Image _picture, int _x, int _y, int _width, int _height);
+	
+	/**
+	 * Returns the bounds, in the current (translated) co-ordinate space, of 
+	 * the area that drawing may affect, or null if drawing is unbounded. 
+	 * Shapes lying wholly outside these bounds need not be painted. The 
+	 * Rectangle returned must not be modified.
+	 */
+	public Rectangle getClipBounds();
 }
@@ -0,0 +1,334 @@
+package spaceshapes;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Implementation of the Painter interface that writes straight into the
+ * pixels of a TYPE_INT_RGB BufferedImage, without going through Java2D.
+ * Rectangles are filled span by span, outlines and lines are drawn with
+ * integer Bresenham stepping and ovals with an integer midpoint algorithm,
+ * so the primitive-heavy shapes (RectangleShape, OvalShape, HexagonShape,
+ * DynamicShape) are painted with no per-call overhead beyond the pixels
+ * written. Everything is clipped to the image.
+ *
+ * In opaque colours, rectangles, outlines and lines produce exactly the
+ * pixels that GraphicsPainter does, and translucent colours are blended
+ * with Java2D's rounding; Java2D draws translucent outlines through a 
+ * different pipeline, however, which may choose slightly different pixels.
+ * Ovals are close to, but not always identical with, Java2D's. Text and 
+ * images are delegated to a GraphicsPainter over the same image, created on
+ * first use.
+ *
+ */
+public class RasterPainter implements Painter {
+	private final BufferedImage _image;
+
+	// Pixels of the image, row by row.
+	private final int[] _pixels;
+
+	private final int _width;
+
+	private final int _height;
+
+	// Total translation applied through translate().
+	private int _translateX;
+
+	private int _translateY;
+
+	// Image bounds in the current co-ordinate space.
+	private final Rectangle _clip;
+
+	private Color _colour;
+
+	// Pixel value written by opaque colours, and the colour's alpha.
+	private int _pixel;
+
+	private int _alpha;
+
+	// Painter used for text and images; null until first needed.
+	private Graphics2D _g;
+
+	private GraphicsPainter _delegate;
+
+	/**
+	 * Creates a RasterPainter that paints onto image.
+	 * @throws IllegalArgumentException if image is not of TYPE_INT_RGB.
+	 */
+	public RasterPainter(BufferedImage image) {
+		if (image.getType() != BufferedImage.TYPE_INT_RGB) {
+			throw new IllegalArgumentException();
+		}
+		_image = image;
+		_pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		_width = image.getWidth();
+		_height = image.getHeight();
+		_clip = new Rectangle(0, 0, _width, _height);
+		setColor(GraphicsPainter.DEFAULT_COLOUR);
+	}
+
+	/**
+	 * Releases the Graphics object used for text and images, if any. The
+	 * painter may still be used afterwards.
+	 */
+	public void dispose() {
+		if (_g != null) {
+			_g.dispose();
+			_g = null;
+			_delegate = null;
+		}
+	}
+
+	/**
+	 * @see spaceshapes.Painter.drawRect
+	 */
+	public void drawRect(int x, int y, int width, int height) {
+		if (width < 0 || height < 0) {
+			return;
+		}
+		if (width == 0 || height == 0) {
+			fillRect(x, y, width + 1, height + 1);
+			return;
+		}
+		fillRect(x, y, width, 1);
+		fillRect(x + width, y, 1, height);
+		fillRect(x + 1, y + height, width, 1);
+		fillRect(x, y + 1, 1, height);
+	}
+
+	/**
+	 * @see spaceshapes.Painter.drawOval
+	 *
+	 * The oval is traced by stepping an integer error term around each
+	 * quadrant, in the manner of Bresenham's midpoint ellipse algorithm
+	 * generalised to bounding boxes of any parity.
+	 */
+	public void drawOval(int x, int y, int width, int height) {
+		if (width < 0 || height < 0) {
+			return;
+		}
+		int x0 = x + _translateX;
+		int y0 = y + _translateY;
+		int x1 = x0 + width;
+		int y1 = y0 + height;
+		if (x1 < 0 || y1 < 0 || x0 >= _width || y0 >= _height) {
+			return;
+		}
+
+		long a = width;
+		long b = height;
+		long b1 = b & 1;
+		long dx = 4 * (1 - a) * b * b;
+		long dy = 4 * (b1 + 1) * a * a;
+		long error = dx + dy + b1 * a * a;
+		y0 += (b + 1) / 2;
+		y1 = y0 - (int) b1;
+		a *= 8 * a;
+		b1 = 8 * b * b;
+
+		// Trace the four quadrants together, from the ends of the major
+		// horizontal chord towards the top and bottom.
+		do {
+			plot(x1, y0);
+			plot(x0, y0);
+			plot(x0, y1);
+			plot(x1, y1);
+			long e2 = 2 * error;
+			if (e2 <= dy) {
+				y0++;
+				y1--;
+				error += dy += a;
+			}
+			if (e2 >= dx || 2 * error > dy) {
+				x0++;
+				x1--;
+				error += dx += b1;
+			}
+		} while (x0 <= x1);
+
+		// Finish the tips of very flat ovals.
+		while (y0 - y1 <= height) {
+			plot(x0 - 1, y0);
+			plot(x1 + 1, y0++);
+			plot(x0 - 1, y1);
+			plot(x1 + 1, y1--);
+		}
+	}
+
+	/**
+	 * @see spaceshapes.Painter.drawLine
+	 */
+	public void drawLine(int x1, int y1, int x2, int y2) {
+		x1 += _translateX;
+		y1 += _translateY;
+		x2 += _translateX;
+		y2 += _translateY;
+		if (Math.max(x1, x2) < 0 || Math.max(y1, y2) < 0 || Math.min(x1, x2) >= _width || Math.min(y1, y2) >= _height) {
+			return;
+		}
+
+		int deltaX = Math.abs(x2 - x1);
+		int deltaY = Math.abs(y2 - y1);
+		int stepX = (x2 < x1) ? -1 : 1;
+		int stepY = (y2 < y1) ? -1 : 1;
+
+		if (deltaX >= deltaY) {
+			int error = 2 * deltaY - deltaX;
+			for (int i = 0; i <= deltaX; i++) {
+				plot(x1, y1);
+				if (error < 0) {
+					error += 2 * deltaY;
+				} else {
+					error += 2 * (deltaY - deltaX);
+					y1 += stepY;
+				}
+				x1 += stepX;
+			}
+		} else {
+			int error = 2 * deltaX - deltaY;
+			for (int i = 0; i <= deltaY; i++) {
+				plot(x1, y1);
+				if (error < 0) {
+					error += 2 * deltaX;
+				} else {
+					error += 2 * (deltaX - deltaY);
+					x1 += stepX;
+				}
+				y1 += stepY;
+			}
+		}
+	}
+
+	/**
+	 * @see spaceshapes.Painter.fillRect
+	 */
+	public void fillRect(int x, int y, int width, int height) {
+		int left = Math.max(0, x + _translateX);
+		int top = Math.max(0, y + _translateY);
+		int right = (int) Math.min(_width, (long) x + _translateX + width);
+		int bottom = (int) Math.min(_height, (long) y + _translateY + height);
+		if (left >= right) {
+			return;
+		}
+
+		for (int row = top; row < bottom; row++) {
+			int start = row * _width;
+			if (_alpha == 255) {
+				Arrays.fill(_pixels, start + left, start + right, _pixel);
+			} else {
+				for (int i = start + left; i < start + right; i++) {
+					_pixels[i] = blend(_pixels[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @see spaceshapes.Painter.getColor
+	 */
+	public Color getColor() {
+		return _colour;
+	}
+
+	/**
+	 * @see spaceshapes.Painter.setColor
+	 */
+	public void setColor(Color colour) {
+		_colour = colour;
+		_pixel = colour.getRGB();
+		_alpha = colour.getAlpha();
+		if (_g != null) {
+			_g.setColor(colour);
+		}
+	}
+
+	/**
+	 * @see spaceshapes.Painter.translate
+	 */
+	public void translate(int x, int y) {
+		_translateX += x;
+		_translateY += y;
+		_clip.translate(-x, -y);
+		if (_g != null) {
+			_g.translate(x, y);
+		}
+	}
+
+	/**
+	 * @see spaceshapes.Painter.drawCentredText
+	 */
+	public void drawCentredText(String text, int x, int y, int shapeWidth, int shapeHeight) {
+		delegate().drawCentredText(text, x, y, shapeWidth, shapeHeight);
+	}
+
+	/**
+	 * @see spaceshapes.Painter.drawImage
+	 */
+	public void drawImage(Image picture, int x, int y, int width, int height) {
+		delegate().drawImage(picture, x, y, width, height);
+	}
+
+	/**
+	 * @see spaceshapes.Painter.getClipBounds
+	 *
+	 * Returns the bounds of the image.
+	 */
+	public Rectangle getClipBounds() {
+		return _clip;
+	}
+
+	/*
+	 * Sets the pixel at (x, y), in device co-ordinates, if it lies within
+	 * the image.
+	 */
+	private void plot(int x, int y) {
+		if (x >= 0 && y >= 0 && x < _width && y < _height) {
+			int i = y * _width + x;
+			_pixels[i] = (_alpha == 255) ? _pixel : blend(_pixels[i]);
+		}
+	}
+
+	/*
+	 * Returns the result of compositing the current colour over pixel,
+	 * rounding as Java2D does.
+	 */
+	private int blend(int pixel) {
+		return blend(_colour, pixel);
+	}
+
+	/*
+	 * Returns the result of compositing colour over the opaque RGB pixel,
+	 * rounding as Java2D does.
+	 */
+	static int blend(Color colour, int pixel) {
+		int alpha = colour.getAlpha();
+		int inverse = 255 - alpha;
+		int red = multiply(alpha, colour.getRed()) + multiply(inverse, (pixel >> 16) & 0xFF);
+		int green = multiply(alpha, colour.getGreen()) + multiply(inverse, (pixel >> 8) & 0xFF);
+		int blue = multiply(alpha, colour.getBlue()) + multiply(inverse, pixel & 0xFF);
+		return (red << 16) | (green << 8) | blue;
+	}
+
+	private static int multiply(int a, int b) {
+		return (a * b + 127) / 255;
+	}
+
+	/*
+	 * Returns the GraphicsPainter used for text and images, creating it in
+	 * this painter's current state if necessary.
+	 */
+	private GraphicsPainter delegate() {
+		if (_delegate == null) {
+			_g = _image.createGraphics();
+			_delegate = new GraphicsPainter(_g);
+			_g.translate(_translateX, _translateY);
+			_g.setColor(_colour);
+		}
+		return _delegate;
+	}
+}
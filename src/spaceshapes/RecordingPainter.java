@@ -0,0 +1,268 @@
+package spaceshapes;
+
+import java.awt.Color;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Implementation of the Painter interface that records the calls made to it,
+ * so that they can later be replayed onto any other Painter. Calls are held
+ * in a compact display list: an array of opcodes, an array of the integer
+ * operands of all calls, and an array of the object operands (colours, text
+ * and images). No object is allocated per call.
+ *
+ * A display list can therefore be recorded on one thread (for example, by
+ * painting a Frame on the thread that clocks the model) and replayed on
+ * another, replayed onto several Painters, or compared with the display list
+ * of a previous frame. Once recording is complete, a RecordingPainter may be
+ * replayed concurrently by any number of threads.
+ *
+ * Colours are recorded relative to the colour of the Painter being replayed
+ * onto: at the start of a recording getColor() returns null, and a recorded
+ * setColor(null) call restores the colour the target had when replay began.
+ *
+ */
+public class RecordingPainter implements Painter {
+	// === Opcodes. ===
+	private static final int DRAW_RECT = 0;
+
+	private static final int DRAW_OVAL = 1;
+
+	private static final int DRAW_LINE = 2;
+
+	private static final int FILL_RECT = 3;
+
+	private static final int SET_COLOR = 4;
+
+	private static final int TRANSLATE = 5;
+
+	private static final int DRAW_CENTRED_TEXT = 6;
+
+	private static final int DRAW_IMAGE = 7;
+	// ===
+
+	// Number of integer and object operands taken by each opcode.
+	private static final int[] INT_OPERANDS = {4, 4, 4, 4, 0, 2, 4, 4};
+
+	private static final int[] OBJECT_OPERANDS = {0, 0, 0, 0, 1, 0, 1, 1};
+
+	private int[] _opcodes = new int[64];
+
+	private int _count;
+
+	private int[] _ints = new int[256];
+
+	private int _intCount;
+
+	private Object[] _objects = new Object[16];
+
+	private int _objectCount;
+
+	// Colour most recently set, or null for the target's initial colour.
+	private Color _color;
+
+	/**
+	 * Returns the number of calls recorded.
+	 */
+	public int size() {
+		return _count;
+	}
+
+	/**
+	 * Discards all recorded calls, retaining the buffers for reuse.
+	 */
+	public void clear() {
+		Arrays.fill(_objects, 0, _objectCount, null);
+		_count = 0;
+		_intCount = 0;
+		_objectCount = 0;
+		_color = null;
+	}
+
+	/**
+	 * Replays the recorded calls, in order, onto target.
+	 */
+	public void replay(Painter target) {
+		Color initial = target.getColor();
+		int[] ints = _ints;
+		Object[] objects = _objects;
+		int i = 0;
+		int o = 0;
+
+		for (int c = 0; c < _count; c++) {
+			switch (_opcodes[c]) {
+			case DRAW_RECT:
+				target.drawRect(ints[i], ints[i + 1], ints[i + 2], ints[i + 3]);
+				break;
+			case DRAW_OVAL:
+				target.drawOval(ints[i], ints[i + 1], ints[i + 2], ints[i + 3]);
+				break;
+			case DRAW_LINE:
+				target.drawLine(ints[i], ints[i + 1], ints[i + 2], ints[i + 3]);
+				break;
+			case FILL_RECT:
+				target.fillRect(ints[i], ints[i + 1], ints[i + 2], ints[i + 3]);
+				break;
+			case SET_COLOR:
+				Color colour = (Color) objects[o];
+				target.setColor(colour == null ? initial : colour);
+				break;
+			case TRANSLATE:
+				target.translate(ints[i], ints[i + 1]);
+				break;
+			case DRAW_CENTRED_TEXT:
+				target.drawCentredText((String) objects[o], ints[i], ints[i + 1], ints[i + 2], ints[i + 3]);
+				break;
+			case DRAW_IMAGE:
+				target.drawImage((Image) objects[o], ints[i], ints[i + 1], ints[i + 2], ints[i + 3]);
+				break;
+			}
+			i += INT_OPERANDS[_opcodes[c]];
+			o += OBJECT_OPERANDS[_opcodes[c]];
+		}
+	}
+
+	/**
+	 * Returns the index of the first recorded call that differs from the
+	 * corresponding call recorded by other, or -1 if both recorded exactly
+	 * the same calls. Object operands are compared by identity. If one
+	 * recording is a prefix of the other, the length of the shorter is
+	 * returned.
+	 */
+	public int firstDifference(RecordingPainter other) {
+		int count = Math.min(_count, other._count);
+		int i = 0;
+		int o = 0;
+
+		for (int c = 0; c < count; c++) {
+			int opcode = _opcodes[c];
+			if (opcode != other._opcodes[c]) {
+				return c;
+			}
+			for (int k = 0; k < INT_OPERANDS[opcode]; k++, i++) {
+				if (_ints[i] != other._ints[i]) {
+					return c;
+				}
+			}
+			for (int k = 0; k < OBJECT_OPERANDS[opcode]; k++, o++) {
+				if (_objects[o] != other._objects[o]) {
+					return c;
+				}
+			}
+		}
+		return (_count == other._count) ? -1 : count;
+	}
+
+	/**
+	 * Records a drawRect call.
+	 */
+	public void drawRect(int x, int y, int width, int height) {
+		record(DRAW_RECT, x, y, width, height);
+	}
+
+	/**
+	 * Records a drawOval call.
+	 */
+	public void drawOval(int x, int y, int width, int height) {
+		record(DRAW_OVAL, x, y, width, height);
+	}
+
+	/**
+	 * Records a drawLine call.
+	 */
+	public void drawLine(int x1, int y1, int x2, int y2) {
+		record(DRAW_LINE, x1, y1, x2, y2);
+	}
+
+	/**
+	 * Records a fillRect call.
+	 */
+	public void fillRect(int x, int y, int width, int height) {
+		record(FILL_RECT, x, y, width, height);
+	}
+
+	/**
+	 * Returns the colour most recently recorded, or null if no colour has
+	 * been set since recording began.
+	 */
+	public Color getColor() {
+		return _color;
+	}
+
+	/**
+	 * Records a setColor call.
+	 */
+	public void setColor(Color colour) {
+		_color = colour;
+		opcode(SET_COLOR);
+		object(colour);
+	}
+
+	/**
+	 * Records a translate call.
+	 */
+	public void translate(int x, int y) {
+		opcode(TRANSLATE);
+		if (_intCount + 2 > _ints.length) {
+			_ints = Arrays.copyOf(_ints, _ints.length * 2);
+		}
+		_ints[_intCount++] = x;
+		_ints[_intCount++] = y;
+	}
+
+	/**
+	 * Records a drawCentredText call.
+	 */
+	public void drawCentredText(String text, int x, int y, int shapeWidth, int shapeHeight) {
+		record(DRAW_CENTRED_TEXT, x, y, shapeWidth, shapeHeight);
+		object(text);
+	}
+
+	/**
+	 * Records a drawImage call.
+	 */
+	public void drawImage(Image picture, int x, int y, int width, int height) {
+		record(DRAW_IMAGE, x, y, width, height);
+		object(picture);
+	}
+
+	/**
+	 * Returns null: every call is recorded, since the display list may be
+	 * replayed onto Painters with any clip.
+	 */
+	public Rectangle getClipBounds() {
+		return null;
+	}
+
+	/*
+	 * Records a call with four integer operands.
+	 */
+	private void record(int opcode, int a, int b, int c, int d) {
+		opcode(opcode);
+		if (_intCount + 4 > _ints.length) {
+			_ints = Arrays.copyOf(_ints, _ints.length * 2);
+		}
+		int[] ints = _ints;
+		int i = _intCount;
+		ints[i] = a;
+		ints[i + 1] = b;
+		ints[i + 2] = c;
+		ints[i + 3] = d;
+		_intCount = i + 4;
+	}
+
+	private void opcode(int opcode) {
+		if (_count == _opcodes.length) {
+			_opcodes = Arrays.copyOf(_opcodes, _count * 2);
+		}
+		_opcodes[_count++] = opcode;
+	}
+
+	private void object(Object operand) {
+		if (_objectCount == _objects.length) {
+			_objects = Arrays.copyOf(_objects, _objectCount * 2);
+		}
+		_objects[_objectCount++] = operand;
+	}
+}
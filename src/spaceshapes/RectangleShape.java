@@ -63,8 +63,8 @@ public class RectangleShape extends Shape {
 	/**
 	 * Paints this RectangleShape object using the supplied Painter object.
 	 */
-	public void doPaint(Painter painter) {
-		painter.drawRect(_x,_y,_width,_height);	
+	public void doPaint(Painter painter, int x, int y, int width, int height, boolean fill) {
+		painter.drawRect(x,y,width,height);	
 	}
 
 }
@@ -0,0 +1,323 @@
+package spaceshapes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class that loads Shapes described in a text file into a ShapeModel, without
+ * building any intermediate representation of the scene. The file is UTF-8
+ * text holding one Shape per line:
+ * <pre>
+ *   id parent class x y deltaX deltaY width height [text]
+ * </pre>
+ * where id is a positive integer identifying the Shape, parent is the id of
+ * the CarrierShape it is added to (0 for the model's root), class is the fully
+ * qualified name of a Shape class with a public 7-argument constructor (as
+ * required by ShapeFormHandler) and the remaining fields are that
+ * constructor's arguments. Fields are separated by spaces or tabs; the text,
+ * if present, is the rest of the line. Blank lines and lines starting with #
+ * are ignored. A CarrierShape must appear before the Shapes it carries.
+ *
+ * The file is read through a FileChannel in fixed-size chunks and parsed in
+ * place, each class' constructor is looked up once and consecutive Shapes
+ * with the same parent are added to the model in batches, with addAll(), so
+ * listeners receive one event per batch. Beyond the model itself, memory use
+ * is bounded by the chunk and batch sizes and by the ids of the CarrierShapes
+ * read; the ids of other Shapes are not retained.
+ *
+ */
+public final class SceneLoader {
+	// Default number of Shapes added to the model at a time.
+	public static final int DEFAULT_BATCH_SIZE = 1024;
+
+	// Initial size of the buffer through which the file is read.
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private final File _file;
+
+	private final ShapeModel _model;
+
+	private final int _batchSize;
+
+	// Number of the line being parsed, counting from 1.
+	private int _line;
+
+	// Position of the next field within the line being parsed.
+	private int _position;
+
+	// CarrierShapes read, and the model's root, by id.
+	private final Map<Integer, CarrierShape> _carriers = new HashMap<Integer, CarrierShape>();
+
+	private final Map<String, Constructor<? extends Shape>> _constructors = new HashMap<String, Constructor<? extends Shape>>();
+
+	// Class named on the previous line, as bytes, and its constructor.
+	private byte[] _className = new byte[0];
+
+	private Constructor<? extends Shape> _constructor;
+
+	// Shapes awaiting addition to _batchParent.
+	private final List<Shape> _batch = new ArrayList<Shape>();
+
+	private CarrierShape _batchParent;
+
+	// Line describing the first Shape in _batch.
+	private int _batchLine;
+
+	// Number of Shapes added to the model.
+	private int _count;
+
+	private SceneLoader(File file, ShapeModel model, int batchSize) {
+		_file = file;
+		_model = model;
+		_batchSize = batchSize;
+		_carriers.put(0, model.root());
+	}
+
+	/**
+	 * Adds the Shapes described in file to model, in batches of the default
+	 * size.
+	 * @see load(File, ShapeModel, int)
+	 */
+	public static int load(File file, ShapeModel model) throws IOException {
+		return load(file, model, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Adds the Shapes described in file to model.
+	 * @param batchSize the largest number of Shapes added at a time.
+	 * @return the number of Shapes added.
+	 * @throws IllegalArgumentException if batchSize is less than 1.
+	 * @throws IOException if file cannot be read or a line is malformed,
+	 * names an unusable class or an unknown parent, or describes a Shape that
+	 * does not fit its parent. The Shapes preceding that line may have been
+	 * added.
+	 */
+	public static int load(File file, ShapeModel model, int batchSize) throws IOException {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException();
+		}
+		SceneLoader loader = new SceneLoader(file, model, batchSize);
+		loader.load();
+		return loader._count;
+	}
+
+	/*
+	 * Reads the file chunk by chunk, parsing each complete line.
+	 */
+	private void load() throws IOException {
+		FileInputStream in = new FileInputStream(_file);
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+			byte[] bytes = buffer.array();
+			boolean end = false;
+
+			while (!end) {
+				end = channel.read(buffer) < 0;
+				int limit = buffer.position();
+				int start = 0;
+				for (int i = 0; i < limit; i++) {
+					if (bytes[i] == '\n') {
+						parse(bytes, start, i);
+						start = i + 1;
+					}
+				}
+				if (end && start < limit) {
+					parse(bytes, start, limit);
+					start = limit;
+				}
+
+				// Keep the incomplete last line, growing the buffer if it
+				// holds nothing else.
+				buffer.position(start);
+				buffer.limit(limit);
+				buffer.compact();
+				if (!buffer.hasRemaining()) {
+					ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+					buffer.flip();
+					larger.put(buffer);
+					buffer = larger;
+					bytes = buffer.array();
+				}
+			}
+			flush();
+		} finally {
+			in.close();
+		}
+	}
+
+	/*
+	 * Parses the line held in bytes from start (inclusive) to end
+	 * (exclusive), queuing the Shape it describes.
+	 */
+	private void parse(byte[] bytes, int start, int end) throws IOException {
+		_line++;
+		if (end > start && bytes[end - 1] == '\r') {
+			end--;
+		}
+		_position = skip(bytes, start, end);
+		if (_position == end || bytes[_position] == '#') {
+			return;
+		}
+
+		int id = parseInt(bytes, end);
+		int parentId = parseInt(bytes, end);
+		Constructor<? extends Shape> constructor = parseClass(bytes, end);
+		int x = parseInt(bytes, end);
+		int y = parseInt(bytes, end);
+		int deltaX = parseInt(bytes, end);
+		int deltaY = parseInt(bytes, end);
+		int width = parseInt(bytes, end);
+		int height = parseInt(bytes, end);
+		String text = (_position < end) ? new String(bytes, _position, end - _position, StandardCharsets.UTF_8) : null;
+
+		CarrierShape parent = _carriers.get(parentId);
+		if (parent == null) {
+			throw error("unknown parent " + parentId);
+		}
+		if (id <= 0) {
+			throw error("id must be positive");
+		}
+		Shape shape;
+		try {
+			shape = SceneSnapshot.newShape(constructor, x, y, deltaX, deltaY, width, height, text);
+		} catch (IOException e) {
+			throw error(_line, e.getMessage(), e.getCause());
+		}
+		if (!parent.canAdd(shape)) {
+			throw error("Shape does not fit its parent");
+		}
+		if (shape instanceof CarrierShape && _carriers.put(id, (CarrierShape) shape) != null) {
+			throw error("duplicate id " + id);
+		}
+
+		if (parent != _batchParent || _batch.size() == _batchSize) {
+			flush();
+			_batchParent = parent;
+			_batchLine = _line;
+		}
+		_batch.add(shape);
+	}
+
+	/*
+	 * Parses the integer field at the current position, and skips the
+	 * separators that follow it.
+	 */
+	private int parseInt(byte[] bytes, int end) throws IOException {
+		int i = _position;
+		boolean negative = i < end && bytes[i] == '-';
+		if (negative) {
+			i++;
+		}
+		int first = i;
+		long value = 0;
+		while (i < end && bytes[i] >= '0' && bytes[i] <= '9') {
+			value = value * 10 + (bytes[i++] - '0');
+			if (value > (long) Integer.MAX_VALUE + 1) {
+				throw error("number out of range");
+			}
+		}
+		if (i == first || (i < end && bytes[i] != ' ' && bytes[i] != '\t')) {
+			throw error("number expected");
+		}
+		if (negative) {
+			value = -value;
+		}
+		if (value > Integer.MAX_VALUE) {
+			throw error("number out of range");
+		}
+		_position = skip(bytes, i, end);
+		return (int) value;
+	}
+
+	/*
+	 * Parses the class name at the current position, returning its class'
+	 * 7-argument constructor.
+	 */
+	private Constructor<? extends Shape> parseClass(byte[] bytes, int end) throws IOException {
+		int i = _position;
+		while (i < end && bytes[i] != ' ' && bytes[i] != '\t') {
+			i++;
+		}
+		int length = i - _position;
+		if (length == 0) {
+			throw error("class name expected");
+		}
+
+		// Consecutive lines usually name the same class.
+		if (!matches(bytes, _position, length, _className)) {
+			String name = new String(bytes, _position, length, StandardCharsets.UTF_8);
+			Constructor<? extends Shape> constructor = _constructors.get(name);
+			if (constructor == null) {
+				try {
+					constructor = SceneSnapshot.constructor(Class.forName(name).asSubclass(Shape.class));
+				} catch (ClassNotFoundException e) {
+					throw error("class " + name + " not found");
+				} catch (ClassCastException e) {
+					throw error(name + " is not a Shape class");
+				} catch (IllegalArgumentException e) {
+					throw error(name + " has no public 7-argument constructor");
+				}
+				_constructors.put(name, constructor);
+			}
+			_className = new byte[length];
+			System.arraycopy(bytes, _position, _className, 0, length);
+			_constructor = constructor;
+		}
+		_position = skip(bytes, i, end);
+		return _constructor;
+	}
+
+	/*
+	 * Adds the queued Shapes to the model. Any error names the line of the
+	 * first Shape queued, rather than the line being parsed.
+	 */
+	private void flush() throws IOException {
+		if (!_batch.isEmpty()) {
+			if (!_model.addAll(_batch, _batchParent)) {
+				throw error(_batchLine, "the " + _batch.size() + " Shapes from this line cannot be added", null);
+			}
+			_count += _batch.size();
+			_batch.clear();
+		}
+	}
+
+	private IOException error(String message) {
+		return error(_line, message, null);
+	}
+
+	private IOException error(int line, String message, Throwable cause) {
+		return new IOException(_file + ":" + line + ": " + message, cause);
+	}
+
+	private static boolean matches(byte[] bytes, int start, int length, byte[] other) {
+		if (length != other.length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (bytes[start + i] != other[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Returns the position of the first byte from i that is not a separator.
+	 */
+	private static int skip(byte[] bytes, int i, int end) {
+		while (i < end && (bytes[i] == ' ' || bytes[i] == '\t')) {
+			i++;
+		}
+		return i;
+	}
+}
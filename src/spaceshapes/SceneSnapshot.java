@@ -0,0 +1,433 @@
+package spaceshapes;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class that saves a whole ShapeModel to a compact binary file, and loads it
+ * back. The file holds the model's bounds and tick count, followed by:
+ * <ul>
+ * <li>a table of the Shape classes used, by name;</li>
+ * <li>a table of the distinct texts displayed by Shapes;</li>
+ * <li>a table of the distinct colours of DynamicShapes, as ARGB values;</li>
+ * <li>one column per attribute, each holding a value for every Shape: the
+ * index of its parent, its x and y positions, deltaX and deltaY, width and
+ * height, the indices of its text and colour within the tables (or -1), the
+ * index of its class and its fill state.</li>
+ * </ul>
+ * Shapes are listed breadth first, so a Shape's parent always precedes it and
+ * siblings appear in painting order; the root CarrierShape is not listed and
+ * is referred to by the parent index -1. All values are little-endian and
+ * every column of ints starts on a 4-byte boundary.
+ *
+ * Loading builds the hierarchy in a single pass over the columns, mapping a
+ * window of rows of each column into memory at a time, so snapshots larger
+ * than 2 GB can be read; only the header and tables must lie within the first
+ * 2 GB. Each Shape is constructed with its class' public 7-argument (x, y,
+ * deltaX, deltaY, width, height, text) constructor, which is looked up once
+ * per class. Consequently only Shapes whose classes provide that constructor
+ * (as required by ShapeFormHandler) can be saved. The new model's ShapeStore
+ * is sized for all Shapes in advance, and the world positions of all Shapes
+ * are computed once the hierarchy is complete.
+ *
+ */
+public final class SceneSnapshot {
+	// "SPSH", identifying a snapshot file.
+	private static final int MAGIC = 0x48535053;
+
+	private static final int VERSION = 1;
+
+	// Size of the buffer through which snapshots are written.
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// Number of rows of each column mapped at a time when loading.
+	private static final int WINDOW_ROWS = 256 * 1024;
+
+	// Number of int columns, which are followed by a column of flag bytes.
+	private static final int INT_COLUMNS = 10;
+
+	private SceneSnapshot() {
+	}
+
+	/**
+	 * Writes the state of model to file, replacing any existing content.
+	 * @throws IllegalArgumentException if the class of a Shape within model
+	 * does not have a public 7-argument constructor.
+	 */
+	public static void write(ShapeModel model, File file) throws IOException {
+		CarrierShape root = model.root();
+
+		// List the Shapes breadth first, recording each one's parent.
+		ShapeListing listing = new ShapeListing(model);
+		List<Shape> shapes = listing.shapes();
+		int count = listing.size();
+
+		// Build the tables.
+		Map<Class<?>, Integer> classIndices = new HashMap<Class<?>, Integer>();
+		List<String> classNames = new ArrayList<String>();
+		Map<String, Integer> textIndices = new HashMap<String, Integer>();
+		List<String> texts = new ArrayList<String>();
+		Map<Integer, Integer> colourIndices = new HashMap<Integer, Integer>();
+		List<Integer> colours = new ArrayList<Integer>();
+		int[] classes = new int[count];
+		int[] textColumn = new int[count];
+		int[] colourColumn = new int[count];
+		for (int i = 0; i < count; i++) {
+			Shape shape = shapes.get(i);
+			Integer index = classIndices.get(shape.getClass());
+			if (index == null) {
+				constructor(shape.getClass());
+				index = classNames.size();
+				classIndices.put(shape.getClass(), index);
+				classNames.add(shape.getClass().getName());
+			}
+			classes[i] = index;
+			textColumn[i] = indexOf(shape._text, textIndices, texts);
+			colourColumn[i] = (shape instanceof DynamicShape)
+					? indexOf(((DynamicShape) shape).colour().getRGB(), colourIndices, colours) : -1;
+		}
+
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			Output output = new Output(out.getChannel());
+			output.putInt(MAGIC);
+			output.putInt(VERSION);
+			output.putLong(model.tick());
+			output.putInt(root.width());
+			output.putInt(root.height());
+			output.putInt(classNames.size());
+			output.putInt(texts.size());
+			output.putInt(colours.size());
+			output.putInt(count);
+			for (String name : classNames) {
+				output.putString(name);
+			}
+			for (String text : texts) {
+				output.putString(text);
+			}
+			output.align();
+			for (int colour : colours) {
+				output.putInt(colour);
+			}
+
+			output.putInts(listing.parents(), count);
+			for (Shape shape : shapes) {
+				output.putInt(shape.x());
+			}
+			for (Shape shape : shapes) {
+				output.putInt(shape.y());
+			}
+			for (Shape shape : shapes) {
+				output.putInt(shape.deltaX());
+			}
+			for (Shape shape : shapes) {
+				output.putInt(shape.deltaY());
+			}
+			for (Shape shape : shapes) {
+				output.putInt(shape.width());
+			}
+			for (Shape shape : shapes) {
+				output.putInt(shape.height());
+			}
+			output.putInts(textColumn, count);
+			output.putInts(colourColumn, count);
+			output.putInts(classes, count);
+			for (Shape shape : shapes) {
+				output.putByte(shape.shouldFill() ? ShapeStore.FILL : 0);
+			}
+			output.flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Creates a ShapeModel in the state saved in file. The model has no
+	 * listeners and default settings (e.g. for parallelism and collision
+	 * detection).
+	 * @throws IOException if file cannot be read, is not a snapshot or is
+	 * corrupt, or names a Shape class that cannot be loaded or lacks a
+	 * public 7-argument constructor.
+	 */
+	public static ShapeModel read(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return read(file, in.getChannel());
+		} catch (BufferUnderflowException e) {
+			throw new IOException(file + " is truncated", e);
+		} finally {
+			in.close();
+		}
+	}
+
+	/*
+	 * Reads the snapshot held in file through channel.
+	 */
+	private static ShapeModel read(File file, FileChannel channel) throws IOException {
+		long size = channel.size();
+		ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE));
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (buffer.getInt() != MAGIC) {
+			throw new IOException(file + " is not a snapshot");
+		}
+		if (buffer.getInt() != VERSION) {
+			throw new IOException(file + " has an unsupported snapshot version");
+		}
+		long tick = buffer.getLong();
+		int width = buffer.getInt();
+		int height = buffer.getInt();
+		int classCount = buffer.getInt();
+		int textCount = buffer.getInt();
+		int colourCount = buffer.getInt();
+		int count = buffer.getInt();
+		if (tick < 0 || width < 0 || height < 0 || classCount < 0 || textCount < 0 || colourCount < 0 || count < 0) {
+			throw new IOException(file + " is corrupt");
+		}
+
+		List<Constructor<? extends Shape>> constructors = new ArrayList<Constructor<? extends Shape>>();
+		for (int i = 0; i < classCount; i++) {
+			String name = getString(buffer);
+			try {
+				constructors.add(constructor(Class.forName(name).asSubclass(Shape.class)));
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Shape class " + name + " not found", e);
+			} catch (ClassCastException e) {
+				throw new IOException(name + " is not a Shape class", e);
+			} catch (IllegalArgumentException e) {
+				throw new IOException(name + " has no public 7-argument constructor", e);
+			}
+		}
+		String[] texts = new String[textCount];
+		for (int i = 0; i < textCount; i++) {
+			texts[i] = getString(buffer);
+		}
+		align(buffer);
+		Color[] colours = new Color[colourCount];
+		for (int i = 0; i < colourCount; i++) {
+			colours[i] = new Color(buffer.getInt(), true);
+		}
+
+		// The columns follow the tables, and end with the flags.
+		long columns = buffer.position();
+		long columnSize = 4L * count;
+		if (size - columns < INT_COLUMNS * columnSize + count) {
+			throw new BufferUnderflowException();
+		}
+
+		ShapeModel model = new ShapeModel(new Dimension(width, height));
+		model.root()._store.reserve(count + 1);
+		Shape[] shapes = new Shape[count];
+		IntBuffer[] window = new IntBuffer[INT_COLUMNS];
+
+		for (int first = 0; first < count; first += WINDOW_ROWS) {
+			int rows = Math.min(WINDOW_ROWS, count - first);
+			for (int column = 0; column < INT_COLUMNS; column++) {
+				window[column] = channel.map(FileChannel.MapMode.READ_ONLY, columns + column * columnSize + 4L * first,
+						4L * rows).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			}
+			IntBuffer parents = window[0];
+			IntBuffer xs = window[1];
+			IntBuffer ys = window[2];
+			IntBuffer deltaXs = window[3];
+			IntBuffer deltaYs = window[4];
+			IntBuffer widths = window[5];
+			IntBuffer heights = window[6];
+			IntBuffer textColumn = window[7];
+			IntBuffer colourColumn = window[8];
+			IntBuffer classes = window[9];
+			ByteBuffer flags = channel.map(FileChannel.MapMode.READ_ONLY, columns + INT_COLUMNS * columnSize + first, rows);
+
+			for (int row = 0; row < rows; row++) {
+				int i = first + row;
+				int parentIndex = parents.get(row);
+				int classIndex = classes.get(row);
+				int textIndex = textColumn.get(row);
+				int colourIndex = colourColumn.get(row);
+				if (parentIndex < -1 || parentIndex >= i || classIndex < 0 || classIndex >= classCount
+						|| textIndex < -1 || textIndex >= textCount || colourIndex < -1 || colourIndex >= colourCount) {
+					throw new IOException(file + " is corrupt");
+				}
+				Shape parent = (parentIndex == -1) ? model.root() : shapes[parentIndex];
+				if (!(parent instanceof CarrierShape)) {
+					throw new IOException(file + " is corrupt");
+				}
+
+				Shape shape = newShape(constructors.get(classIndex), xs.get(row), ys.get(row), deltaXs.get(row),
+						deltaYs.get(row), widths.get(row), heights.get(row), (textIndex == -1) ? null : texts[textIndex]);
+				try {
+					((CarrierShape) parent).add(shape);
+				} catch (IllegalArgumentException e) {
+					throw new IOException(file + " is corrupt: a Shape does not fit its parent", e);
+				}
+				if ((flags.get(row) & ShapeStore.FILL) != 0) {
+					shape._store._flags[shape._slot] |= ShapeStore.FILL;
+				}
+				if (colourIndex != -1 && shape instanceof DynamicShape) {
+					((DynamicShape) shape).setColour(colours[colourIndex]);
+				}
+				shapes[i] = shape;
+			}
+		}
+		model.restored(tick);
+		return model;
+	}
+
+	/*
+	 * Returns the index of value within table, adding it if absent. A null
+	 * value has index -1.
+	 */
+	private static <T> int indexOf(T value, Map<T, Integer> indices, List<T> table) {
+		if (value == null) {
+			return -1;
+		}
+		Integer index = indices.get(value);
+		if (index == null) {
+			index = table.size();
+			indices.put(value, index);
+			table.add(value);
+		}
+		return index;
+	}
+
+	/*
+	 * Returns the public 7-argument constructor of shapeClass, throwing
+	 * IllegalArgumentException if it has none.
+	 */
+	static Constructor<? extends Shape> constructor(Class<? extends Shape> shapeClass) {
+		try {
+			return shapeClass.getConstructor(Integer.TYPE, Integer.TYPE, Integer.TYPE, Integer.TYPE,
+					Integer.TYPE, Integer.TYPE, String.class);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException(shapeClass.getName() + " has no public 7-argument constructor", e);
+		}
+	}
+
+	/*
+	 * Creates a Shape with constructor, reporting any failure as an
+	 * IOException.
+	 */
+	static Shape newShape(Constructor<? extends Shape> constructor, int x, int y, int deltaX, int deltaY,
+			int width, int height, String text) throws IOException {
+		try {
+			return constructor.newInstance(x, y, deltaX, deltaY, width, height, text);
+		} catch (InstantiationException e) {
+			throw new IOException("Cannot instantiate " + constructor.getDeclaringClass().getName(), e);
+		} catch (IllegalAccessException e) {
+			throw new IOException("Cannot instantiate " + constructor.getDeclaringClass().getName(), e);
+		} catch (InvocationTargetException e) {
+			throw new IOException("Cannot instantiate " + constructor.getDeclaringClass().getName(), e.getCause());
+		}
+	}
+
+	/*
+	 * Reads a length-prefixed UTF-8 string.
+	 */
+	private static String getString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Advances buffer's position to the next 4-byte boundary.
+	 */
+	private static void align(ByteBuffer buffer) {
+		buffer.position((buffer.position() + 3) & ~3);
+	}
+
+	/*
+	 * Little-endian writer that buffers output to a FileChannel.
+	 */
+	private static final class Output {
+		private final FileChannel _channel;
+
+		private final ByteBuffer _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+		// Number of bytes written so far, including those buffered.
+		private long _position;
+
+		Output(FileChannel channel) {
+			_channel = channel;
+		}
+
+		void putByte(int value) throws IOException {
+			ensure(1);
+			_buffer.put((byte) value);
+			_position++;
+		}
+
+		void putInt(int value) throws IOException {
+			ensure(4);
+			_buffer.putInt(value);
+			_position += 4;
+		}
+
+		void putLong(long value) throws IOException {
+			ensure(8);
+			_buffer.putLong(value);
+			_position += 8;
+		}
+
+		void putInts(int[] values, int count) throws IOException {
+			for (int i = 0; i < count; i++) {
+				putInt(values[i]);
+			}
+		}
+
+		void putString(String value) throws IOException {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			putInt(bytes.length);
+			for (int i = 0; i < bytes.length; ) {
+				ensure(1);
+				int length = Math.min(bytes.length - i, _buffer.remaining());
+				_buffer.put(bytes, i, length);
+				i += length;
+			}
+			_position += bytes.length;
+		}
+
+		/*
+		 * Pads the output to a 4-byte boundary.
+		 */
+		void align() throws IOException {
+			while ((_position & 3) != 0) {
+				putByte(0);
+			}
+		}
+
+		void flush() throws IOException {
+			_buffer.flip();
+			while (_buffer.hasRemaining()) {
+				_channel.write(_buffer);
+			}
+			_buffer.clear();
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (_buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+	}
+}
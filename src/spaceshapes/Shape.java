@@ -1,5 +1,6 @@
 package spaceshapes;
 
+import java.awt.Rectangle;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -17,7 +18,7 @@ import java.util.List;
 /**
  * The Shape class implements the Template Method Design Pattern. It contains
  * an optional hook - the move() method (which is only overridden in the CarrierShape class),
- * a slot - the paint() method (which is an abstract class and must be overridden
+ * a slot - the doPaint() method (which is abstract and must be overridden
  * 		 	and implemented in each subclass), 
  * and a method declared final - the paintText() method which should have the same
  * functionality and body for all Shape instances. It is a part of the template that
@@ -40,26 +41,22 @@ public abstract class Shape {
 	// ===
 
 	// === Instance variables, accessible by subclasses.
-	protected int _x;
-
-	protected int _y;
-
-	protected int _deltaX;
-
-	protected int _deltaY;
-
-	protected int _width;
-
-	protected int _height;
-	
 	protected String _text;
 	
 	protected CarrierShape _parent;
 	
-	protected Boolean _shouldFill;
-	
 	//private List<Shape> _ancestory = new ArrayList<Shape>();
 	// ===
+	
+	// === Position, velocity and size are held in a ShapeStore; a Shape is a
+	// view of one slot within the store.
+	ShapeStore _store;
+	
+	int _slot;
+	// ===
+	
+	// Slot of this Shape within its parent's ChildList; maintained by ChildList.
+	int _index;
 
 	/**
 	 * Creates a Shape object with default values for instance variables.
@@ -88,13 +85,7 @@ public abstract class Shape {
 	 * height values.
 	 */
 	public Shape(int x, int y, int deltaX, int deltaY, int width, int height) {
-		_x = x;
-		_y = y;
-		_deltaX = deltaX;
-		_deltaY = deltaY;
-		_width = width;
-		_height = height;
-		_shouldFill = false;
+		this(x, y, deltaX, deltaY, width, height, null);
 	}
 	
 	/** 
@@ -102,13 +93,9 @@ public abstract class Shape {
 	 * and text values. 
 	*/
 	public Shape(int x, int y, int deltaX, int deltaY, int width, int height, String text) {
-		_x = x;
-		_y = y;
-		_deltaX = deltaX;
-		_deltaY = deltaY;
-		_width = width;
-		_height = height;
-		_shouldFill = false;
+		byte flags = (this instanceof CarrierShape) ? ShapeStore.CARRIER : 0;
+		_store = new ShapeStore(1);
+		_slot = _store.allocate(this, x, y, deltaX, deltaY, width, height, flags);
 		_text = text;
 	}
 	
@@ -120,31 +107,7 @@ public abstract class Shape {
 	 * @param height - height of two-dimensional world.
 	 */
 	public void move(int width, int height) {
-		int nextX = _x + _deltaX;
-		int nextY = _y + _deltaY;
-
-		if (nextX <= 0) {
-			nextX = 0;
-			_deltaX = -_deltaX;
-			_shouldFill = true;
-		} else if (nextX + _width >= width) {
-			nextX = width - _width;
-			_deltaX = -_deltaX;
-			_shouldFill = true;
-		}
-
-		if (nextY <= 0) {
-			nextY = 0;
-			_deltaY = -_deltaY;
-			_shouldFill = false;
-		} else if (nextY + _height >= height) {
-			nextY = height - _height;
-			_deltaY = -_deltaY;
-			_shouldFill = false;
-		}
-
-		_x = nextX;
-		_y = nextY;
+		_store.move(_slot, width, height);
 	}
 
 	/**
@@ -157,48 +120,64 @@ public abstract class Shape {
 		paintText(painter);
 	}
 	
-	protected abstract void doPaint(Painter painter);
+	/**
+	 * Paints this Shape, excluding its text, in its current state.
+	 * @param painter the Painter object used for drawing.
+	 */
+	protected void doPaint(Painter painter) {
+		doPaint(painter, x(), y(), width(), height(), shouldFill());
+	}
+	
+	/**
+	 * Method to be implemented by concrete subclasses to paint a Shape with 
+	 * the specified position, size and fill state, excluding its text. The
+	 * state passed is normally this Shape's own, but it may instead be taken
+	 * from a Frame captured earlier; implementations must therefore paint 
+	 * using the parameters rather than the accessors.
+	 * @param painter the Painter object used for drawing.
+	 */
+	protected abstract void doPaint(Painter painter, int x, int y, int width, int height, boolean fill);
 
 	/**
 	 * Returns this Shape object's x position.
 	 */
 	public int x() {
-		return _x;
+		return _store._x[_slot];
 	}
 	
 	/**
 	 * Returns this Shape object's y position.
 	 */
 	public int y() {
-		return _y;
+		return _store._y[_slot];
 	}
 	
 	/**
 	 * Returns this Shape object's speed and direction.
 	 */
 	public int deltaX() {
-		return _deltaX;
+		return _store._deltaX[_slot];
 	}
 	
 	/**
 	 * Returns this Shape object's speed and direction.
 	 */
 	public int deltaY() {
-		return _deltaY;
+		return _store._deltaY[_slot];
 	}
 	
 	/**
 	 * Returns this Shape's width.
 	 */
 	public int width() {
-		return _width;
+		return _store._width[_slot];
 	}
 	
 	/**
 	 * Returns this Shape's height.
 	 */
 	public int height() {
-		return _height;
+		return _store._height[_slot];
 	}
 	
 	/**
@@ -210,6 +189,15 @@ public abstract class Shape {
 		return getClass().getName();
 	}
 	
+	/**
+	 * Returns true if this Shape should currently be painted filled. A Shape
+	 * becomes filled on bouncing off a left or right boundary, and unfilled
+	 * on bouncing off a top or bottom boundary.
+	 */
+	protected boolean shouldFill() {
+		return (_store._flags[_slot] & ShapeStore.FILL) != 0;
+	}
+	
 	public String text() {
 		return _text;
 	}
@@ -224,11 +212,30 @@ public abstract class Shape {
 	 * @param painter the Painter object used for drawing.
 	 */
 	public final void paintText(Painter painter) {
-		if (_text != null) {
-			painter.drawCentredText(_text, _x, _y, _width, _height);
+		paintText(painter, _text, x(), y(), width(), height());
+	}
+	
+	/*
+	 * Paints text, if any, centred on a Shape with the specified position 
+	 * and size.
+	 */
+	static void paintText(Painter painter, String text, int x, int y, int width, int height) {
+		if (text != null) {
+			painter.drawCentredText(text, x, y, width, height);
 		}
 	}
 	
+	/*
+	 * Returns true if a Shape with the specified position and size, together
+	 * with any Shapes it contains, may paint within clip. A null clip is
+	 * unbounded. Outlines are drawn inclusively, so a Shape covers one pixel
+	 * more than its width and height.
+	 */
+	static boolean isVisible(Rectangle clip, int x, int y, int width, int height) {
+		return clip == null || (x <= clip.x + clip.width && x + width >= clip.x 
+				&& y <= clip.y + clip.height && y + height >= clip.y);
+	}
+	
 	/** 
 	 * Returns the parent CarrierShape that contains this Shape 
 	 */
@@ -252,4 +259,24 @@ public abstract class Shape {
 		Collections.reverse(ancestory);
 		return ancestory;
 	}	
+	
+	/*
+	 * Transfers this Shape's state into the specified store, releasing its
+	 * slot in the store that currently holds it. The Shape subsequently moves
+	 * within boundWidth and boundHeight when the store is advanced as a
+	 * whole.
+	 */
+	void relocate(ShapeStore store, int boundWidth, int boundHeight) {
+		int parentSlot = (_parent != null && _parent._store == store) ? _parent._slot : -1;
+		
+		if (store == _store) {
+			store.setBounds(_slot, boundWidth, boundHeight);
+			store.setParentSlot(_slot, parentSlot);
+		} else {
+			int slot = store.copy(_store, _slot, boundWidth, boundHeight, parentSlot);
+			_store.release(_slot);
+			_store = store;
+			_slot = slot;
+		}
+	}
 }
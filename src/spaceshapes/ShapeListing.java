@@ -0,0 +1,84 @@
+package spaceshapes;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Listing of some Shapes followed, breadth first, by every Shape they carry,
+ * with the position within the listing of each Shape's parent. SceneSnapshot,
+ * ShapeModelJournal, MotionRecorder and TrajectoryExporter all identify
+ * Shapes by their position in such a listing.
+ */
+final class ShapeListing {
+	private Shape[] _shapes = new Shape[16];
+
+	// Position of each Shape's parent, or -1 for the Shapes listed first.
+	private int[] _parents = new int[16];
+
+	private int _size;
+
+	/**
+	 * Lists shapes, in order, and then the Shapes they carry, breadth first.
+	 */
+	ShapeListing(Collection<? extends Shape> shapes) {
+		for (Shape shape : shapes) {
+			add(shape, -1);
+		}
+		for (int i = 0; i < _size; i++) {
+			if (_shapes[i] instanceof CarrierShape) {
+				for (Shape child : ((CarrierShape) _shapes[i])._containedShapes) {
+					add(child, i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lists every Shape in model, excluding its root, breadth first.
+	 */
+	ShapeListing(ShapeModel model) {
+		this(model.root()._containedShapes);
+	}
+
+	int size() {
+		return _size;
+	}
+
+	Shape shape(int i) {
+		return _shapes[i];
+	}
+
+	/**
+	 * Returns a view of the Shapes, in order.
+	 */
+	List<Shape> shapes() {
+		return Arrays.asList(_shapes).subList(0, _size);
+	}
+
+	/**
+	 * Returns the position of the parent of the ith Shape, or -1 if it is one
+	 * of the Shapes listed first.
+	 */
+	int parent(int i) {
+		return _parents[i];
+	}
+
+	/**
+	 * Returns the parent positions of the Shapes, in an array that may be
+	 * longer than size().
+	 */
+	int[] parents() {
+		return _parents;
+	}
+
+	private void add(Shape shape, int parent) {
+		if (_size == _shapes.length) {
+			_shapes = Arrays.copyOf(_shapes, _size * 2);
+			_parents = Arrays.copyOf(_parents, _size * 2);
+		}
+		_shapes[_size] = shape;
+		_parents[_size] = parent;
+		_size++;
+	}
+}
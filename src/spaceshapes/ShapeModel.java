@@ -1,8 +1,16 @@
 package spaceshapes;
 
 import java.awt.Dimension;
+import java.awt.Rectangle;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Class to represent a shape composition. Classes whose instances are 
@@ -18,12 +26,65 @@ import java.util.List;
  */
 public class ShapeModel {
 	
+	/**
+	 * Actions taken when an event is fired to an asynchronously notified 
+	 * ShapeModelListener whose queue is full.
+	 * <ul>
+	 * <li>Block: clock(), add() etc. wait until the listener has caught up.</li>
+	 * <li>DropOldest: the oldest undelivered event is discarded.</li>
+	 * <li>Coalesce: a ShapeMoved event fired by clock() is merged with an 
+	 * undelivered ShapeMoved event at the back of the queue, so consecutive
+	 * ticks reach a slow listener as a single event whose dirty region 
+	 * covers them all. Other events wait for room, as for Block.</li>
+	 * </ul>
+	 */
+	public enum OverflowPolicy {Block, DropOldest, Coalesce};
+	
 	// Root of the shape composition.
 	private CarrierShape _root;
 	
 	// Boundaries governing Shape movement within a ShapeModel.
 	private Dimension _bounds;
 	
+	/*
+	 * Structure-of-arrays store holding the state of every Shape in the 
+	 * composition; it is the store created for (and owned via) the root.
+	 */
+	private ShapeStore _store;
+	
+	// Default minimum number of Shapes moved by each parallel clock task.
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 4096;
+	
+	/*
+	 * Pool used to clock the model in parallel, null when the model is 
+	 * clocked sequentially.
+	 */
+	private ForkJoinPool _pool;
+	
+	// Number of Shapes at or below which a parallel clock task runs sequentially.
+	private int _parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+	
+	/*
+	 * Grid index over the world positions of the model's Shapes, built on
+	 * the first query and then maintained by clock().
+	 */
+	private SpatialIndex _index;
+	
+	// Width and height of the spatial index's cells.
+	private int _cellSize = SpatialIndex.DEFAULT_CELL_SIZE;
+	
+	// Number of ticks performed by clock().
+	private long _tick;
+	
+	/*
+	 * Buffer through which a Frame is published at the end of each tick, 
+	 * null unless frame capture is enabled. 
+	 */
+	private volatile FrameBuffer _frames;
+	
+	// True if clock() detects collisions between sibling Shapes.
+	private boolean _collisionDetection;
+	
 	// List of ShapeModelListeners.
 	private List<ShapeModelListener> _listeners;
 	
@@ -34,6 +95,8 @@ public class ShapeModel {
 	public ShapeModel(Dimension bounds) {
 		_root = new CarrierShape(0, 0, 0, 0, bounds.width, bounds.height);
 		_bounds = bounds;
+		_store = _root._store;
+		_store.setBounds(_root._slot, bounds.width, bounds.height);
 		_listeners = new ArrayList<ShapeModelListener>();
 	}
 
@@ -60,6 +123,7 @@ public class ShapeModel {
 		
 		try {
 			parent.add(shape);
+			resolveWorld(shape);
 			
 			// Fire event.
 			fire(ShapeModelEvent.makeShapeAddedEvent(shape, this));
@@ -90,31 +154,452 @@ public class ShapeModel {
 		}
 	}
 
+	/**
+	 * Attempts to add a batch of new Shapes to a specified CarrierShape held
+	 * within the ShapeModel. The whole batch is validated before any Shape is
+	 * added: if any Shape cannot be added (for the reasons described for 
+	 * add()), or a Shape appears in the batch more than once, no action is
+	 * taken and this method returns false. Otherwise all Shapes are added, in
+	 * iteration order, and a single ShapesAdded ShapeModelEvent is fired. 
+	 * No event is fired for an empty batch.
+	 * @param shapes the new shapes to add to this ShapeModel.
+	 * @param parent the intended parent of the new shapes.
+	 */
+	public boolean addAll(Collection<? extends Shape> shapes, CarrierShape parent) {
+		Set<Shape> batch = Collections.newSetFromMap(new IdentityHashMap<Shape, Boolean>());
+		
+		for(Shape shape : shapes) {
+			if(!batch.add(shape) || !parent.canAdd(shape)) {
+				return false;
+			}
+		}
+		
+		if(!batch.isEmpty()) {
+			List<Shape> added = new ArrayList<Shape>(shapes);
+			int[] indices = new int[added.size()];
+			int first = parent.shapeCount();
+			
+			for(int i = 0; i < indices.length; i++) {
+				Shape shape = added.get(i);
+				parent.add(shape);
+				resolveWorld(shape);
+				indices[i] = first + i;
+			}
+			
+			// Fire event.
+			fire(ShapeModelEvent.makeShapesAddedEvent(added, parent, indices, this));
+		}
+		return true;
+	}
+	
+	/**
+	 * Attempts to remove a batch of Shapes, all children of the specified 
+	 * CarrierShape, from this ShapeModel. If any Shape is not a child of 
+	 * parent, or a Shape appears in the batch more than once, no action is 
+	 * taken and this method returns false. Otherwise all Shapes are removed 
+	 * and a single ShapesRemoved ShapeModelEvent, which lists the removed
+	 * Shapes in order of their former index positions, is fired. No event is
+	 * fired for an empty batch.
+	 * @param shapes the Shapes to remove.
+	 * @param parent the parent of the Shapes to remove.
+	 */
+	public boolean removeAll(Collection<? extends Shape> shapes, CarrierShape parent) {
+		Set<Shape> batch = Collections.newSetFromMap(new IdentityHashMap<Shape, Boolean>());
+		int[] indices = new int[shapes.size()];
+		int count = 0;
+		
+		for(Shape shape : shapes) {
+			if(!batch.add(shape) || !parent.contains(shape)) {
+				return false;
+			}
+			indices[count++] = parent.indexOf(shape);
+		}
+		
+		if(count > 0) {
+			Arrays.sort(indices);
+			List<Shape> removed = new ArrayList<Shape>(count);
+			for(int index : indices) {
+				removed.add(parent.shapeAt(index));
+			}
+			parent.removeAll(indices);
+			
+			// Fire event.
+			fire(ShapeModelEvent.makeShapesRemovedEvent(removed, parent, indices, this));
+		}
+		return true;
+	}
+
 	/**
 	 * Progresses the animation. Calling this method causes each Shape in this 
 	 * ShapeModel to move before notifying each registered ShapeModelListener 
 	 * of the movement. Note that a clock() call results in ONE ShapeModelEvent
 	 * being fired; the event identifies the root CarrierShape.
+	 * 
+	 * Rather than recursing through the composition hierarchy, the model
+	 * advances every Shape with a single pass over its ShapeStore; the
+	 * outcome is identical to calling move() on the root CarrierShape.
 	 */
 	public void clock() {
-		_root.move(_bounds.width, _bounds.height);
+		if (_pool == null) {
+			_store.moveAll();
+		} else {
+			_store.moveAll(_pool, _parallelThreshold);
+		}
+		Rectangle dirtyRegion = _store.updateWorld();
+		updateIndex();
+		_tick++;
+		publishFrame();
 		
 		// Fire event.
-		fire(ShapeModelEvent.makeShapeMovedEvent(_root, this));
+		fire(ShapeModelEvent.makeShapeMovedEvent(_root, this, dirtyRegion));
+		fireCollisions();
 	}
 
 	/**
-	 * Registers a ShapeModelListener on this ShapeModel object.
+	 * Progresses the animation by the specified number of ticks. On return,
+	 * every Shape in this ShapeModel (including nested Shapes and the fill 
+	 * state of DynamicShapes) is in exactly the state it would be in after
+	 * ticks calls to clock(). The cost of this method is proportional to the
+	 * number of Shapes, not the number of ticks. A single ShapeModelEvent that
+	 * identifies the root CarrierShape is fired, unless ticks is zero. If 
+	 * collision detection is enabled, only collisions present once all ticks
+	 * have elapsed are detected.
+	 * @param ticks the number of ticks to advance by.
+	 * @throws IllegalArgumentException if ticks is negative.
+	 */
+	public void clock(long ticks) {
+		if (ticks < 0) {
+			throw new IllegalArgumentException();
+		}
+		if (ticks > 0) {
+			_store.moveAll(ticks);
+			Rectangle dirtyRegion = _store.updateWorld();
+			updateIndex();
+			_tick += ticks;
+			publishFrame();
+			
+			// Fire event.
+			fire(ShapeModelEvent.makeShapeMovedEvent(_root, this, dirtyRegion));
+			fireCollisions();
+		}
+	}
+	
+	/**
+	 * Configures how clock() moves this ShapeModel's Shapes. With a
+	 * parallelism of 1 or less, Shapes are moved sequentially on the calling
+	 * thread. Otherwise they are moved concurrently by a ForkJoinPool with the
+	 * specified parallelism, with each task moving at most threshold Shapes;
+	 * models holding threshold Shapes or fewer are still moved sequentially.
+	 * Parallel and sequential clocking produce exactly the same positions.
+	 * @param parallelism the number of threads used to clock the model.
+	 * @param threshold the number of Shapes below which work is not split.
+	 * @throws IllegalArgumentException if threshold is less than 1.
+	 */
+	public void setParallelism(int parallelism, int threshold) {
+		if (threshold < 1) {
+			throw new IllegalArgumentException();
+		}
+		if (_pool != null) {
+			_pool.shutdown();
+			_pool = null;
+		}
+		if (parallelism > 1) {
+			_pool = new ForkJoinPool(parallelism);
+		}
+		_parallelThreshold = threshold;
+	}
+	
+	/**
+	 * Returns the Shapes whose painted area includes the point (x, y). The 
+	 * point is given in world coordinates, i.e. relative to the root 
+	 * CarrierShape, and the result (which includes the root and any 
+	 * CarrierShapes containing the point) is in no particular order. 
+	 * 
+	 * Queries are answered from a uniform grid of cells that is built on
+	 * the first query and is then updated by every clock() call, re-filing
+	 * only those Shapes that have moved into a different cell.
+	 */
+	public List<Shape> queryPoint(int x, int y) {
+		return index().queryPoint(x, y);
+	}
+	
+	/**
+	 * Returns the Shapes whose painted area overlaps the rectangle with top 
+	 * left corner (x, y) and the specified width and height, in world 
+	 * coordinates. The result is in no particular order, and is empty if 
+	 * width or height is not positive.
+	 */
+	public List<Shape> queryRect(int x, int y, int width, int height) {
+		return index().queryRect(x, y, width, height);
+	}
+	
+	/**
+	 * Returns the topmost Shape whose painted area includes the point (x, y),
+	 * in world coordinates, or null if the point lies outside every Shape. 
+	 * Of the Shapes at the point, the topmost is the one painted last: a 
+	 * Shape is painted after its ancestors, and after its earlier siblings 
+	 * together with their descendants. The root is returned if the point 
+	 * lies within the model's bounds but not within any other Shape.
+	 */
+	public Shape pick(int x, int y) {
+		Shape topmost = null;
+		
+		for (Shape shape : index().queryPoint(x, y)) {
+			if (topmost == null || paintsAfter(shape, topmost)) {
+				topmost = shape;
+			}
+		}
+		return topmost;
+	}
+	
+	/**
+	 * Sets the width and height of the cells of the grid used to answer 
+	 * queryPoint() and queryRect(). Shapes at least this large in either 
+	 * dimension are checked by every query, so the cell size should exceed
+	 * that of most Shapes. 
+	 * @throws IllegalArgumentException if cellSize is less than 1.
+	 */
+	public void setSpatialIndexCellSize(int cellSize) {
+		if (cellSize < 1) {
+			throw new IllegalArgumentException();
+		}
+		_cellSize = cellSize;
+		_index = null;
+		_store._index = null;
+	}
+	
+	/**
+	 * Enables or disables frame capture. While enabled, a Frame recording the
+	 * draw state of every Shape is captured at the end of each clock() call 
+	 * (and when capture is first enabled). The latest Frame can be obtained 
+	 * with acquireFrame() and read from any thread, without locking, while 
+	 * the model computes further ticks. Frames are recycled rather than 
+	 * allocated each tick.
+	 */
+	public void setFrameCapture(boolean enabled) {
+		if (!enabled) {
+			_frames = null;
+		} else if (_frames == null) {
+			FrameBuffer frames = new FrameBuffer();
+			frames.publish(_root, _tick);
+			_frames = frames;
+		}
+	}
+	
+	/**
+	 * Returns the latest Frame captured by this ShapeModel, or null if frame
+	 * capture is not enabled. This method may be called from any thread. The
+	 * Frame remains valid, and unchanged, until the caller releases it with
+	 * Frame.release().
+	 */
+	public Frame acquireFrame() {
+		FrameBuffer frames = _frames;
+		return (frames == null) ? null : frames.acquire();
+	}
+	
+	/**
+	 * Enables or disables detection of collisions between sibling Shapes. 
+	 * When enabled, each clock() call finds the pairs of Shapes, children of
+	 * the same CarrierShape, whose bounding boxes overlap but did not overlap
+	 * after the previous clock() call. If there are any, a ShapesCollided 
+	 * ShapeModelEvent listing them is fired after the ShapeMoved event. Pairs
+	 * that already overlap when detection is enabled are reported by the 
+	 * next clock() call, as are those formed by adding a Shape.
+	 * Shapes are not deflected by collisions; they continue to bounce only 
+	 * off the walls of their parents.
+	 * 
+	 * Each CarrierShape keeps its children sorted by their left edges from 
+	 * one tick to the next (see SweepAndPrune), so detection costs little 
+	 * more than a pass over the children, even for very large carriers.
+	 */
+	public void setCollisionDetection(boolean enabled) {
+		if (enabled && !_collisionDetection) {
+			// Discard any state left from when detection was last enabled.
+			for (int slot = 0; slot < _store.size(); slot++) {
+				if ((_store._flags[slot] & ShapeStore.CARRIER) != 0) {
+					((CarrierShape)_store._shapes[slot])._sweep = null;
+				}
+			}
+		}
+		_collisionDetection = enabled;
+	}
+	
+	/**
+	 * Registers a ShapeModelListener on this ShapeModel object. The listener
+	 * is notified synchronously, on the thread that changes the model.
 	 */
 	public void addShapeModelListener(ShapeModelListener listener) {
 		_listeners.add(listener);
 	}
 	
 	/**
-	 * Deregisters a ShapeModelListener from this ShapeModel object.
+	 * Registers a ShapeModelListener that is notified asynchronously, on a
+	 * dedicated delivery thread. Events fired to the listener are queued, so
+	 * a slow listener does not hold up clock(); the listener receives them in
+	 * order, but observes the state of the model at the time of delivery
+	 * rather than when each event was fired.
+	 * @param listener the listener to register.
+	 * @param policy the action taken when the listener's queue is full.
+	 * @param capacity the maximum number of events queued for the listener.
+	 * @throws IllegalArgumentException if capacity is less than 1.
+	 */
+	public void addShapeModelListener(ShapeModelListener listener, OverflowPolicy policy, int capacity) {
+		addShapeModelListener(listener, policy, capacity, null);
+	}
+	
+	/**
+	 * Registers a ShapeModelListener that is notified asynchronously, by 
+	 * tasks run by the specified Executor; for example, a Swing-based 
+	 * listener can be given an Executor that calls 
+	 * SwingUtilities.invokeLater(). Otherwise as for the three argument
+	 * version of this method. Note that the Block and Coalesce policies can 
+	 * deadlock if the executor runs its tasks on the thread that clocks the
+	 * model.
+	 * @param executor the Executor used to deliver events, or null to use a
+	 * dedicated delivery thread.
+	 */
+	public void addShapeModelListener(ShapeModelListener listener, OverflowPolicy policy, int capacity, Executor executor) {
+		_listeners.add(new ListenerQueue(listener, policy, capacity, executor));
+	}
+	
+	/**
+	 * Deregisters a ShapeModelListener from this ShapeModel object. If the
+	 * listener was notified asynchronously, events not yet delivered to it 
+	 * are discarded.
 	 */
 	public void removeShapeModelListener(ShapeModelListener listener) {
-		_listeners.remove(listener);
+		for (int i = 0; i < _listeners.size(); i++) {
+			ShapeModelListener registered = _listeners.get(i);
+			if (registered == listener) {
+				_listeners.remove(i);
+				return;
+			}
+			if (registered instanceof ListenerQueue && ((ListenerQueue)registered).target() == listener) {
+				_listeners.remove(i);
+				((ListenerQueue)registered).close();
+				return;
+			}
+		}
+	}
+	
+	/*
+	 * Returns the number of ticks performed by clock().
+	 */
+	long tick() {
+		return _tick;
+	}
+	
+	/*
+	 * Brings the world positions of every Shape up to date after the model
+	 * has been populated directly through CarrierShape.add() (see 
+	 * SceneSnapshot), and sets the number of ticks performed. No event is 
+	 * fired.
+	 */
+	void restored(long tick) {
+		_store.updateWorld();
+		updateIndex();
+		_tick = tick;
+	}
+	
+	/*
+	 * Computes the world positions of a newly added Shape and its children, 
+	 * so that their movement is accounted for by the next clock() call.
+	 */
+	private void resolveWorld(Shape shape) {
+		if (shape._store == _store) {
+			_store.resolveWorld(shape._slot);
+			if (_index != null) {
+				_index.update(shape._slot);
+			}
+			if (shape instanceof CarrierShape) {
+				CarrierShape carrier = (CarrierShape)shape;
+				for (int i = 0; i < carrier.shapeCount(); i++) {
+					resolveWorld(carrier.shapeAt(i));
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Returns true if shape is painted after other, where both are distinct 
+	 * Shapes of this model.
+	 */
+	private static boolean paintsAfter(Shape shape, Shape other) {
+		List<Shape> path = shape.path();
+		List<Shape> otherPath = other.path();
+		
+		// Skip the ancestors that the two Shapes have in common.
+		int depth = 0;
+		while (depth < path.size() && depth < otherPath.size() 
+				&& path.get(depth) == otherPath.get(depth)) {
+			depth++;
+		}
+		
+		if (depth == path.size()) {
+			// shape is an ancestor of other.
+			return false;
+		} 
+		if (depth == otherPath.size()) {
+			// other is an ancestor of shape.
+			return true;
+		}
+		CarrierShape parent = (CarrierShape) path.get(depth - 1);
+		return parent.indexOf(path.get(depth)) > parent.indexOf(otherPath.get(depth));
+	}
+	
+	/*
+	 * Publishes a Frame of the current state, if frame capture is enabled.
+	 */
+	private void publishFrame() {
+		FrameBuffer frames = _frames;
+		if (frames != null) {
+			frames.publish(_root, _tick);
+		}
+	}
+	
+	/*
+	 * Fires a ShapesCollided event for any new collisions between sibling 
+	 * Shapes, if collision detection is enabled.
+	 */
+	private void fireCollisions() {
+		if (_collisionDetection) {
+			List<Shape> collided = new ArrayList<Shape>();
+			for (int slot = 0; slot < _store.size(); slot++) {
+				if ((_store._flags[slot] & ShapeStore.CARRIER) != 0) {
+					CarrierShape carrier = (CarrierShape)_store._shapes[slot];
+					if (carrier._sweep == null) {
+						carrier._sweep = new SweepAndPrune(carrier);
+					}
+					carrier._sweep.detect(collided);
+				}
+			}
+			
+			if (!collided.isEmpty()) {
+				fire(ShapeModelEvent.makeShapesCollidedEvent(collided, this));
+			}
+		}
+	}
+	
+	/*
+	 * Returns the spatial index, building it if necessary.
+	 */
+	private SpatialIndex index() {
+		if (_index == null) {
+			_index = new SpatialIndex(_store, _bounds.width, _bounds.height, _cellSize);
+			_store._index = _index;
+			_index.updateAll();
+		}
+		return _index;
+	}
+	
+	/*
+	 * Re-files the Shapes that have moved into different cells of the 
+	 * spatial index, if it has been built.
+	 */
+	private void updateIndex() {
+		if (_index != null) {
+			_index.updateAll();
+		}
 	}
 	
 	/*
@@ -1,17 +1,30 @@
 package spaceshapes;
 
+import java.awt.Rectangle;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Class to describe a change to the state of a ShapeModel object. An instance
  * of ShapeModelEvent is sent in a notification message (an update() call) by a
  * ShapeModel when communicating updates to its ShapeModelListeners.
  * 
+ * ShapesAdded and ShapesRemoved events describe a batch of Shapes added to,
+ * or removed from, a single CarrierShape in one operation. The batch is 
+ * described by operands() and indices(); for these events operand() and
+ * index() return null and -1 respectively.
+ * 
+ * A ShapesCollided event reports the pairs of sibling Shapes that have begun
+ * to overlap. operands() lists the two Shapes of each pair in turn, and 
+ * parent(), operand() and dirtyRegion() return null.
+ * 
  * @author Paramvir Singh (Original Author - Ian Warren)
  *
  */
 public class ShapeModelEvent {
 
 	// Set of event types.
-	public enum EventType {ShapeAdded, ShapeRemoved, ShapeMoved};
+	public enum EventType {ShapeAdded, ShapeRemoved, ShapeMoved, ShapesAdded, ShapesRemoved, ShapesCollided};
 	
 	private EventType _type;      // Type of event.
 	private Shape _operand;       // Shape to which the event relates.
@@ -21,6 +34,10 @@ public class ShapeModelEvent {
 	private CarrierShape _parent; // Parent CarrierShape of fOperand; for 
 	                              // ShapeRemoved events this is the former 
 	                              // parent of fOperand.
+	private Rectangle _dirtyRegion; // Area of the world whose appearance has
+	                                // changed, null if nothing changed.
+	private List<Shape> _operands;  // Shapes to which the event relates.
+	private int[] _indices;         // Index of each operand within its parent.
 	                    
 	/**
 	 * Creates a ShapeAdded ShapeModelEvent.
@@ -32,7 +49,8 @@ public class ShapeModelEvent {
 		CarrierShape parent = shapeAdded.parent();
 		int index = parent.indexOf(shapeAdded);
 		
-		return new ShapeModelEvent(EventType.ShapeAdded, shapeAdded, parent, index, source);
+		return new ShapeModelEvent(EventType.ShapeAdded, shapeAdded, parent, index, source,
+				worldBounds(shapeAdded, parent));
 	}
 	
 	
@@ -48,8 +66,51 @@ public class ShapeModelEvent {
 	public static ShapeModelEvent makeShapeRemovedEvent(
 			Shape shapeRemoved, CarrierShape formerParent, int index, ShapeModel source) {
 		return new ShapeModelEvent(
-				EventType.ShapeRemoved, shapeRemoved, formerParent, index, source);
-		
+				EventType.ShapeRemoved, shapeRemoved, formerParent, index, source,
+				worldBounds(shapeRemoved, formerParent));
+	}
+	
+	/**
+	 * Creates a ShapesAdded ShapeModelEvent.
+	 * @param shapesAdded the Shapes that have been added to a ShapeModel, in
+	 * ascending order of their index positions.
+	 * @param parent the CarrierShape to which the Shapes were added.
+	 * @param indices the index position of each added Shape within parent.
+	 * @param source the ShapeModel object that fires the event.
+	 */
+	public static ShapeModelEvent makeShapesAddedEvent(
+			List<Shape> shapesAdded, CarrierShape parent, int[] indices, ShapeModel source) {
+		return new ShapeModelEvent(EventType.ShapesAdded, shapesAdded, parent, indices, source);
+	}
+	
+	/**
+	 * Creates a ShapesRemoved ShapeModelEvent.
+	 * @param shapesRemoved the Shapes that have been removed from a 
+	 * ShapeModel, in ascending order of their former index positions.
+	 * @param formerParent the former parent of the removed Shapes.
+	 * @param indices the index position that each removed Shape used to be
+	 * stored at within formerParent.
+	 * @param source the ShapeModel object that fires the event.
+	 */
+	public static ShapeModelEvent makeShapesRemovedEvent(
+			List<Shape> shapesRemoved, CarrierShape formerParent, int[] indices, ShapeModel source) {
+		return new ShapeModelEvent(EventType.ShapesRemoved, shapesRemoved, formerParent, indices, source);
+	}
+	
+	/**
+	 * Creates a ShapesCollided ShapeModelEvent.
+	 * @param collided the Shapes that have collided, listed in pairs; both 
+	 * Shapes of a pair are children of the same CarrierShape.
+	 * @param source the ShapeModel object that fires the event.
+	 */
+	public static ShapeModelEvent makeShapesCollidedEvent(
+			List<Shape> collided, ShapeModel source) {
+		int[] indices = new int[collided.size()];
+		for(int i = 0; i < indices.length; i++) {
+			Shape shape = collided.get(i);
+			indices[i] = shape.parent().indexOf(shape);
+		}
+		return new ShapeModelEvent(EventType.ShapesCollided, collided, null, indices, source);
 	}
 	
 	/**
@@ -59,6 +120,19 @@ public class ShapeModelEvent {
 	 */
 	public static ShapeModelEvent makeShapeMovedEvent(
 			Shape shapeMoved, ShapeModel source) {
+		return makeShapeMovedEvent(shapeMoved, source, worldBounds(shapeMoved, shapeMoved.parent()));
+	}
+	
+	/**
+	 * Creates a ShapeMoved ShapeModelEvent. 
+	 * @param shapeMoved the Shape object that has moved.
+	 * @param source the ShapeModel object that fires the event.
+	 * @param dirtyRegion the area of the world, covering the old and new
+	 * positions of everything that moved, that needs to be repainted; null if
+	 * nothing changed.
+	 */
+	public static ShapeModelEvent makeShapeMovedEvent(
+			Shape shapeMoved, ShapeModel source, Rectangle dirtyRegion) {
 		CarrierShape parent = shapeMoved.parent();
 		int index = -1;
 		
@@ -66,23 +140,63 @@ public class ShapeModelEvent {
 			index = parent.indexOf(shapeMoved);
 		}
 		
-		return new ShapeModelEvent(EventType.ShapeMoved, shapeMoved, parent, index, source);
+		return new ShapeModelEvent(EventType.ShapeMoved, shapeMoved, parent, index, source, dirtyRegion);
 	}
 	
 	/*
 	 * Hidden constructor used by the static factory methods. 
 	 */
-	private ShapeModelEvent(EventType type, Shape operand, CarrierShape parent, int index, ShapeModel source) {
+	private ShapeModelEvent(EventType type, Shape operand, CarrierShape parent, int index, ShapeModel source, Rectangle dirtyRegion) {
 		_type = type;
 		_operand = operand;
 		_parent = parent;
 		_index = index;
 		_source = source;
+		_dirtyRegion = dirtyRegion;
+		_operands = Collections.singletonList(operand);
+		_indices = new int[] {index};
+	}
+	
+	/*
+	 * Hidden constructor used by the static factory methods for batch events.
+	 */
+	private ShapeModelEvent(EventType type, List<Shape> operands, CarrierShape parent, int[] indices, ShapeModel source) {
+		_type = type;
+		_operands = Collections.unmodifiableList(operands);
+		_parent = parent;
+		_indices = indices;
+		_index = -1;
+		_source = source;
+		
+		if(parent != null && !operands.isEmpty()) {
+			// Offset the union of the operands' bounds by the parent's world position.
+			Rectangle origin = worldBounds(parent, parent.parent());
+			for(Shape operand : operands) {
+				Rectangle bounds = new Rectangle(operand.x(), operand.y(), operand.width() + 1, operand.height() + 1);
+				_dirtyRegion = (_dirtyRegion == null) ? bounds : _dirtyRegion.union(bounds);
+			}
+			_dirtyRegion.translate(origin.x, origin.y);
+		}
+	}
+	
+	/*
+	 * Returns the area painted by shape, in world coordinates, where parent
+	 * is the CarrierShape that contains (or contained) shape.
+	 */
+	private static Rectangle worldBounds(Shape shape, CarrierShape parent) {
+		int x = shape.x();
+		int y = shape.y();
+		
+		for(CarrierShape ancestor = parent; ancestor != null; ancestor = ancestor.parent()) {
+			x += ancestor.x();
+			y += ancestor.y();
+		}
+		return new Rectangle(x, y, shape.width() + 1, shape.height() + 1);
 	}
 	
 	/**
 	 * Returns the type of the event, one of ShapeAdded, ShapeRemoved, 
-	 * ShapeMoved.
+	 * ShapeMoved, ShapesAdded, ShapesRemoved, ShapesCollided.
 	 */
 	public EventType eventType() {
 		return _type;
@@ -123,4 +237,34 @@ public class ShapeModelEvent {
 	public int index() {
 		return _index;
 	}
+	
+	/**
+	 * Returns the Shapes to which this ShapeModelEvent applies. For events 
+	 * other than ShapesAdded, ShapesRemoved and ShapesCollided, this is a 
+	 * list containing only operand().
+	 */
+	public List<Shape> operands() {
+		return _operands;
+	}
+	
+	/**
+	 * Returns the index position of each Shape returned by operands() within
+	 * its (former) parent, in ascending order except for ShapesCollided 
+	 * events. For other events, this is an array containing only index().
+	 */
+	public int[] indices() {
+		return _indices.clone();
+	}
+	
+	/**
+	 * Returns the area of the world, in the coordinate space of the root
+	 * CarrierShape, whose appearance has changed as a result of this event.
+	 * For ShapeAdded and ShapeRemoved events this is the area painted by the
+	 * operand. For ShapeMoved events it covers the old and new positions of 
+	 * every Shape that moved; null is returned if nothing changed. Note that
+	 * a Shape's text may be painted beyond the returned area.
+	 */
+	public Rectangle dirtyRegion() {
+		return _dirtyRegion;
+	}
 }
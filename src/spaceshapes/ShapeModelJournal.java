@@ -0,0 +1,721 @@
+package spaceshapes;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * ShapeModelListener that records the changes made to a ShapeModel in an
+ * append-only journal, so that the model can be rebuilt (see recover()) after
+ * the application has died.
+ *
+ * A journal directory holds snapshots of the model (see SceneSnapshot) and
+ * segments of the journal. Every record in the journal has a sequence number;
+ * a snapshot holds the state of the model before the record whose number
+ * appears in the snapshot's name, and a segment holds consecutive records
+ * starting with the one whose number appears in its name. Records describe:
+ * <ul>
+ * <li>Shapes added, with every parameter needed to construct them (including
+ * any Shapes they carry), and the path to their parent;</li>
+ * <li>Shapes removed, by their index positions within their parent;</li>
+ * <li>clock markers, giving the number of ticks the model has performed.</li>
+ * </ul>
+ * Each record also holds the model's tick count at the time, so replaying
+ * the records in order, clocking the model as necessary, reproduces the
+ * model's history. Clock markers are recorded only every markerInterval
+ * ticks, so a recovered model may be up to markerInterval ticks behind.
+ *
+ * The state needed for a record is captured while the ShapeModel notifies
+ * the journal, which for clock() means only comparing tick counts; the
+ * record is encoded there and then, but written by a dedicated writer
+ * thread. The writer appends every record queued when it wakes with a
+ * single write and forces them to the device together (group commit).
+ * Segments are pre-allocated, zero-filled, to their full size on creation,
+ * so appending to a segment never extends the file.
+ *
+ * A journal is started with start(), which writes a snapshot of the model and
+ * registers the journal as a listener. checkpoint() writes a fresh snapshot,
+ * after which the older snapshots and segments are deleted. All methods,
+ * like the model's own, must be called on the thread that changes the model.
+ * Only Shapes that SceneSnapshot can save may be journaled.
+ *
+ * Once the writer has failed, the journal records nothing more. The events it
+ * receives are ignored, so the model and its other listeners carry on
+ * unaffected; failure() returns the cause, and checkpoint() and close() throw
+ * an IOException.
+ *
+ */
+public final class ShapeModelJournal implements ShapeModelListener {
+	// Default size, in bytes, of each segment.
+	public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+	// Default number of ticks between clock markers.
+	public static final int DEFAULT_MARKER_INTERVAL = 60;
+
+	// === Record types. ===
+	private static final byte ADDED = 1;
+
+	private static final byte REMOVED = 2;
+
+	private static final byte CLOCK = 3;
+	// ===
+
+	// Length and checksum preceding each record in a segment.
+	private static final int HEADER_SIZE = 8;
+
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+	private static final String SNAPSHOT_SUFFIX = ".snap";
+
+	private static final String SEGMENT_PREFIX = "journal-";
+
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private final ShapeModel _model;
+
+	private final File _directory;
+
+	private final int _segmentSize;
+
+	private final int _markerInterval;
+
+	// Sequence number of the next record.
+	private long _sequence;
+
+	// Tick count recorded by the most recent record.
+	private long _recordedTick;
+
+	// Work for the writer: Entries, in sequence order.
+	private final BlockingQueue<Entry> _queue = new LinkedBlockingQueue<Entry>();
+
+	private final ExecutorService _writer;
+
+	// First failure of the writer, or null.
+	private volatile IOException _failure;
+
+	// === State of the writer thread. ===
+	private FileChannel _channel;
+
+	// Position at which the next record is written, and the segment's size.
+	private long _position;
+
+	private long _capacity;
+	// ===
+
+	private ShapeModelJournal(ShapeModel model, File directory, int segmentSize, int markerInterval, long sequence) {
+		_model = model;
+		_directory = directory;
+		_segmentSize = segmentSize;
+		_markerInterval = markerInterval;
+		_sequence = sequence;
+		_recordedTick = model.tick();
+		_writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ShapeModelJournal");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		_writer.execute(new Runnable() {
+			public void run() {
+				write();
+			}
+		});
+	}
+
+	/**
+	 * Starts journaling model in directory, with default segment size and
+	 * marker interval.
+	 * @see start(ShapeModel, File, int, int)
+	 */
+	public static ShapeModelJournal start(ShapeModel model, File directory) throws IOException {
+		return start(model, directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MARKER_INTERVAL);
+	}
+
+	/**
+	 * Starts journaling model in directory, which must exist. A snapshot of
+	 * model is written, any earlier content of the directory is deleted and
+	 * the journal is registered as a listener of model.
+	 * @param segmentSize the size of each segment in bytes; a segment is made
+	 * larger if a single record would not fit.
+	 * @param markerInterval the number of ticks between clock markers.
+	 * @throws IllegalArgumentException if segmentSize or markerInterval is
+	 * less than 1, or model holds a Shape that SceneSnapshot cannot save.
+	 */
+	public static ShapeModelJournal start(ShapeModel model, File directory, int segmentSize, int markerInterval)
+			throws IOException {
+		if (segmentSize < 1 || markerInterval < 1) {
+			throw new IllegalArgumentException();
+		}
+		ShapeModelJournal journal = new ShapeModelJournal(model, directory, segmentSize, markerInterval,
+				nextSequence(directory));
+		try {
+			journal.checkpoint();
+		} catch (IOException e) {
+			journal._writer.shutdownNow();
+			throw e;
+		} catch (RuntimeException e) {
+			journal._writer.shutdownNow();
+			throw e;
+		}
+		model.addShapeModelListener(journal);
+		return journal;
+	}
+
+	/**
+	 * Rebuilds the ShapeModel journaled in directory from its latest snapshot
+	 * and the records that follow it. Replay stops at the first record that
+	 * is incomplete or damaged.
+	 * @return the recovered model, or null if directory holds no snapshot.
+	 * @throws IOException if the snapshot cannot be read or a record cannot
+	 * be applied.
+	 */
+	public static ShapeModel recover(File directory) throws IOException {
+		long[] snapshots = sequences(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+		if (snapshots.length == 0) {
+			return null;
+		}
+		long expected = snapshots[snapshots.length - 1];
+		ShapeModel model = SceneSnapshot.read(new File(directory, name(SNAPSHOT_PREFIX, expected, SNAPSHOT_SUFFIX)));
+		Map<String, Constructor<? extends Shape>> constructors = new HashMap<String, Constructor<? extends Shape>>();
+
+		for (long first : sequences(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+			for (byte[] record : records(new File(directory, name(SEGMENT_PREFIX, first, SEGMENT_SUFFIX)))) {
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+				long sequence = in.readLong();
+				if (sequence < expected) {
+					continue;
+				}
+				if (sequence > expected) {
+					// Records are missing.
+					return model;
+				}
+				apply(model, in, constructors);
+				expected++;
+			}
+		}
+		return model;
+	}
+
+	/**
+	 * Writes a snapshot of the model, and then deletes the snapshots and
+	 * segments it supersedes.
+	 * @throws IllegalArgumentException if the model holds a Shape that
+	 * SceneSnapshot cannot save.
+	 * @throws IOException if the snapshot cannot be written or the journal
+	 * has failed.
+	 */
+	public void checkpoint() throws IOException {
+		checkFailure();
+		File file = new File(_directory, name(SNAPSHOT_PREFIX, _sequence, SNAPSHOT_SUFFIX));
+		File temporary = new File(_directory, file.getName() + ".tmp");
+		SceneSnapshot.write(_model, temporary);
+		FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE);
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		_queue.add(new Entry(_sequence, null));
+	}
+
+	/**
+	 * Stops journaling: the journal is removed as a listener, a final clock
+	 * marker is recorded and the writer waits for every record to reach the
+	 * device.
+	 * @throws IOException if the journal has failed.
+	 */
+	public void close() throws IOException, InterruptedException {
+		_model.removeShapeModelListener(this);
+		if (_model.tick() != _recordedTick && _failure == null) {
+			record(CLOCK, _model.tick(), new ByteArrayOutputStream());
+		}
+		_queue.add(new Entry(-1, null));
+		_writer.shutdown();
+		_writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		checkFailure();
+	}
+
+	/**
+	 * Returns the failure that stopped the journal's writer, or null if it
+	 * has not failed. Once it has failed, changes to the model are no longer
+	 * journaled.
+	 */
+	public IOException failure() {
+		return _failure;
+	}
+
+	/**
+	 * Records event. Events fired by clock() are recorded only when a clock
+	 * marker is due. Events are ignored once the journal has failed (see
+	 * failure()).
+	 */
+	public void update(ShapeModelEvent event) {
+		if (_failure != null) {
+			return;
+		}
+		long tick = _model.tick();
+		try {
+			switch (event.eventType()) {
+			case ShapeMoved:
+				if (tick - _recordedTick >= _markerInterval) {
+					record(CLOCK, tick, new ByteArrayOutputStream());
+				}
+				break;
+			case ShapeAdded:
+				recordAdded(tick, event.parent(), Arrays.asList(event.operand()));
+				break;
+			case ShapesAdded:
+				recordAdded(tick, event.parent(), event.operands());
+				break;
+			case ShapeRemoved:
+				recordRemoved(tick, event.parent(), new int[] {event.index()});
+				break;
+			case ShapesRemoved:
+				recordRemoved(tick, event.parent(), event.indices());
+				break;
+			default:
+				break;
+			}
+		} catch (IOException e) {
+			// Writing to a ByteArrayOutputStream does not fail.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/*
+	 * Records the addition of shapes to parent, with the Shapes they carry
+	 * listed breadth first after them.
+	 */
+	private void recordAdded(long tick, CarrierShape parent, List<Shape> shapes) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		writePath(out, parent);
+
+		ShapeListing listed = new ShapeListing(shapes);
+		out.writeInt(listed.size());
+		for (int i = 0; i < listed.size(); i++) {
+			Shape shape = listed.shape(i);
+			out.writeInt(listed.parent(i));
+			out.writeUTF(shape.getClass().getName());
+			out.writeInt(shape.x());
+			out.writeInt(shape.y());
+			out.writeInt(shape.deltaX());
+			out.writeInt(shape.deltaY());
+			out.writeInt(shape.width());
+			out.writeInt(shape.height());
+			out.writeBoolean(shape.shouldFill());
+			out.writeBoolean(shape._text != null);
+			if (shape._text != null) {
+				out.writeUTF(shape._text);
+			}
+			out.writeBoolean(shape instanceof DynamicShape);
+			if (shape instanceof DynamicShape) {
+				out.writeInt(((DynamicShape) shape).colour().getRGB());
+			}
+		}
+		out.flush();
+		record(ADDED, tick, bytes);
+	}
+
+	/*
+	 * Records the removal of the Shapes formerly at the specified index
+	 * positions within parent.
+	 */
+	private void recordRemoved(long tick, CarrierShape parent, int[] indices) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		writePath(out, parent);
+		out.writeInt(indices.length);
+		for (int index : indices) {
+			out.writeInt(index);
+		}
+		out.flush();
+		record(REMOVED, tick, bytes);
+	}
+
+	/*
+	 * Writes the index positions leading from the root CarrierShape to
+	 * carrier.
+	 */
+	private static void writePath(DataOutputStream out, CarrierShape carrier) throws IOException {
+		List<Integer> path = new ArrayList<Integer>();
+		for (Shape shape = carrier; shape._parent != null; shape = shape._parent) {
+			path.add(shape._parent.indexOf(shape));
+		}
+		out.writeInt(path.size());
+		for (int i = path.size() - 1; i >= 0; i--) {
+			out.writeInt(path.get(i));
+		}
+	}
+
+	/*
+	 * Queues a record of the specified type, whose body is held in body, for
+	 * the writer.
+	 */
+	private void record(byte type, long tick, ByteArrayOutputStream body) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(17 + body.size());
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(_sequence);
+		out.writeByte(type);
+		out.writeLong(tick);
+		body.writeTo(out);
+		out.flush();
+		_queue.add(new Entry(_sequence++, bytes.toByteArray()));
+		_recordedTick = tick;
+	}
+
+	/*
+	 * Applies the record read by in to model.
+	 */
+	private static void apply(ShapeModel model, DataInputStream in,
+			Map<String, Constructor<? extends Shape>> constructors) throws IOException {
+		byte type = in.readByte();
+		long tick = in.readLong();
+		if (tick > model.tick()) {
+			model.clock(tick - model.tick());
+		}
+		if (type == CLOCK) {
+			return;
+		}
+
+		CarrierShape parent = model.root();
+		for (int depth = in.readInt(); depth > 0; depth--) {
+			int index = in.readInt();
+			if (index < 0 || index >= parent.shapeCount() || !(parent.shapeAt(index) instanceof CarrierShape)) {
+				throw new IOException("Journal refers to a missing CarrierShape");
+			}
+			parent = (CarrierShape) parent.shapeAt(index);
+		}
+
+		int count = in.readInt();
+		List<Shape> shapes = new ArrayList<Shape>();
+		if (type == ADDED) {
+			Shape[] listed = new Shape[count];
+			for (int i = 0; i < count; i++) {
+				int carrier = in.readInt();
+				String name = in.readUTF();
+				Constructor<? extends Shape> constructor = constructors.get(name);
+				if (constructor == null) {
+					try {
+						constructor = SceneSnapshot.constructor(Class.forName(name).asSubclass(Shape.class));
+					} catch (ClassNotFoundException e) {
+						throw new IOException("Shape class " + name + " not found", e);
+					} catch (RuntimeException e) {
+						throw new IOException(name + " cannot be constructed", e);
+					}
+					constructors.put(name, constructor);
+				}
+				int x = in.readInt();
+				int y = in.readInt();
+				int deltaX = in.readInt();
+				int deltaY = in.readInt();
+				int width = in.readInt();
+				int height = in.readInt();
+				boolean fill = in.readBoolean();
+				String text = in.readBoolean() ? in.readUTF() : null;
+				Shape shape = SceneSnapshot.newShape(constructor, x, y, deltaX, deltaY, width, height, text);
+				if (fill) {
+					shape._store._flags[shape._slot] |= ShapeStore.FILL;
+				}
+				if (in.readBoolean() && shape instanceof DynamicShape) {
+					((DynamicShape) shape).setColour(new Color(in.readInt(), true));
+				}
+
+				if (carrier == -1) {
+					shapes.add(shape);
+				} else if (carrier < 0 || carrier >= i || !(listed[carrier] instanceof CarrierShape)) {
+					throw new IOException("Journal is corrupt");
+				} else {
+					try {
+						((CarrierShape) listed[carrier]).add(shape);
+					} catch (IllegalArgumentException e) {
+						throw new IOException("Journal is corrupt", e);
+					}
+				}
+				listed[i] = shape;
+			}
+			if (!model.addAll(shapes, parent)) {
+				throw new IOException("Journaled Shapes cannot be added");
+			}
+		} else if (type == REMOVED) {
+			for (int i = 0; i < count; i++) {
+				int index = in.readInt();
+				if (index < 0 || index >= parent.shapeCount()) {
+					throw new IOException("Journal refers to a missing Shape");
+				}
+				shapes.add(parent.shapeAt(index));
+			}
+			if (!model.removeAll(shapes, parent)) {
+				throw new IOException("Journaled Shapes cannot be removed");
+			}
+		} else {
+			throw new IOException("Journal is corrupt");
+		}
+	}
+
+	/*
+	 * Body of the writer thread: appends queued records to the current
+	 * segment in batches, forcing each batch to the device, until told to
+	 * stop.
+	 */
+	private void write() {
+		List<Entry> batch = new ArrayList<Entry>();
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		CRC32 crc = new CRC32();
+
+		try {
+			while (true) {
+				batch.add(_queue.take());
+				_queue.drainTo(batch);
+
+				for (Entry entry : batch) {
+					if (_failure != null) {
+						if (entry._sequence == -1 && entry._bytes == null) {
+							return;
+						}
+						continue;
+					}
+					try {
+						if (entry._bytes == null) {
+							buffer = flush(buffer);
+							if (entry._sequence == -1) {
+								closeSegment();
+								return;
+							}
+							startSegment(entry._sequence, 0);
+							deleteBefore(entry._sequence);
+							continue;
+						}
+
+						int size = HEADER_SIZE + entry._bytes.length;
+						if (_position + buffer.position() + size > _capacity) {
+							buffer = flush(buffer);
+							startSegment(entry._sequence, size);
+						}
+						if (buffer.remaining() < size) {
+							buffer = flush(buffer);
+							if (buffer.capacity() < size) {
+								buffer = ByteBuffer.allocate(size);
+							}
+						}
+						crc.reset();
+						crc.update(entry._bytes, 0, entry._bytes.length);
+						buffer.putInt(entry._bytes.length);
+						buffer.putInt((int) crc.getValue());
+						buffer.put(entry._bytes);
+					} catch (IOException e) {
+						_failure = e;
+					}
+				}
+				if (_failure == null) {
+					try {
+						buffer = flush(buffer);
+						_channel.force(false);
+					} catch (IOException e) {
+						_failure = e;
+					}
+				}
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			// Journal abandoned.
+		} finally {
+			try {
+				closeSegment();
+			} catch (IOException e) {
+				if (_failure == null) {
+					_failure = e;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Writes the contents of buffer at the current position of the segment,
+	 * and returns buffer cleared.
+	 */
+	private ByteBuffer flush(ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			_position += _channel.write(buffer, _position);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/*
+	 * Closes the current segment, if any, and creates a new, zero-filled
+	 * segment whose first record is sequence and which can hold at least
+	 * size bytes.
+	 */
+	private void startSegment(long sequence, int size) throws IOException {
+		closeSegment();
+		File file = new File(_directory, name(SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+		_channel = new RandomAccessFile(file, "rw").getChannel();
+		_channel.truncate(0);
+		_capacity = Math.max(_segmentSize, size + HEADER_SIZE);
+		ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(_capacity, 64 * 1024));
+		for (long position = 0; position < _capacity; ) {
+			zeros.clear();
+			zeros.limit((int) Math.min(zeros.capacity(), _capacity - position));
+			position += _channel.write(zeros, position);
+		}
+		_channel.force(true);
+		_position = 0;
+	}
+
+	private void closeSegment() throws IOException {
+		if (_channel != null) {
+			_channel.force(false);
+			_channel.close();
+			_channel = null;
+		}
+	}
+
+	/*
+	 * Deletes the snapshots and segments that precede the snapshot holding
+	 * the state before record sequence.
+	 */
+	private void deleteBefore(long sequence) {
+		for (long earlier : sequences(_directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+			if (earlier < sequence) {
+				new File(_directory, name(SNAPSHOT_PREFIX, earlier, SNAPSHOT_SUFFIX)).delete();
+			}
+		}
+		for (long earlier : sequences(_directory, SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+			if (earlier < sequence) {
+				new File(_directory, name(SEGMENT_PREFIX, earlier, SEGMENT_SUFFIX)).delete();
+			}
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		IOException failure = _failure;
+		if (failure != null) {
+			throw new IOException("Journal failed", failure);
+		}
+	}
+
+	/*
+	 * Returns the sequence number following every record and snapshot held
+	 * in directory.
+	 */
+	private static long nextSequence(File directory) throws IOException {
+		long next = 0;
+		for (long sequence : sequences(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+			next = Math.max(next, sequence + 1);
+		}
+		for (long first : sequences(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+			next = Math.max(next, first + 1);
+			List<byte[]> records = records(new File(directory, name(SEGMENT_PREFIX, first, SEGMENT_SUFFIX)));
+			if (!records.isEmpty()) {
+				byte[] last = records.get(records.size() - 1);
+				next = Math.max(next, ByteBuffer.wrap(last).getLong() + 1);
+			}
+		}
+		return next;
+	}
+
+	/*
+	 * Returns the intact records held in a segment, in order.
+	 */
+	private static List<byte[]> records(File segment) throws IOException {
+		List<byte[]> records = new ArrayList<byte[]>();
+		FileInputStream in = new FileInputStream(segment);
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			CRC32 crc = new CRC32();
+			while (buffer.remaining() >= HEADER_SIZE) {
+				int length = buffer.getInt();
+				int checksum = buffer.getInt();
+				if (length <= 0 || length > buffer.remaining()) {
+					break;
+				}
+				byte[] record = new byte[length];
+				buffer.get(record);
+				crc.reset();
+				crc.update(record, 0, length);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				records.add(record);
+			}
+		} finally {
+			in.close();
+		}
+		return records;
+	}
+
+	/*
+	 * Returns, in ascending order, the sequence numbers of the files in
+	 * directory named with prefix and suffix.
+	 */
+	private static long[] sequences(File directory, String prefix, String suffix) {
+		List<Long> sequences = new ArrayList<Long>();
+		String[] names = directory.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.startsWith(prefix) && name.endsWith(suffix)) {
+					try {
+						sequences.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+					} catch (NumberFormatException e) {
+						// Not a journal file.
+					}
+				}
+			}
+		}
+		long[] result = new long[sequences.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = sequences.get(i);
+		}
+		Arrays.sort(result);
+		return result;
+	}
+
+	private static String name(String prefix, long sequence, String suffix) {
+		return String.format("%s%016d%s", prefix, sequence, suffix);
+	}
+
+	/*
+	 * Work for the writer: a record, or (with null bytes) an instruction to
+	 * start a segment at a checkpoint or, for sequence -1, to stop.
+	 */
+	private static final class Entry {
+		private final long _sequence;
+
+		private final byte[] _bytes;
+
+		Entry(long sequence, byte[] bytes) {
+			_sequence = sequence;
+			_bytes = bytes;
+		}
+	}
+}
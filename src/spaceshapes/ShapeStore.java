@@ -0,0 +1,589 @@
+package spaceshapes;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Structure-of-arrays storage for the movement state of Shape instances.
+ * Rather than each Shape holding its own position, velocity and size fields,
+ * a ShapeStore keeps one primitive column per attribute and each Shape is a
+ * thin view that refers to a slot (row) within these columns. Slots are kept
+ * dense: when a slot is released, the last occupied slot is moved into the
+ * gap so that the columns never contain holes.
+ *
+ * A ShapeModel owns the ShapeStore that holds every Shape in its composition
+ * hierarchy, allowing the model to advance the whole animation with a single
+ * tight loop over contiguous arrays (see moveAll()). Shapes that are not part
+ * of a hierarchy (e.g. newly constructed Shapes) live in a small private store
+ * of their own; their state is transferred when they are added to a
+ * CarrierShape.
+ *
+ * Because every Shape's movement depends only on its own state and on the
+ * (fixed) size of its parent, the order in which slots are processed has no
+ * effect on the outcome of a move.
+ */
+final class ShapeStore {
+	// === Flag bits held in the _flags column. ===
+
+	// Slot belongs to a CarrierShape; carriers never change their fill state.
+	static final byte CARRIER = 1;
+
+	// Shape should be painted filled (see DynamicShape).
+	static final byte FILL = 2;
+	// ===
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	// === Attribute columns, indexed by slot. ===
+	int[] _x;
+
+	int[] _y;
+
+	int[] _deltaX;
+
+	int[] _deltaY;
+
+	int[] _width;
+
+	int[] _height;
+
+	// Size of the region that the Shape in each slot bounces within, i.e.
+	// the width and height of its parent (or of the ShapeModel for the root).
+	int[] _boundWidth;
+
+	int[] _boundHeight;
+
+	byte[] _flags;
+
+	// Slot of each Shape's parent, or -1 if its parent is not in this store.
+	int[] _parentSlot;
+
+	// Shape that acts as the view of each slot.
+	Shape[] _shapes;
+	// ===
+
+	// Spatial index kept informed of released slots, or null.
+	SpatialIndex _index;
+
+	// === World-space state, recomputed by updateWorld(). ===
+
+	// Position of each Shape relative to the root of the hierarchy.
+	int[] _worldX;
+
+	int[] _worldY;
+
+	// Flags of each Shape when its world position was last computed.
+	byte[] _worldFlags;
+
+	// Pass in which each slot's world state was last computed.
+	int[] _worldPass;
+
+	// Number of the most recent world pass; slots never resolved hold 0.
+	private int _pass = 1;
+
+	// Extent of the area dirtied during the current world pass.
+	private int _dirtyMinX;
+
+	private int _dirtyMinY;
+
+	private int _dirtyMaxX;
+
+	private int _dirtyMaxY;
+
+	// Scratch stack used to resolve ancestors during a world pass.
+	private int[] _ancestors = new int[16];
+	// ===
+
+	// Number of occupied slots.
+	int _size;
+
+	/**
+	 * Creates an empty ShapeStore with a default initial capacity.
+	 */
+	ShapeStore() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty ShapeStore able to hold capacity Shapes before its
+	 * columns need to grow.
+	 */
+	ShapeStore(int capacity) {
+		capacity = Math.max(capacity, 1);
+		_x = new int[capacity];
+		_y = new int[capacity];
+		_deltaX = new int[capacity];
+		_deltaY = new int[capacity];
+		_width = new int[capacity];
+		_height = new int[capacity];
+		_boundWidth = new int[capacity];
+		_boundHeight = new int[capacity];
+		_flags = new byte[capacity];
+		_parentSlot = new int[capacity];
+		_shapes = new Shape[capacity];
+		_worldX = new int[capacity];
+		_worldY = new int[capacity];
+		_worldFlags = new byte[capacity];
+		_worldPass = new int[capacity];
+	}
+
+	/**
+	 * Returns the number of occupied slots.
+	 */
+	int size() {
+		return _size;
+	}
+
+	/**
+	 * Grows the columns, if necessary, so that capacity Shapes can be held
+	 * without further reallocation.
+	 */
+	void reserve(int capacity) {
+		ensureCapacity(capacity);
+	}
+
+	/**
+	 * Claims a new slot for shape, initialised with the specified state, and
+	 * returns the slot's index.
+	 */
+	int allocate(Shape shape, int x, int y, int deltaX, int deltaY, int width, int height, byte flags) {
+		ensureCapacity(_size + 1);
+		int slot = _size++;
+
+		_x[slot] = x;
+		_y[slot] = y;
+		_deltaX[slot] = deltaX;
+		_deltaY[slot] = deltaY;
+		_width[slot] = width;
+		_height[slot] = height;
+		_boundWidth[slot] = 0;
+		_boundHeight[slot] = 0;
+		_flags[slot] = flags;
+		_parentSlot[slot] = -1;
+		_shapes[slot] = shape;
+		_worldPass[slot] = 0;
+		return slot;
+	}
+
+	/**
+	 * Claims a new slot whose state is copied from slot source of store from,
+	 * setting the bounds the Shape moves within to boundWidth and boundHeight
+	 * and its parent's slot to parentSlot. Returns the new slot's index.
+	 */
+	int copy(ShapeStore from, int source, int boundWidth, int boundHeight, int parentSlot) {
+		int slot = allocate(from._shapes[source], from._x[source], from._y[source],
+				from._deltaX[source], from._deltaY[source], from._width[source],
+				from._height[source], from._flags[source]);
+		_boundWidth[slot] = boundWidth;
+		_boundHeight[slot] = boundHeight;
+		_parentSlot[slot] = parentSlot;
+		return slot;
+	}
+
+	/**
+	 * Frees the specified slot. To keep the columns dense, the Shape held in
+	 * the last slot is moved into the freed slot, and its view and the parent
+	 * slots of its children are updated. The spatial index, if any, is kept
+	 * in step.
+	 */
+	void release(int slot) {
+		int last = --_size;
+
+		if (_index != null) {
+			_index.remove(slot);
+		}
+
+		if (slot != last) {
+			_x[slot] = _x[last];
+			_y[slot] = _y[last];
+			_deltaX[slot] = _deltaX[last];
+			_deltaY[slot] = _deltaY[last];
+			_width[slot] = _width[last];
+			_height[slot] = _height[last];
+			_boundWidth[slot] = _boundWidth[last];
+			_boundHeight[slot] = _boundHeight[last];
+			_flags[slot] = _flags[last];
+			_parentSlot[slot] = _parentSlot[last];
+			_shapes[slot] = _shapes[last];
+			_worldX[slot] = _worldX[last];
+			_worldY[slot] = _worldY[last];
+			_worldFlags[slot] = _worldFlags[last];
+			_worldPass[slot] = _worldPass[last];
+			if (_index != null) {
+				_index.slotMoved(last, slot);
+			}
+
+			Shape moved = _shapes[slot];
+			moved._slot = slot;
+			if (moved instanceof CarrierShape) {
+				CarrierShape carrier = (CarrierShape) moved;
+				for (int i = 0; i < carrier.shapeCount(); i++) {
+					Shape child = carrier.shapeAt(i);
+					if (child._store == this) {
+						_parentSlot[child._slot] = slot;
+					}
+				}
+			}
+		}
+		_shapes[last] = null;
+	}
+
+	/**
+	 * Sets the width and height of the region the Shape in slot moves within
+	 * when the store is advanced by moveAll().
+	 */
+	void setBounds(int slot, int boundWidth, int boundHeight) {
+		_boundWidth[slot] = boundWidth;
+		_boundHeight[slot] = boundHeight;
+	}
+
+	/**
+	 * Sets the slot of the parent of the Shape held in slot.
+	 */
+	void setParentSlot(int slot, int parentSlot) {
+		_parentSlot[slot] = parentSlot;
+	}
+
+	/**
+	 * Recomputes the world position of every Shape held in this store, i.e.
+	 * its position once the positions of all its ancestors are applied.
+	 * Returns the smallest rectangle, in world coordinates, that covers the
+	 * previous and current area painted by every Shape that has moved (in
+	 * world terms) or changed its fill state since its world position was
+	 * last computed, or null if no such Shape exists. The painted area of a
+	 * Shape extends one pixel beyond its width and height, as outlines are
+	 * drawn on its right and bottom edges.
+	 */
+	Rectangle updateWorld() {
+		_pass++;
+		_dirtyMinX = Integer.MAX_VALUE;
+		_dirtyMinY = Integer.MAX_VALUE;
+		_dirtyMaxX = Integer.MIN_VALUE;
+		_dirtyMaxY = Integer.MIN_VALUE;
+
+		for (int i = 0; i < _size; i++) {
+			resolveWorld(i);
+		}
+
+		if (_dirtyMinX > _dirtyMaxX) {
+			return null;
+		}
+		return new Rectangle(_dirtyMinX, _dirtyMinY, _dirtyMaxX - _dirtyMinX, _dirtyMaxY - _dirtyMinY);
+	}
+
+	/**
+	 * Computes the world position of the Shape held in slot, and of any of
+	 * its ancestors whose world position is out of date. This is used to
+	 * bring newly added Shapes up to date between calls to updateWorld().
+	 */
+	void resolveWorld(int slot) {
+		if (_worldPass[slot] == _pass) {
+			return;
+		}
+
+		// Collect the slot and its ancestors whose world state is stale.
+		int depth = 0;
+		while (slot >= 0 && _worldPass[slot] != _pass) {
+			if (depth == _ancestors.length) {
+				_ancestors = Arrays.copyOf(_ancestors, depth * 2);
+			}
+			_ancestors[depth++] = slot;
+			slot = _parentSlot[slot];
+		}
+
+		int originX = (slot < 0) ? 0 : _worldX[slot];
+		int originY = (slot < 0) ? 0 : _worldY[slot];
+		while (depth > 0) {
+			slot = _ancestors[--depth];
+			int worldX = originX + _x[slot];
+			int worldY = originY + _y[slot];
+
+			if (_worldPass[slot] == _pass - 1
+					&& (worldX != _worldX[slot] || worldY != _worldY[slot] || _flags[slot] != _worldFlags[slot])) {
+				_dirtyMinX = Math.min(_dirtyMinX, Math.min(worldX, _worldX[slot]));
+				_dirtyMinY = Math.min(_dirtyMinY, Math.min(worldY, _worldY[slot]));
+				_dirtyMaxX = Math.max(_dirtyMaxX, Math.max(worldX, _worldX[slot]) + _width[slot] + 1);
+				_dirtyMaxY = Math.max(_dirtyMaxY, Math.max(worldY, _worldY[slot]) + _height[slot] + 1);
+			}
+
+			_worldX[slot] = worldX;
+			_worldY[slot] = worldY;
+			_worldFlags[slot] = _flags[slot];
+			_worldPass[slot] = _pass;
+			originX = worldX;
+			originY = worldY;
+		}
+	}
+
+	/**
+	 * Moves the Shape held in slot within the specified bounds. On hitting a
+	 * boundary the Shape bounces off and back into the two-dimensional world.
+	 */
+	void move(int slot, int width, int height) {
+		int nextX = _x[slot] + _deltaX[slot];
+		int nextY = _y[slot] + _deltaY[slot];
+		int flags = _flags[slot];
+
+		if (nextX <= 0) {
+			nextX = 0;
+			_deltaX[slot] = -_deltaX[slot];
+			flags |= FILL;
+		} else if (nextX + _width[slot] >= width) {
+			nextX = width - _width[slot];
+			_deltaX[slot] = -_deltaX[slot];
+			flags |= FILL;
+		}
+
+		if (nextY <= 0) {
+			nextY = 0;
+			_deltaY[slot] = -_deltaY[slot];
+			flags &= ~FILL;
+		} else if (nextY + _height[slot] >= height) {
+			nextY = height - _height[slot];
+			_deltaY[slot] = -_deltaY[slot];
+			flags &= ~FILL;
+		}
+
+		_x[slot] = nextX;
+		_y[slot] = nextY;
+		if ((flags & CARRIER) == 0) {
+			_flags[slot] = (byte) flags;
+		}
+	}
+
+	/**
+	 * Moves every Shape held in this store once, each within the bounds
+	 * recorded for its slot. The result is identical to invoking move() on
+	 * the root CarrierShape of the hierarchy held in the store.
+	 */
+	void moveAll() {
+		moveRange(0, _size);
+	}
+
+	/**
+	 * Moves every Shape held in this store once, splitting the slots into
+	 * ranges that are moved concurrently by the specified pool. Ranges of
+	 * threshold slots or fewer are moved sequentially by a single task. As
+	 * each slot is moved independently, the result is identical to that of
+	 * moveAll().
+	 */
+	void moveAll(ForkJoinPool pool, int threshold) {
+		if (_size <= threshold) {
+			moveRange(0, _size);
+		} else {
+			pool.invoke(new MoveTask(this, 0, _size, Math.max(threshold, 1)));
+		}
+	}
+
+	/**
+	 * Moves the Shapes held in slots [from, to) once, each within the bounds
+	 * recorded for its slot.
+	 */
+	void moveRange(int from, int to) {
+		final int[] xs = _x;
+		final int[] ys = _y;
+		final int[] dxs = _deltaX;
+		final int[] dys = _deltaY;
+		final int[] widths = _width;
+		final int[] heights = _height;
+		final int[] boundWidths = _boundWidth;
+		final int[] boundHeights = _boundHeight;
+		final byte[] flagColumn = _flags;
+
+		for (int i = from; i < to; i++) {
+			int deltaX = dxs[i];
+			int deltaY = dys[i];
+			int nextX = xs[i] + deltaX;
+			int nextY = ys[i] + deltaY;
+			int flags = flagColumn[i];
+
+			if (nextX <= 0) {
+				nextX = 0;
+				dxs[i] = -deltaX;
+				flags |= FILL;
+			} else if (nextX + widths[i] >= boundWidths[i]) {
+				nextX = boundWidths[i] - widths[i];
+				dxs[i] = -deltaX;
+				flags |= FILL;
+			}
+
+			if (nextY <= 0) {
+				nextY = 0;
+				dys[i] = -deltaY;
+				flags &= ~FILL;
+			} else if (nextY + heights[i] >= boundHeights[i]) {
+				nextY = boundHeights[i] - heights[i];
+				dys[i] = -deltaY;
+				flags &= ~FILL;
+			}
+
+			xs[i] = nextX;
+			ys[i] = nextY;
+			if ((flags & CARRIER) == 0) {
+				flagColumn[i] = (byte) flags;
+			}
+		}
+	}
+
+	/**
+	 * Moves every Shape held in this store on by the specified number of
+	 * ticks, leaving each in exactly the state it would have after ticks
+	 * calls to moveAll(). Rather than stepping tick by tick, the bounce
+	 * motion along each axis is advanced in closed form: once a Shape has
+	 * bounced off a wall it oscillates between its two walls with a fixed
+	 * period, so whole periods can be skipped.
+	 */
+	void moveAll(long ticks) {
+		for (int i = 0; i < _size; i++) {
+			int limitX = _boundWidth[i] - _width[i];
+			int limitY = _boundHeight[i] - _height[i];
+			long bounceX = advance(_x, _deltaX, i, limitX, ticks);
+			long bounceY = advance(_y, _deltaY, i, limitY, ticks);
+
+			// The fill state is set by the most recent bounce; a vertical
+			// bounce takes precedence within the same tick.
+			if ((_flags[i] & CARRIER) == 0 && (bounceX > 0 || bounceY > 0)) {
+				if (bounceY >= bounceX) {
+					_flags[i] &= ~FILL;
+				} else {
+					_flags[i] |= FILL;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Advances the position and velocity held in slot of the positions and
+	 * deltas columns along one axis by ticks ticks. The Shape may occupy
+	 * positions in the range [0, limit], where limit is the size of the
+	 * bounds less the size of the Shape. Returns the (1-based) tick at which
+	 * the Shape last bounced, or 0 if it did not bounce.
+	 */
+	private static long advance(int[] positions, int[] deltas, int slot, int limit, long ticks) {
+		long position = positions[slot];
+		long delta = deltas[slot];
+		long tick = 0;
+		long lastBounce = 0;
+
+		while (tick < ticks) {
+			if (delta == 0 && (position == 0 || (position == limit && limit > 0))) {
+				// A stationary Shape resting on a wall bounces on every tick.
+				lastBounce = ticks;
+				tick = ticks;
+			} else if (delta == 0 && position > 0 && position < limit) {
+				// A stationary Shape clear of the walls never moves.
+				tick = ticks;
+			} else if ((position == 0 && delta > 0) || (position == limit && delta < 0)) {
+				// On a wall and heading for the other: the motion is now
+				// periodic, taking halfPeriod ticks to cross between walls.
+				long speed = Math.abs(delta);
+				long halfPeriod = (limit <= 0) ? 1 : (limit + speed - 1) / speed;
+				long periods = (ticks - tick) / (2 * halfPeriod);
+				if (periods > 0) {
+					tick += periods * 2 * halfPeriod;
+					lastBounce = tick;
+				}
+				if (ticks - tick >= halfPeriod) {
+					tick += halfPeriod;
+					lastBounce = tick;
+					position = (delta > 0) ? limit : 0;
+					delta = -delta;
+				}
+				position += (ticks - tick) * delta;
+				tick = ticks;
+			} else if (delta != 0 && position >= 0 && position <= limit) {
+				// Inside the bounds: travel straight to the next wall.
+				long toWall;
+				if (delta > 0) {
+					toWall = (position + delta >= limit) ? 1 : (limit - position + delta - 1) / delta;
+				} else {
+					toWall = (position + delta <= 0) ? 1 : (position - delta - 1) / -delta;
+				}
+				if (tick + toWall > ticks) {
+					position += (ticks - tick) * delta;
+					tick = ticks;
+				} else {
+					tick += toWall;
+					lastBounce = tick;
+					position = (delta > 0) ? limit : 0;
+					delta = -delta;
+				}
+			} else {
+				// Outside the bounds: take a single step exactly as move() does.
+				long next = position + delta;
+				tick++;
+				if (next <= 0) {
+					next = 0;
+					delta = -delta;
+					lastBounce = tick;
+				} else if (next >= limit) {
+					next = limit;
+					delta = -delta;
+					lastBounce = tick;
+				}
+				position = next;
+			}
+		}
+
+		positions[slot] = (int) position;
+		deltas[slot] = (int) delta;
+		return lastBounce;
+	}
+
+	/*
+	 * Grows the columns, if necessary, so that they can hold at least
+	 * capacity slots.
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity > _shapes.length) {
+			int newCapacity = Math.max(capacity, _shapes.length * 2);
+			_x = Arrays.copyOf(_x, newCapacity);
+			_y = Arrays.copyOf(_y, newCapacity);
+			_deltaX = Arrays.copyOf(_deltaX, newCapacity);
+			_deltaY = Arrays.copyOf(_deltaY, newCapacity);
+			_width = Arrays.copyOf(_width, newCapacity);
+			_height = Arrays.copyOf(_height, newCapacity);
+			_boundWidth = Arrays.copyOf(_boundWidth, newCapacity);
+			_boundHeight = Arrays.copyOf(_boundHeight, newCapacity);
+			_flags = Arrays.copyOf(_flags, newCapacity);
+			_parentSlot = Arrays.copyOf(_parentSlot, newCapacity);
+			_shapes = Arrays.copyOf(_shapes, newCapacity);
+			_worldX = Arrays.copyOf(_worldX, newCapacity);
+			_worldY = Arrays.copyOf(_worldY, newCapacity);
+			_worldFlags = Arrays.copyOf(_worldFlags, newCapacity);
+			_worldPass = Arrays.copyOf(_worldPass, newCapacity);
+		}
+	}
+
+	/*
+	 * Fork/join task that moves a range of slots, recursively halving the
+	 * range until it is no larger than the threshold.
+	 */
+	@SuppressWarnings("serial")
+	private static class MoveTask extends RecursiveAction {
+		private final ShapeStore _store;
+		private final int _from;
+		private final int _to;
+		private final int _threshold;
+
+		MoveTask(ShapeStore store, int from, int to, int threshold) {
+			_store = store;
+			_from = from;
+			_to = to;
+			_threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (_to - _from <= _threshold) {
+				_store.moveRange(_from, _to);
+			} else {
+				int middle = (_from + _to) >>> 1;
+				invokeAll(new MoveTask(_store, _from, middle, _threshold),
+						new MoveTask(_store, middle, _to, _threshold));
+			}
+		}
+	}
+}
@@ -0,0 +1,292 @@
+package spaceshapes;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class to drive a ShapeModel at a fixed timestep on a dedicated thread,
+ * independently of any Swing Timer or view. A SimulationEngine schedules
+ * each tick against an ideal timeline (start time + n * timestep) rather than
+ * sleeping for a fixed delay after each tick, so time spent clocking the model
+ * does not accumulate as drift. When the engine falls behind, it performs up
+ * to a configurable number of catch-up ticks each time it wakes; any ticks
+ * beyond that are dropped and the timeline is moved forward, so that a long
+ * stall does not result in a burst of ticks.
+ *
+ * A SimulationEngine is created paused. Method start() runs the simulation,
+ * pause() suspends it and step() advances a paused simulation by exactly one
+ * tick. All clock() calls on the model are serialised by the engine, but
+ * ShapeModelListeners are notified on whichever thread performs the tick;
+ * Swing-based listeners must hand events over to the Event Dispatch Thread.
+ *
+ * The model is clocked without holding the engine's lock, so a listener may
+ * query or control the engine, and other threads may query it or start it,
+ * while a tick is in progress. However, pause() and step() wait for any tick
+ * in progress to finish (unless called from within it), and stop() waits for
+ * the simulation thread to terminate, so a listener must not wait for a
+ * thread that may call them. For example, listeners should hand events to
+ * the Event Dispatch Thread with SwingUtilities.invokeLater(), never
+ * invokeAndWait().
+ *
+ */
+public class SimulationEngine {
+	// Default timestep, matching the Timer delay used by SpaceShape.
+	public static final long DEFAULT_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(25);
+
+	// Default maximum number of ticks performed to catch up each time the engine wakes.
+	public static final int DEFAULT_MAX_CATCH_UP = 5;
+
+	// Model being simulated.
+	private ShapeModel _model;
+
+	// Length of a tick, in nanoseconds.
+	private long _tickNanos;
+
+	// Maximum number of ticks performed each time the engine wakes.
+	private int _maxCatchUp;
+
+	// Guards the state below. Never held while the model is clocked.
+	private final Object _lock = new Object();
+
+	// Thread clocking the model, or null if no tick is in progress.
+	private Thread _ticker;
+
+	// Simulation thread, null until the engine is first started or stepped.
+	private Thread _thread;
+
+	private boolean _running;
+
+	private boolean _stopped;
+
+	// Number of ticks performed, and number of ticks dropped when behind.
+	private long _tickCount;
+
+	private long _droppedTicks;
+
+	/**
+	 * Creates a paused SimulationEngine for model with the default timestep
+	 * and catch-up limit.
+	 */
+	public SimulationEngine(ShapeModel model) {
+		this(model, DEFAULT_TICK_NANOS, DEFAULT_MAX_CATCH_UP);
+	}
+
+	/**
+	 * Creates a paused SimulationEngine for model.
+	 * @param model the ShapeModel to clock.
+	 * @param tickNanos the fixed timestep, in nanoseconds.
+	 * @param maxCatchUp the maximum number of ticks performed each time the
+	 * engine wakes when it has fallen behind.
+	 * @throws IllegalArgumentException if tickNanos or maxCatchUp is not
+	 * positive.
+	 */
+	public SimulationEngine(ShapeModel model, long tickNanos, int maxCatchUp) {
+		if (tickNanos <= 0 || maxCatchUp <= 0) {
+			throw new IllegalArgumentException();
+		}
+		_model = model;
+		_tickNanos = tickNanos;
+		_maxCatchUp = maxCatchUp;
+	}
+
+	/**
+	 * Starts, or resumes, the simulation. Has no effect if the simulation is
+	 * already running.
+	 * @throws IllegalStateException if the engine has been stopped.
+	 */
+	public void start() {
+		synchronized (_lock) {
+			checkNotStopped();
+			_running = true;
+			if (_thread == null) {
+				_thread = new Thread(new Runnable() {
+					public void run() {
+						runLoop();
+					}
+				}, "SimulationEngine");
+				_thread.setDaemon(true);
+				_thread.start();
+			}
+			_lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Pauses the simulation. When this method returns, no tick is in
+	 * progress, unless it was called by a listener during a tick.
+	 */
+	public void pause() {
+		synchronized (_lock) {
+			_running = false;
+			_lock.notifyAll();
+			awaitTick();
+		}
+	}
+
+	/**
+	 * Advances a paused simulation by exactly one tick, on the calling
+	 * thread.
+	 * @throws IllegalStateException if the simulation is running, the
+	 * engine has been stopped or this method is called during a tick.
+	 */
+	public void step() {
+		synchronized (_lock) {
+			if (_ticker == Thread.currentThread()) {
+				throw new IllegalStateException();
+			}
+			awaitTick();
+			checkNotStopped();
+			if (_running) {
+				throw new IllegalStateException();
+			}
+			_ticker = Thread.currentThread();
+		}
+		tick();
+	}
+
+	/**
+	 * Stops the engine permanently and waits for the simulation thread to
+	 * terminate.
+	 */
+	public void stop() throws InterruptedException {
+		Thread thread;
+		synchronized (_lock) {
+			_stopped = true;
+			_running = false;
+			_lock.notifyAll();
+			thread = _thread;
+		}
+		if (thread != null && thread != Thread.currentThread()) {
+			thread.join();
+		}
+	}
+
+	/**
+	 * Returns true if the simulation is running.
+	 */
+	public boolean isRunning() {
+		synchronized (_lock) {
+			return _running;
+		}
+	}
+
+	/**
+	 * Returns the number of ticks performed so far.
+	 */
+	public long tickCount() {
+		synchronized (_lock) {
+			return _tickCount;
+		}
+	}
+
+	/**
+	 * Returns the number of ticks that were dropped because the engine fell
+	 * further behind than it was allowed to catch up.
+	 */
+	public long droppedTicks() {
+		synchronized (_lock) {
+			return _droppedTicks;
+		}
+	}
+
+	/**
+	 * Returns the length of a tick, in nanoseconds.
+	 */
+	public long tickNanos() {
+		return _tickNanos;
+	}
+
+	/*
+	 * Body of the simulation thread. The lock is held except while waiting
+	 * and while clocking the model, which is done only once no other tick is
+	 * in progress.
+	 */
+	private void runLoop() {
+		long next = 0;
+		boolean resync = true;
+
+		try {
+			while (true) {
+				synchronized (_lock) {
+					if (_stopped) {
+						return;
+					}
+					if (!_running || _ticker != null) {
+						_lock.wait();
+						resync = true;
+						continue;
+					}
+
+					long now = System.nanoTime();
+					if (resync) {
+						next = now;
+						resync = false;
+					}
+
+					if (now - next < 0) {
+						TimeUnit.NANOSECONDS.timedWait(_lock, next - now);
+						continue;
+					}
+
+					// Too far behind: drop the ticks that cannot be caught up.
+					long behind = (now - next) / _tickNanos + 1;
+					if (behind > _maxCatchUp) {
+						_droppedTicks += behind - _maxCatchUp;
+						next += (behind - _maxCatchUp) * _tickNanos;
+					}
+					next += _tickNanos;
+					_ticker = Thread.currentThread();
+				}
+				tick();
+			}
+		} catch (InterruptedException e) {
+			synchronized (_lock) {
+				_stopped = true;
+				_running = false;
+			}
+		}
+	}
+
+	/*
+	 * Clocks the model. The caller must not hold the lock, and must have
+	 * made itself the ticker.
+	 */
+	private void tick() {
+		boolean ticked = false;
+		try {
+			_model.clock();
+			ticked = true;
+		} finally {
+			synchronized (_lock) {
+				_ticker = null;
+				if (ticked) {
+					_tickCount++;
+				}
+				_lock.notifyAll();
+			}
+		}
+	}
+
+	/*
+	 * Waits until no tick is in progress, other than one being performed by
+	 * the calling thread. The caller must hold the lock.
+	 */
+	private void awaitTick() {
+		boolean interrupted = false;
+		while (_ticker != null && _ticker != Thread.currentThread()) {
+			try {
+				_lock.wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void checkNotStopped() {
+		if (_stopped) {
+			throw new IllegalStateException();
+		}
+	}
+}
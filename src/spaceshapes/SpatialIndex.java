@@ -0,0 +1,257 @@
+package spaceshapes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform-grid spatial index over the world positions of the Shapes held in
+ * a ShapeStore. The world is divided into square cells; each Shape that is
+ * smaller than a cell is recorded in the single cell that contains its top
+ * left corner, so a query only needs to examine the cells within one cell's
+ * width of the area queried. Shapes that are as large as a cell or larger
+ * (typically CarrierShapes) are few in number and are kept in a separate
+ * list that every query scans.
+ *
+ * The index is maintained incrementally: update() re-files a Shape only when
+ * it has moved into a different cell. World positions are read from the
+ * ShapeStore, so they must be current (see ShapeStore.updateWorld()) when the
+ * index is updated. The area a Shape occupies includes the extra pixel on its
+ * right and bottom edges that outlines are painted on.
+ */
+final class SpatialIndex {
+	// Default width and height of a grid cell, in pixels.
+	static final int DEFAULT_CELL_SIZE = 64;
+
+	// Cell recorded for slots that are not in the index.
+	private static final int UNINDEXED = -2;
+
+	// Cell recorded for slots held in the list of oversized Shapes.
+	private static final int OVERSIZED = -1;
+
+	private final ShapeStore _store;
+
+	private final int _cellSize;
+
+	private final int _columns;
+
+	private final int _rows;
+
+	// Shapes filed in each cell, and the number of Shapes in each cell.
+	private final Shape[][] _cells;
+
+	private final int[] _cellCounts;
+
+	// Shapes too large to be filed in a single cell.
+	private Shape[] _oversized = new Shape[8];
+
+	private int _oversizedCount;
+
+	// Cell of each slot, and the slot's position within that cell (or within
+	// the oversized list).
+	private int[] _cellOf = new int[0];
+
+	private int[] _positionInCell = new int[0];
+
+	/**
+	 * Creates an empty SpatialIndex for the Shapes of store, covering a world
+	 * of the specified size with cells of cellSize pixels. Shapes positioned
+	 * outside the world are filed in the nearest cell.
+	 */
+	SpatialIndex(ShapeStore store, int worldWidth, int worldHeight, int cellSize) {
+		if (cellSize < 1) {
+			throw new IllegalArgumentException();
+		}
+		_store = store;
+		_cellSize = cellSize;
+		_columns = Math.max(1, (worldWidth + cellSize - 1) / cellSize);
+		_rows = Math.max(1, (worldHeight + cellSize - 1) / cellSize);
+		_cells = new Shape[_columns * _rows][];
+		_cellCounts = new int[_columns * _rows];
+	}
+
+	/**
+	 * Returns the width and height of each cell.
+	 */
+	int cellSize() {
+		return _cellSize;
+	}
+
+	/**
+	 * Files every Shape held in the store that is not already in the correct
+	 * cell.
+	 */
+	void updateAll() {
+		ensureCapacity(_store.size());
+		for (int slot = 0; slot < _store.size(); slot++) {
+			update(slot);
+		}
+	}
+
+	/**
+	 * Files the Shape held in slot, moving it only if it is not already in
+	 * the correct cell.
+	 */
+	void update(int slot) {
+		ensureCapacity(slot + 1);
+		int cell = cellFor(slot);
+		if (cell != _cellOf[slot]) {
+			remove(slot);
+			insert(slot, cell);
+		}
+	}
+
+	/**
+	 * Removes the Shape held in slot from the index.
+	 */
+	void remove(int slot) {
+		if (slot >= _cellOf.length || _cellOf[slot] == UNINDEXED) {
+			return;
+		}
+
+		int cell = _cellOf[slot];
+		int position = _positionInCell[slot];
+		Shape[] entries;
+		int last;
+		if (cell == OVERSIZED) {
+			entries = _oversized;
+			last = --_oversizedCount;
+		} else {
+			entries = _cells[cell];
+			last = --_cellCounts[cell];
+		}
+
+		// Fill the gap with the last entry of the cell.
+		Shape moved = entries[last];
+		entries[position] = moved;
+		entries[last] = null;
+		if (moved._slot != slot) {
+			_positionInCell[moved._slot] = position;
+		}
+		_cellOf[slot] = UNINDEXED;
+	}
+
+	/**
+	 * Records that the Shape held in slot from has been moved to slot to,
+	 * leaving slot from unoccupied.
+	 */
+	void slotMoved(int from, int to) {
+		ensureCapacity(Math.max(from, to) + 1);
+		_cellOf[to] = _cellOf[from];
+		_positionInCell[to] = _positionInCell[from];
+		_cellOf[from] = UNINDEXED;
+	}
+
+	/**
+	 * Returns the Shapes that occupy the point (x, y), in world coordinates.
+	 */
+	List<Shape> queryPoint(int x, int y) {
+		return queryRect(x, y, 1, 1);
+	}
+
+	/**
+	 * Returns the Shapes that overlap the rectangle with top left corner
+	 * (x, y) and the specified width and height, in world coordinates.
+	 */
+	List<Shape> queryRect(int x, int y, int width, int height) {
+		List<Shape> result = new ArrayList<Shape>();
+		if (width <= 0 || height <= 0) {
+			return result;
+		}
+
+		long right = (long) x + width;
+		long bottom = (long) y + height;
+
+		for (int i = 0; i < _oversizedCount; i++) {
+			addIfOverlapping(_oversized[i], x, y, right, bottom, result);
+		}
+
+		// A Shape filed in a cell extends less than one cell beyond its top
+		// left corner, so only cells within a cell of the rectangle qualify.
+		int firstColumn = column((long) x - _cellSize);
+		int lastColumn = column(right - 1);
+		int firstRow = row((long) y - _cellSize);
+		int lastRow = row(bottom - 1);
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				int cell = row * _columns + column;
+				Shape[] entries = _cells[cell];
+				for (int i = 0; i < _cellCounts[cell]; i++) {
+					addIfOverlapping(entries[i], x, y, right, bottom, result);
+				}
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Adds shape to result if the area it occupies overlaps the rectangle
+	 * [x, right) x [y, bottom).
+	 */
+	private void addIfOverlapping(Shape shape, int x, int y, long right, long bottom, List<Shape> result) {
+		int slot = shape._slot;
+		int worldX = _store._worldX[slot];
+		int worldY = _store._worldY[slot];
+
+		if (worldX < right && worldY < bottom
+				&& (long) worldX + _store._width[slot] >= x
+				&& (long) worldY + _store._height[slot] >= y) {
+			result.add(shape);
+		}
+	}
+
+	/*
+	 * Returns the cell in which the Shape held in slot belongs.
+	 */
+	private int cellFor(int slot) {
+		if (_store._width[slot] >= _cellSize || _store._height[slot] >= _cellSize) {
+			return OVERSIZED;
+		}
+		return row(_store._worldY[slot]) * _columns + column(_store._worldX[slot]);
+	}
+
+	private int column(long x) {
+		return (int) Math.max(0, Math.min(_columns - 1, Math.floor((double) x / _cellSize)));
+	}
+
+	private int row(long y) {
+		return (int) Math.max(0, Math.min(_rows - 1, Math.floor((double) y / _cellSize)));
+	}
+
+	/*
+	 * Files the Shape held in slot, which must not be in the index, in the
+	 * specified cell.
+	 */
+	private void insert(int slot, int cell) {
+		Shape shape = _store._shapes[slot];
+		int position;
+		if (cell == OVERSIZED) {
+			if (_oversizedCount == _oversized.length) {
+				_oversized = Arrays.copyOf(_oversized, _oversizedCount * 2);
+			}
+			position = _oversizedCount++;
+			_oversized[position] = shape;
+		} else {
+			Shape[] entries = _cells[cell];
+			if (entries == null) {
+				entries = _cells[cell] = new Shape[4];
+			} else if (_cellCounts[cell] == entries.length) {
+				entries = _cells[cell] = Arrays.copyOf(entries, entries.length * 2);
+			}
+			position = _cellCounts[cell]++;
+			entries[position] = shape;
+		}
+		_cellOf[slot] = cell;
+		_positionInCell[slot] = position;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > _cellOf.length) {
+			int oldCapacity = _cellOf.length;
+			int newCapacity = Math.max(capacity, oldCapacity * 2);
+			_cellOf = Arrays.copyOf(_cellOf, newCapacity);
+			_positionInCell = Arrays.copyOf(_positionInCell, newCapacity);
+			Arrays.fill(_cellOf, oldCapacity, newCapacity, UNINDEXED);
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package spaceshapes;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sweep-and-prune collision detector for the children of a single
+ * CarrierShape. Two children collide when their bounding boxes, each given by
+ * a Shape's position, width and height within the carrier, overlap by at
+ * least one pixel in both dimensions.
+ *
+ * The children are kept sorted by their left edges from one call of detect()
+ * to the next. Because Shapes move only a few pixels each tick, the order
+ * barely changes and an insertion sort restores it in close to linear time.
+ * The sweep then pairs each child only with the children whose left edges lie
+ * within its width, and tests each such pair for vertical overlap. The cost of
+ * a call is therefore proportional to the number of children plus the number
+ * of horizontally overlapping pairs, rather than the square of the number of
+ * children.
+ *
+ * Each child is given an id when it is first seen, and each overlapping pair
+ * is recorded as its two ids packed into a long, in one of two primitive hash
+ * sets that are swapped on each call. Once the sets have grown to fit the
+ * overlaps, detect() allocates nothing.
+ */
+final class SweepAndPrune {
+	private final CarrierShape _carrier;
+
+	// Children of the carrier, in ascending order of their left edges, and
+	// the left edge of each as of the last call to detect().
+	private Shape[] _sorted = new Shape[0];
+
+	private int[] _left = new int[0];
+
+	// Id of each child in _sorted; ids are never reused.
+	private int[] _ids = new int[0];
+
+	private int _nextId = 1;
+
+	private int _count;
+
+	// True if the carrier's children have changed since the last detect().
+	private boolean _stale = true;
+
+	// Pairs of children that overlapped when detect() was last called, and
+	// the set to be filled by the next call.
+	private PairSet _overlapping = new PairSet();
+
+	private PairSet _next = new PairSet();
+
+	/**
+	 * Creates a SweepAndPrune for the children of carrier.
+	 */
+	SweepAndPrune(CarrierShape carrier) {
+		_carrier = carrier;
+	}
+
+	/**
+	 * Records that children have been added to, or removed from, the
+	 * carrier.
+	 */
+	void invalidate() {
+		_stale = true;
+	}
+
+	/**
+	 * Finds the pairs of children that overlap now but did not overlap when
+	 * this method was last called, and appends the two Shapes of each such
+	 * pair to collisions.
+	 */
+	void detect(List<Shape> collisions) {
+		if (_stale) {
+			rebuild();
+		} else {
+			for (int i = 0; i < _count; i++) {
+				Shape shape = _sorted[i];
+				_left[i] = shape._store._x[shape._slot];
+			}
+			insertionSort();
+		}
+
+		PairSet overlapping = _next;
+		overlapping.clear();
+		for (int i = 0; i < _count; i++) {
+			Shape shape = _sorted[i];
+			ShapeStore store = shape._store;
+			int slot = shape._slot;
+			long right = (long) _left[i] + store._width[slot];
+			int top = store._y[slot];
+			long bottom = (long) top + store._height[slot];
+
+			for (int j = i + 1; j < _count && _left[j] < right; j++) {
+				Shape other = _sorted[j];
+				int otherTop = store._y[other._slot];
+
+				if (otherTop < bottom && top < (long) otherTop + store._height[other._slot]) {
+					long pair = pair(_ids[i], _ids[j]);
+					overlapping.add(pair);
+					if (!_overlapping.contains(pair)) {
+						collisions.add(shape);
+						collisions.add(other);
+					}
+				}
+			}
+		}
+		_next = _overlapping;
+		_overlapping = overlapping;
+	}
+
+	/*
+	 * Reloads the children of the carrier and sorts them from scratch.
+	 */
+	private void rebuild() {
+		// Children that remain keep their ids.
+		Map<Shape, Integer> ids = new IdentityHashMap<Shape, Integer>();
+		for (int i = 0; i < _count; i++) {
+			ids.put(_sorted[i], _ids[i]);
+		}
+
+		_count = _carrier.shapeCount();
+		if (_count > _sorted.length) {
+			_sorted = new Shape[_count];
+			_left = new int[_count];
+			_ids = new int[_count];
+		}
+
+		// Sort each child's left edge together with its index position.
+		long[] keys = new long[_count];
+		for (int i = 0; i < _count; i++) {
+			Shape shape = _carrier.shapeAt(i);
+			keys[i] = ((long) shape._store._x[shape._slot] << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		for (int i = 0; i < _count; i++) {
+			_sorted[i] = _carrier.shapeAt((int) keys[i]);
+			_left[i] = (int) (keys[i] >> 32);
+			Integer id = ids.get(_sorted[i]);
+			_ids[i] = (id != null) ? id : _nextId++;
+		}
+		Arrays.fill(_sorted, _count, _sorted.length, null);
+		_stale = false;
+	}
+
+	/*
+	 * Restores the ascending order of _left, and of _sorted with it.
+	 */
+	private void insertionSort() {
+		for (int i = 1; i < _count; i++) {
+			int left = _left[i];
+			if (left < _left[i - 1]) {
+				Shape shape = _sorted[i];
+				int id = _ids[i];
+				int j = i;
+				do {
+					_left[j] = _left[j - 1];
+					_sorted[j] = _sorted[j - 1];
+					_ids[j] = _ids[j - 1];
+					j--;
+				} while (j > 0 && left < _left[j - 1]);
+				_left[j] = left;
+				_sorted[j] = shape;
+				_ids[j] = id;
+			}
+		}
+	}
+
+	/*
+	 * Returns the key of the unordered pair of children with the specified
+	 * ids. Ids are positive, so no key is 0.
+	 */
+	private static long pair(int id, int otherId) {
+		return (id < otherId) ? ((long) id << 32) | otherId : ((long) otherId << 32) | id;
+	}
+
+	/*
+	 * Set of non-zero pair keys, held in an open-addressed table with linear
+	 * probing. Empty entries hold 0. The occupied entries are recorded, so
+	 * that clearing the set costs no more than filling it did, and the table
+	 * shrinks once it is much larger than the keys it last held.
+	 */
+	private static final class PairSet {
+		private static final int MIN_CAPACITY = 16;
+
+		private long[] _table = new long[MIN_CAPACITY];
+
+		// Indices of the occupied entries of _table, in order of addition.
+		private int[] _used = new int[MIN_CAPACITY / 2];
+
+		private int _size;
+
+		void add(long key) {
+			if (2 * (_size + 1) > _table.length) {
+				resize(_table.length * 2);
+			}
+			int i = find(key);
+			if (_table[i] == 0) {
+				_table[i] = key;
+				_used[_size++] = i;
+			}
+		}
+
+		boolean contains(long key) {
+			return _table[find(key)] != 0;
+		}
+
+		void clear() {
+			for (int i = 0; i < _size; i++) {
+				_table[_used[i]] = 0;
+			}
+			if (_table.length > MIN_CAPACITY && 8 * _size < _table.length) {
+				int capacity = Math.max(MIN_CAPACITY, 4 * Integer.highestOneBit(Math.max(_size, 1)));
+				_table = new long[capacity];
+				_used = new int[capacity / 2];
+			}
+			_size = 0;
+		}
+
+		/*
+		 * Moves the keys into a table of the specified capacity, a power of
+		 * two able to hold twice as many keys.
+		 */
+		private void resize(int capacity) {
+			long[] table = _table;
+			int[] used = _used;
+			int size = _size;
+			_table = new long[capacity];
+			_used = new int[capacity / 2];
+			_size = 0;
+			for (int i = 0; i < size; i++) {
+				add(table[used[i]]);
+			}
+		}
+
+		/*
+		 * Returns the index of key within the table, or of the empty entry
+		 * at which it would be added.
+		 */
+		private int find(long key) {
+			int mask = _table.length - 1;
+			int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+			while (_table[i] != 0 && _table[i] != key) {
+				i = (i + 1) & mask;
+			}
+			return i;
+		}
+	}
+}
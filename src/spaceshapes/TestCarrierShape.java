@@ -7,7 +7,9 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -184,6 +186,84 @@ public class TestCarrierShape {
 		assertEquals(-1, _topLevelNest.indexOf(_bottomLevelNest));
 	}
 	
+	/**
+	 * Check that method indexOf tracks the positions of children as children
+	 * are removed from, and added to, a CarrierShape instance.
+	 */
+	@Test
+	public void testIndexOfAfterRemovals() {
+		CarrierShape carrier = new CarrierShape(0, 0, 0, 0, 100, 100);
+		Shape[] children = new Shape[10];
+		for (int i = 0; i < children.length; i++) {
+			children[i] = new RectangleShape(i, i, 1, 1, 10, 10);
+			carrier.add(children[i]);
+		}
+		
+		carrier.remove(children[7]);
+		carrier.remove(children[2]);
+		carrier.remove(children[0]);
+		Shape added = new RectangleShape(0, 0, 1, 1, 10, 10);
+		carrier.add(added);
+		
+		assertEquals(4, carrier.indexOf(children[6]));
+		assertEquals(0, carrier.indexOf(children[1]));
+		assertEquals(-1, carrier.indexOf(children[2]));
+		assertEquals(7, carrier.indexOf(added));
+		for (int i = 0; i < carrier.shapeCount(); i++) {
+			assertEquals(i, carrier.indexOf(carrier.shapeAt(i)));
+		}
+		assertFalse(carrier.contains(children[7]));
+		assertTrue(carrier.contains(children[9]));
+	}
+	
+	/**
+	 * Check that the children of a CarrierShape instance keep their order,
+	 * positions and membership through a long random sequence of additions
+	 * and removals, as those of a plain list would.
+	 */
+	@Test
+	public void testChildrenMatchListAfterRandomChanges() {
+		CarrierShape carrier = new CarrierShape(0, 0, 0, 0, 100, 100);
+		List<Shape> expected = new ArrayList<Shape>();
+		Random random = new Random(6);
+		for (int step = 0; step < 5000; step++) {
+			if (expected.isEmpty() || random.nextInt(5) < 3) {
+				Shape shape = new RectangleShape(0, 0, 1, 1, 10, 10);
+				carrier.add(shape);
+				expected.add(shape);
+			} else {
+				// Favour removing early children, which used to shift the rest.
+				int index = random.nextInt(1 + random.nextInt(expected.size()));
+				carrier.remove(expected.remove(index));
+			}
+			
+			if (expected.isEmpty()) {
+				continue;
+			}
+			int index = random.nextInt(expected.size());
+			assertSame(expected.get(index), carrier.shapeAt(index));
+			assertEquals(index, carrier.indexOf(expected.get(index)));
+		}
+		
+		assertEquals(expected.size(), carrier.shapeCount());
+		int i = 0;
+		for (Shape shape : carrier._containedShapes) {
+			assertSame(expected.get(i), shape);
+			assertEquals(i, carrier.indexOf(shape));
+			i++;
+		}
+		assertEquals(expected.size(), i);
+		
+		int[] indices = {0, 3, expected.size() - 1};
+		carrier.removeAll(indices);
+		Shape last = expected.remove(expected.size() - 1);
+		Shape fourth = expected.remove(3);
+		Shape first = expected.remove(0);
+		assertEquals(expected, carrier._containedShapes);
+		assertFalse(carrier.contains(first) || carrier.contains(fourth) || carrier.contains(last));
+		assertEquals(-1, carrier.indexOf(fourth));
+	}
+	
 	/**
 	 * Check that Shape's path method correctly returns the path from the root
 	 * CarrierShape object through to the Shape object that path is called on.
@@ -0,0 +1,111 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that FrameExporter writes, for every tick in the requested
+ * range, exactly the frame that rendering the model sequentially produces.
+ *
+ */
+public class TestFrameExporter {
+
+	private static final int WIDTH = 120;
+	private static final int HEIGHT = 90;
+
+	private File _directory;
+
+	private FrameExporter.ModelFactory _factory = new FrameExporter.ModelFactory() {
+		public ShapeModel create() {
+			ShapeModel model = new ShapeModel(new Dimension(WIDTH, HEIGHT));
+			CarrierShape carrier = new CarrierShape(5, 5, 3, 2, 60, 50);
+			model.add(carrier, model.root());
+			model.add(new RectangleShape(2, 2, 4, 3, 10, 8), carrier);
+			model.add(new DynamicShape(10, 10, 5, -3, 15, 12, Color.RED), carrier);
+			model.add(new OvalShape(40, 30, -2, 5, 25, 20), model.root());
+			model.add(new HexagonShape(70, 20, 3, 3, 30, 25), model.root());
+			return model;
+		}
+	};
+
+	@Before
+	public void createDirectory() throws IOException {
+		_directory = Files.createTempDirectory("frames").toFile();
+	}
+
+	@After
+	public void deleteDirectory() {
+		for (File file : _directory.listFiles()) {
+			file.delete();
+		}
+		_directory.delete();
+	}
+
+	/**
+	 * Checks raw frames rendered by several workers, each claiming short runs
+	 * of ticks, against frames rendered one tick at a time.
+	 */
+	@Test
+	public void testRawFramesMatchSequentialRendering() throws Exception {
+		FrameExporter exporter = new FrameExporter(_factory, _directory, FrameExporter.Format.Raw);
+		exporter.setParallelism(3, 4, 2);
+		assertTrue(exporter.export(7, 50) > 0);
+		assertFalse(exporter.file(6).exists());
+		assertFalse(exporter.file(50).exists());
+
+		ShapeModel model = _factory.create();
+		model.clock(7);
+		for (long tick = 7; tick < 50; tick++) {
+			BufferedImage expected = render(model);
+			byte[] bytes = Files.readAllBytes(exporter.file(tick).toPath());
+			assertEquals(WIDTH * HEIGHT * 3, bytes.length);
+			for (int i = 0; i < WIDTH * HEIGHT; i++) {
+				int rgb = ((bytes[3 * i] & 0xFF) << 16) | ((bytes[3 * i + 1] & 0xFF) << 8) | (bytes[3 * i + 2] & 0xFF);
+				assertEquals(expected.getRGB(i % WIDTH, i / WIDTH) & 0xFFFFFF, rgb);
+			}
+			model.clock();
+		}
+	}
+
+	/**
+	 * Checks that PNG frames can be read back unchanged.
+	 */
+	@Test
+	public void testPngFramesMatchSequentialRendering() throws Exception {
+		FrameExporter exporter = new FrameExporter(_factory, _directory, FrameExporter.Format.Png);
+		exporter.setParallelism(2, 3, 1);
+		exporter.export(0, 5);
+
+		ShapeModel model = _factory.create();
+		for (long tick = 0; tick < 5; tick++) {
+			BufferedImage expected = render(model);
+			BufferedImage actual = ImageIO.read(exporter.file(tick));
+			assertArrayEquals(expected.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH), 
+					actual.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH));
+			model.clock();
+		}
+	}
+
+	private BufferedImage render(ShapeModel model) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		RasterPainter painter = new RasterPainter(image);
+		model.root().paint(painter);
+		painter.dispose();
+		return image;
+	}
+}
@@ -0,0 +1,195 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Class to test that GraphicsPainter draws centred text exactly as 
+ * Graphics.drawString() would, whether or not the text's layout is already
+ * cached, and that shapes culled against its clip leave the clipped area
+ * unchanged.
+ *
+ */
+public class TestGraphicsPainter {
+
+	private static final int WIDTH = 300;
+	private static final int HEIGHT = 100;
+	private static final int CLIP_X = 100;
+	private static final int CLIP_Y = 20;
+	private static final int CLIP_WIDTH = 60;
+	private static final int CLIP_HEIGHT = 40;
+
+	/**
+	 * Checks that text drawn through the cache, both when it is first 
+	 * measured and on later draws, matches text drawn with drawString() at
+	 * the position given by its font metrics.
+	 */
+	@Test
+	public void testCentredTextMatchesDrawString() {
+		String[] labels = {"Space-Shape", "Changes Color", "Space-Shape", "x"};
+
+		BufferedImage actual = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = actual.createGraphics();
+		GraphicsPainter painter = new GraphicsPainter(g);
+		for (int i = 0; i < labels.length; i++) {
+			painter.drawCentredText(labels[i], 20 + i * 60, 10 + i * 15, 40, 30);
+		}
+		g.dispose();
+
+		BufferedImage expected = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		g = expected.createGraphics();
+		g.setColor(new Color(212, 212, 212));
+		FontMetrics metrics = g.getFontMetrics();
+		for (int i = 0; i < labels.length; i++) {
+			int x = 20 + i * 60 + (40 - metrics.stringWidth(labels[i])) / 2;
+			int y = 10 + i * 15 + 15 + (metrics.getAscent() - metrics.getDescent()) / 2;
+			g.drawString(labels[i], x, y);
+		}
+		g.dispose();
+
+		assertArrayEquals(pixels(expected), pixels(actual));
+	}
+
+	/**
+	 * Checks that threads drawing the same labels at once, as tile threads
+	 * do, each draw them exactly as a single thread does.
+	 */
+	@Test
+	public void testCentredTextFromManyThreads() throws Exception {
+		final String[] labels = {"Tile text", "Changes Color", "Tile text", "Space-Shape"};
+		final int[] expected = pixels(drawLabels(labels));
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(new Callable<Boolean>() {
+					public Boolean call() {
+						for (int j = 0; j < 50; j++) {
+							if (!Arrays.equals(expected, pixels(drawLabels(labels)))) {
+								return false;
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/*
+	 * Draws labels as centred text in a new image.
+	 */
+	private static BufferedImage drawLabels(String[] labels) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		GraphicsPainter painter = new GraphicsPainter(g);
+		for (int i = 0; i < labels.length; i++) {
+			painter.drawCentredText(labels[i], 20 + i * 60, 10 + i * 15, 40, 30);
+		}
+		g.dispose();
+		return image;
+	}
+
+	/**
+	 * Checks that painting a world through a clip, both from the Shapes and
+	 * from a Frame, produces the same pixels as painting every Shape through
+	 * that clip, while skipping Shapes and subtrees outside it.
+	 */
+	@Test
+	public void testClipCullingPaintsIdenticalPixels() {
+		ShapeModel model = new ShapeModel(new Dimension(WIDTH, HEIGHT));
+		for (int i = 0; i < 6; i++) {
+			CarrierShape carrier = new CarrierShape(i * 48, i * 3, 2, 1, 45, 60, "c" + i);
+			model.add(carrier, model.root());
+			model.add(new RectangleShape(2, 2, 1, 1, 20, 15, "r" + i), carrier);
+			model.add(new OvalShape(20, 30, 1, 1, 20, 25), carrier);
+		}
+		model.setFrameCapture(true);
+		Frame frame = model.acquireFrame();
+		try {
+			int[] everything = new int[1];
+			int[] expected = pixels(paint(model, frame, false, false, everything));
+			int[] calls = new int[1];
+			assertArrayEquals(expected, pixels(paint(model, frame, false, true, calls)));
+			int[] frameCalls = new int[1];
+			assertArrayEquals(expected, pixels(paint(model, frame, true, true, frameCalls)));
+
+			// Only the carriers overlapping the clip, and their contents, are 
+			// painted.
+			assertEquals(1 + 6 * 3, everything[0]);
+			assertTrue(calls[0] < everything[0]);
+			assertEquals(calls[0], frameCalls[0]);
+		} finally {
+			frame.release();
+		}
+	}
+
+	/*
+	 * Paints model, or frame, through a clip into a new image, incrementing
+	 * calls[0] for each shape drawn. If cull is false, the painter reports 
+	 * no clip bounds, so that every shape is drawn.
+	 */
+	private BufferedImage paint(ShapeModel model, Frame frame, boolean fromFrame, final boolean cull, final int[] calls) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		GraphicsPainter painter = new GraphicsPainter(g) {
+			@Override
+			public void drawRect(int x, int y, int width, int height) {
+				count();
+				super.drawRect(x, y, width, height);
+			}
+
+			@Override
+			public void drawOval(int x, int y, int width, int height) {
+				count();
+				super.drawOval(x, y, width, height);
+			}
+
+			@Override
+			public Rectangle getClipBounds() {
+				return cull ? super.getClipBounds() : null;
+			}
+
+			private void count() {
+				calls[0]++;
+			}
+		};
+		g.setClip(CLIP_X, CLIP_Y, CLIP_WIDTH, CLIP_HEIGHT);
+		painter.setTextMargin(20, 20);
+		if (fromFrame) {
+			frame.paint(painter);
+		} else {
+			model.root().paint(painter);
+		}
+		g.dispose();
+		return image;
+	}
+
+	private int[] pixels(BufferedImage image) {
+		return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	}
+}
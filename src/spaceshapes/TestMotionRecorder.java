@@ -0,0 +1,152 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that a MotionPlayer reproduces, at any recorded tick, the
+ * state recorded by a MotionRecorder.
+ *
+ */
+public class TestMotionRecorder {
+
+	private File _file;
+
+	// State of each Shape, breadth first, at each tick recorded.
+	private List<int[][]> _states = new ArrayList<int[][]>();
+
+	@Before
+	public void createFile() throws IOException {
+		_file = File.createTempFile("motion", ".rec");
+	}
+
+	@After
+	public void deleteFile() {
+		_file.delete();
+		MotionRecorder.indexFile(_file).delete();
+	}
+
+	/**
+	 * Checks forward playback and random seeks over a recording in which
+	 * Shapes bounce, are added and removed, and the model jumps ticks.
+	 */
+	@Test
+	public void testPlaybackMatchesModel() throws IOException {
+		ShapeModel model = new ShapeModel(new Dimension(300, 200));
+		CarrierShape carrier = new CarrierShape(20, 20, 3, 2, 150, 120);
+		model.add(carrier, model.root());
+		model.add(new RectangleShape(10, 10, 4, 7, 20, 15), carrier);
+		model.add(new OvalShape(200, 50, -5, 3, 30, 30), model.root());
+		for (int i = 0; i < 20; i++) {
+			model.add(new RectangleShape(i * 10, i * 5, 1, 1, 5, 5), model.root());
+		}
+
+		MotionRecorder recorder = new MotionRecorder(model, _file, 50);
+		model.addShapeModelListener(recorder);
+		record(model);
+		for (int tick = 1; tick <= 400; tick++) {
+			if (tick == 120) {
+				model.add(new HexagonShape(5, 5, 6, -2, 25, 20), carrier);
+			}
+			if (tick == 250) {
+				model.remove(model.root().shapeAt(3));
+			}
+			model.clock();
+			record(model);
+		}
+		model.clock(1000);
+		record(model);
+		model.clock();
+		record(model);
+		model.removeShapeModelListener(recorder);
+		recorder.close();
+
+		MotionPlayer player = new MotionPlayer(_file);
+		assertEquals(0, player.firstTick());
+		player.seek(0);
+		for (int tick = 0; tick <= 400; tick++) {
+			assertState(tick, player);
+			assertTrue(player.next());
+		}
+		assertState(401, player);
+		assertTrue(player.next());
+		assertState(402, player);
+		assertFalse(player.next());
+
+		Random random = new Random(5);
+		for (int i = 0; i < 100; i++) {
+			int tick = random.nextInt(401);
+			player.seek(tick);
+			assertState(tick, player);
+		}
+		player.seek(1401);
+		assertState(402, player);
+		player.close();
+	}
+
+	/**
+	 * Checks that shapes moving in straight lines take almost no space.
+	 */
+	@Test
+	public void testUnchangedMotionIsCompact() throws IOException {
+		ShapeModel model = new ShapeModel(new Dimension(100000, 100000));
+		for (int i = 0; i < 1000; i++) {
+			model.add(new RectangleShape(i * 10, i * 10, 1, 2, 5, 5), model.root());
+		}
+		MotionRecorder recorder = new MotionRecorder(model, _file, 1000);
+		model.addShapeModelListener(recorder);
+		for (int tick = 0; tick < 500; tick++) {
+			model.clock();
+		}
+		recorder.close();
+
+		// One keyframe and 500 empty delta frames.
+		assertTrue(_file.length() < 20000 + 500 * 5);
+		MotionPlayer player = new MotionPlayer(_file);
+		player.seek(500);
+		assertEquals(1000, player.y(0));
+		try {
+			player.seek(501);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		player.close();
+	}
+
+	private void record(ShapeModel model) {
+		List<Shape> shapes = new ShapeListing(model).shapes();
+		int[][] state = new int[shapes.size()][];
+		for (int i = 0; i < state.length; i++) {
+			Shape shape = shapes.get(i);
+			state[i] = new int[] {shape.x(), shape.y(), shape.deltaX(), shape.deltaY(), shape.width(), shape.height()};
+		}
+		_states.add(state);
+	}
+
+	private void assertState(int index, MotionPlayer player) {
+		int[][] state = _states.get(index);
+		assertEquals(state.length, player.shapeCount());
+		for (int i = 0; i < state.length; i++) {
+			assertEquals(state[i][0], player.x(i));
+			assertEquals(state[i][1], player.y(i));
+			assertEquals(state[i][2], player.deltaX(i));
+			assertEquals(state[i][3], player.deltaY(i));
+			assertEquals(state[i][4], player.width(i));
+			assertEquals(state[i][5], player.height(i));
+		}
+	}
+}
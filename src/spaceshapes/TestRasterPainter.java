@@ -0,0 +1,178 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Class to test that RasterPainter paints the same pixels as GraphicsPainter
+ * for the primitives it rasterises exactly, and well-formed ovals.
+ *
+ */
+public class TestRasterPainter {
+
+	private static final int WIDTH = 200;
+	private static final int HEIGHT = 150;
+
+	/**
+	 * Checks random opaque rectangles, filled rectangles and lines, many of
+	 * them partly outside the image, against GraphicsPainter.
+	 */
+	@Test
+	public void testPrimitivesMatchGraphicsPainter() {
+		Random random = new Random(11);
+		BufferedImage expected = image();
+		BufferedImage actual = image();
+		Graphics2D g = expected.createGraphics();
+		GraphicsPainter graphicsPainter = new GraphicsPainter(g);
+		RasterPainter rasterPainter = new RasterPainter(actual);
+
+		for (int i = 0; i < 300; i++) {
+			Color colour = new Color(random.nextInt(0x1000000));
+			graphicsPainter.setColor(colour);
+			rasterPainter.setColor(colour);
+			int x = random.nextInt(WIDTH + 100) - 50;
+			int y = random.nextInt(HEIGHT + 100) - 50;
+			int width = random.nextInt(120) - 2;
+			int height = random.nextInt(120) - 2;
+
+			switch (i % 3) {
+			case 0:
+				graphicsPainter.drawRect(x, y, width, height);
+				rasterPainter.drawRect(x, y, width, height);
+				break;
+			case 1:
+				graphicsPainter.fillRect(x, y, width, height);
+				rasterPainter.fillRect(x, y, width, height);
+				break;
+			default:
+				graphicsPainter.drawLine(x, y, x + 2 * width - 120, y + height - 60);
+				rasterPainter.drawLine(x, y, x + 2 * width - 120, y + height - 60);
+			}
+		}
+		g.dispose();
+
+		assertArrayEquals(pixels(expected), pixels(actual));
+	}
+
+	/**
+	 * Checks that translucent fills are blended exactly as Java2D blends them.
+	 */
+	@Test
+	public void testTranslucentFillsMatchGraphicsPainter() {
+		Random random = new Random(12);
+		BufferedImage expected = image();
+		BufferedImage actual = image();
+		Graphics2D g = expected.createGraphics();
+		GraphicsPainter graphicsPainter = new GraphicsPainter(g);
+		RasterPainter rasterPainter = new RasterPainter(actual);
+
+		for (int i = 0; i < 100; i++) {
+			Color colour = new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256), random.nextInt(256));
+			graphicsPainter.setColor(colour);
+			rasterPainter.setColor(colour);
+			int x = random.nextInt(WIDTH);
+			int y = random.nextInt(HEIGHT);
+			graphicsPainter.fillRect(x - 20, y - 20, 60, 40);
+			rasterPainter.fillRect(x - 20, y - 20, 60, 40);
+		}
+		g.dispose();
+
+		assertArrayEquals(rgb(expected), rgb(actual));
+	}
+
+	/**
+	 * Checks that a model without ovals, including text and translated
+	 * CarrierShapes, is painted exactly as GraphicsPainter paints it.
+	 */
+	@Test
+	public void testModelMatchesGraphicsPainter() {
+		ShapeModel model = new ShapeModel(new Dimension(WIDTH, HEIGHT));
+		CarrierShape carrier = new CarrierShape(20, 15, 3, 2, 120, 100, "Carrier");
+		model.add(carrier, model.root());
+		model.add(new RectangleShape(10, 10, 2, 1, 40, 30, "Rect"), carrier);
+		model.add(new HexagonShape(50, 40, 1, 3, 50, 35), carrier);
+		model.add(new DynamicShape(150, 100, 4, 4, 30, 20, Color.GREEN), model.root());
+		model.clock(3);
+
+		BufferedImage expected = image();
+		Graphics2D g = expected.createGraphics();
+		model.root().paint(new GraphicsPainter(g));
+		g.dispose();
+
+		BufferedImage actual = image();
+		RasterPainter painter = new RasterPainter(actual);
+		model.root().paint(painter);
+		painter.dispose();
+
+		assertArrayEquals(pixels(expected), pixels(actual));
+	}
+
+	/**
+	 * Checks that ovals lie within their bounds, touch each side of them and
+	 * are symmetric about both axes.
+	 */
+	@Test
+	public void testOvalsAreSymmetricWithinBounds() {
+		int[][] sizes = {{0, 0}, {1, 1}, {10, 10}, {11, 6}, {40, 3}, {3, 40}, {57, 31}};
+		for (int[] size : sizes) {
+			int width = size[0];
+			int height = size[1];
+			BufferedImage image = image();
+			RasterPainter painter = new RasterPainter(image);
+			painter.setColor(Color.WHITE);
+			painter.translate(10, 20);
+			painter.drawOval(30, 40, width, height);
+
+			int left = 40;
+			int top = 60;
+			boolean[] rows = new boolean[height + 1];
+			boolean[] columns = new boolean[width + 1];
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int x = 0; x < WIDTH; x++) {
+					if (image.getRGB(x, y) != Color.BLACK.getRGB()) {
+						assertTrue(x >= left && x <= left + width && y >= top && y <= top + height);
+						assertTrue(image.getRGB(2 * left + width - x, y) != Color.BLACK.getRGB());
+						assertTrue(image.getRGB(x, 2 * top + height - y) != Color.BLACK.getRGB());
+						rows[y - top] = true;
+						columns[x - left] = true;
+					}
+				}
+			}
+			assertTrue(rows[0] && rows[height] && columns[0] && columns[width]);
+		}
+	}
+
+	/**
+	 * Checks that the clip bounds follow translation.
+	 */
+	@Test
+	public void testClipBoundsFollowTranslation() {
+		RasterPainter painter = new RasterPainter(image());
+		painter.translate(30, -10);
+		assertEquals(-30, painter.getClipBounds().x);
+		assertEquals(10, painter.getClipBounds().y);
+		assertEquals(WIDTH, painter.getClipBounds().width);
+	}
+
+	private BufferedImage image() {
+		return new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+	}
+
+	private int[] pixels(BufferedImage image) {
+		return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	}
+
+	private int[] rgb(BufferedImage image) {
+		return image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+	}
+}
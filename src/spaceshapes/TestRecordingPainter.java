@@ -0,0 +1,89 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that a RecordingPainter replays exactly the Painter calls it
+ * recorded.
+ *
+ */
+public class TestRecordingPainter {
+
+	private CarrierShape _root;
+	private RecordingPainter _recording;
+
+	/**
+	 * Creates a hierarchy containing each kind of shape, including a filled
+	 * DynamicShape and shapes with text, and records it being painted.
+	 */
+	@Before
+	public void setUp() {
+		_root = new CarrierShape(0, 0, 0, 0, 500, 500);
+		CarrierShape carrier = new CarrierShape(20, 30, 2, 2, 200, 200, "carrier");
+		carrier.add(new OvalShape(5, 5, 1, 1, 30, 20));
+		carrier.add(new HexagonShape(10, 10, 1, 1, 60, 40, "hexagon"));
+		_root.add(carrier);
+		_root.add(new RectangleShape(300, 300, 1, 1, 10, 10));
+
+		DynamicShape dynamic = new DynamicShape(0, 0, -5, 0, 40, 40, Color.red);
+		_root.add(dynamic);
+		dynamic.move(500, 500);
+
+		_recording = new RecordingPainter();
+		_root.paint(_recording);
+	}
+
+	/**
+	 * Checks that replaying a recording produces the same calls as painting
+	 * the hierarchy directly, including the restoration of the colour in 
+	 * effect before a DynamicShape was filled.
+	 */
+	@Test
+	public void testReplayMatchesDirectPainting() {
+		MockPainter expected = new MockPainter();
+		_root.paint(expected);
+
+		MockPainter actual = new MockPainter();
+		_recording.replay(actual);
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+	/**
+	 * Checks that a recording can be replayed into another recording, and
+	 * that the two are then identical, translations included.
+	 */
+	@Test
+	public void testReplayIntoRecording() {
+		RecordingPainter copy = new RecordingPainter();
+		_recording.replay(copy);
+
+		assertEquals(_recording.size(), copy.size());
+		assertEquals(-1, _recording.firstDifference(copy));
+	}
+
+	/**
+	 * Checks that firstDifference() identifies the first call that changes
+	 * when the hierarchy moves.
+	 */
+	@Test
+	public void testFirstDifference() {
+		RecordingPainter previous = _recording;
+		_root.shapeAt(1).move(500, 500);
+
+		RecordingPainter current = new RecordingPainter();
+		_root.paint(current);
+
+		// Root outline, translate, carrier (outline, translate, oval, hexagon 
+		// lines and text, translate, text), then the moved rectangle.
+		assertEquals(14, previous.firstDifference(current));
+
+		current.clear();
+		assertEquals(0, current.size());
+		assertEquals(0, previous.firstDifference(current));
+	}
+}
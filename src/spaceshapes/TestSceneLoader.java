@@ -0,0 +1,153 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that SceneLoader builds the scene described in a text file.
+ *
+ */
+public class TestSceneLoader {
+
+	private File _file;
+
+	private ShapeModel _model;
+
+	// Number of ShapesAdded events fired by _model.
+	private int _batches;
+
+	@Before
+	public void setUp() throws IOException {
+		_file = File.createTempFile("scene", ".txt");
+		_model = new ShapeModel(new Dimension(500, 400));
+		_model.addShapeModelListener(new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				if (event.eventType() == ShapeModelEvent.EventType.ShapesAdded) {
+					_batches++;
+				}
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		_file.delete();
+	}
+
+	/**
+	 * Checks the hierarchy, state and text of a small scene.
+	 */
+	@Test
+	public void testLoadsScene() throws IOException {
+		write("# A small scene\n"
+				+ "1 0 spaceshapes.CarrierShape 10 20 3 -2 200 150 Outer carrier\n"
+				+ "\n"
+				+ "2 1 spaceshapes.RectangleShape 5 5 1 1 20 10\r\n"
+				+ "3 1 spaceshapes.OvalShape 30 40 -4 2 25 25 \u00e9t\u00e9\n"
+				+ "4 1 spaceshapes.CarrierShape 50 50 1 1 100 80\n"
+				+ "5 4\tspaceshapes.DynamicShape\t1 2 3 4 10 10\n"
+				+ "6 0 spaceshapes.HexagonShape 300 200 -1 -1 40 30");
+
+		assertEquals(6, SceneLoader.load(_file, _model, 2));
+		CarrierShape root = _model.root();
+		assertEquals(2, root.shapeCount());
+		CarrierShape outer = (CarrierShape) root.shapeAt(0);
+		assertEquals("Outer carrier", outer.text());
+		assertEquals(-2, outer.deltaY());
+		assertEquals(3, outer.shapeCount());
+		assertNull(outer.shapeAt(0).text());
+		assertEquals(20, outer.shapeAt(0).width());
+		assertEquals("\u00e9t\u00e9", outer.shapeAt(1).text());
+		CarrierShape inner = (CarrierShape) outer.shapeAt(2);
+		assertSame(DynamicShape.class, inner.shapeAt(0).getClass());
+		assertEquals(4, inner.shapeAt(0).deltaY());
+		assertSame(HexagonShape.class, root.shapeAt(1).getClass());
+
+		// Batches: [1], [2, 3], [4], [5], [6].
+		assertEquals(5, _batches);
+	}
+
+	/**
+	 * Checks a scene larger than the chunks in which it is read.
+	 */
+	@Test
+	public void testLoadsLargeScene() throws IOException {
+		StringBuilder scene = new StringBuilder();
+		for (int i = 1; i <= 20000; i++) {
+			scene.append(i).append(" 0 spaceshapes.RectangleShape ").append(i % 400).append(' ').append(i % 300)
+					.append(" 1 -1 10 10 Shape number ").append(i).append('\n');
+		}
+		write(scene.toString());
+
+		assertEquals(20000, SceneLoader.load(_file, _model));
+		assertEquals(20000, _model.root().shapeCount());
+		assertEquals(20, _batches);
+		for (int i = 1; i <= 20000; i += 997) {
+			Shape shape = _model.root().shapeAt(i - 1);
+			assertEquals(i % 400, shape.x());
+			assertEquals(i % 300, shape.y());
+			assertEquals("Shape number " + i, shape.text());
+		}
+	}
+
+	/**
+	 * Checks that errors identify the offending line.
+	 */
+	@Test
+	public void testReportsLine() throws IOException {
+		write("1 0 spaceshapes.RectangleShape 5 5 1 1 20 10\n"
+				+ "2 7 spaceshapes.RectangleShape 5 5 1 1 20 10\n");
+		try {
+			SceneLoader.load(_file, _model);
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains(":2: unknown parent 7"));
+		}
+
+		write("1 0 spaceshapes.ImageRectangleShape 5 5 1 1 20 10\n");
+		try {
+			SceneLoader.load(_file, _model);
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains(":1: "));
+		}
+
+		write("1 0 spaceshapes.RectangleShape 5 5 1 1 20 10\n"
+				+ "# Cannot be constructed\n"
+				+ "2 0 spaceshapes.TestSceneLoader$UnbuildableShape 5 5 1 1 20 10\n");
+		try {
+			SceneLoader.load(_file, _model);
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains(":3: "));
+			assertSame(UnsupportedOperationException.class, e.getCause().getClass());
+		}
+	}
+
+	/**
+	 * Shape whose constructor always fails.
+	 */
+	public static class UnbuildableShape extends RectangleShape {
+		public UnbuildableShape(int x, int y, int deltaX, int deltaY, int width, int height, String text) {
+			super(x, y, deltaX, deltaY, width, height, text);
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private void write(String scene) throws IOException {
+		Files.write(_file.toPath(), scene.getBytes(StandardCharsets.UTF_8));
+	}
+}
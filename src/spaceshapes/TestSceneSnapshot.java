@@ -0,0 +1,203 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that SceneSnapshot restores a ShapeModel to exactly the state
+ * it was saved in.
+ *
+ */
+public class TestSceneSnapshot {
+
+	private File _file;
+
+	private ShapeModel _model;
+
+	@Before
+	public void setUp() throws IOException {
+		_file = File.createTempFile("scene", ".snapshot");
+
+		_model = new ShapeModel(new Dimension(400, 300));
+		CarrierShape outer = new CarrierShape(10, 20, 3, 2, 200, 150, "Outer");
+		CarrierShape inner = new CarrierShape(5, 5, -2, 4, 80, 60);
+		_model.add(outer, _model.root());
+		_model.add(new OvalShape(300, 200, 5, -3, 40, 30, "Shared"), _model.root());
+		_model.add(inner, outer);
+		_model.add(new DynamicShape(20, 30, 7, 5, 30, 20, Color.RED, "Shared"), outer);
+		_model.add(new DynamicShape(1, 2, -6, 3, 12, 10, new Color(10, 20, 30, 40)), inner);
+		_model.add(new DynamicShape(40, 30, 4, -4, 15, 10, Color.RED), inner);
+		_model.add(new HexagonShape(2, 3, 1, 1, 25, 20, "\u00e9t\u00e9"), inner);
+		_model.add(new RectangleShape(100, 80, -1, 2, 50, 40), _model.root());
+		_model.clock(23);
+	}
+
+	@After
+	public void tearDown() {
+		_file.delete();
+	}
+
+	/**
+	 * Checks that the hierarchy, state, text, colours and fill state of every
+	 * Shape are restored, and that the restored model moves as the original
+	 * does.
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		SceneSnapshot.write(_model, _file);
+		ShapeModel restored = SceneSnapshot.read(_file);
+		assertEquals(_model.tick(), restored.tick());
+		assertEqual(_model.root(), restored.root());
+		assertEqual(render(_model), render(restored));
+
+		for (int i = 0; i < 40; i++) {
+			_model.clock();
+			restored.clock();
+		}
+		assertEqual(_model.root(), restored.root());
+		assertEqual(render(_model), render(restored));
+	}
+
+	/**
+	 * Checks that Shapes that cannot be constructed when loading are
+	 * rejected when saving.
+	 */
+	@Test
+	public void testRejectsShapeWithoutConstructor() throws IOException {
+		_model.add(new ImageRectangleShape(1, 1, new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB)), _model.root());
+		try {
+			SceneSnapshot.write(_model, _file);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Checks that a truncated snapshot is reported as an IOException.
+	 */
+	@Test
+	public void testRejectsTruncatedSnapshot() throws IOException {
+		SceneSnapshot.write(_model, _file);
+		RandomAccessFile file = new RandomAccessFile(_file, "rw");
+		try {
+			file.setLength(file.length() - 1);
+		} finally {
+			file.close();
+		}
+		try {
+			SceneSnapshot.read(_file);
+			fail();
+		} catch (IOException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Checks that only the Shapes being loaded are allocated in the loaded
+	 * model's store, even when their constructors create other Shapes.
+	 */
+	@Test
+	public void testShapesCreatingShapes() throws IOException {
+		_model.add(new OutlinedShape(30, 40, 2, 3, 50, 40, null), _model.root());
+		SceneSnapshot.write(_model, _file);
+		ShapeModel restored = SceneSnapshot.read(_file);
+		assertEqual(_model.root(), restored.root());
+		assertEquals(_model.root()._store.size(), restored.root()._store.size());
+	}
+
+	/**
+	 * Checks a snapshot holding more Shapes than are mapped at a time.
+	 */
+	@Test
+	public void testRoundTripAcrossWindows() throws IOException {
+		ShapeModel model = new ShapeModel(new Dimension(100000, 100000));
+		CarrierShape carrier = new CarrierShape(10, 10, 1, 1, 90000, 90000, "carrier");
+		model.add(carrier, model.root());
+		List<Shape> shapes = new ArrayList<Shape>();
+		for (int i = 0; i < 300000; i++) {
+			shapes.add(new RectangleShape(i % 80000, i / 4, i % 7 - 3, i % 5 - 2, 10 + i % 9, 10, (i % 1000 == 0) ? "r" + i : null));
+		}
+		model.addAll(shapes.subList(0, 100000), model.root());
+		model.addAll(shapes.subList(100000, shapes.size()), carrier);
+		SceneSnapshot.write(model, _file);
+
+		ShapeModel restored = SceneSnapshot.read(_file);
+		assertEqual(model.root(), restored.root());
+		assertEquals(model.root()._store.size(), restored.root()._store.size());
+	}
+
+	/**
+	 * Shape whose constructor creates a second Shape for its outline.
+	 */
+	public static class OutlinedShape extends RectangleShape {
+		private final Shape _outline;
+
+		public OutlinedShape(int x, int y, int deltaX, int deltaY, int width, int height, String text) {
+			super(x, y, deltaX, deltaY, width, height, text);
+			_outline = new RectangleShape(x - 1, y - 1, deltaX, deltaY, width + 2, height + 2);
+		}
+
+		Shape outline() {
+			return _outline;
+		}
+	}
+
+	/*
+	 * Asserts that actual, and every Shape it carries, has the same class and
+	 * state as expected.
+	 */
+	static void assertEqual(Shape expected, Shape actual) {
+		assertSame(expected.getClass(), actual.getClass());
+		assertEquals(expected.x(), actual.x());
+		assertEquals(expected.y(), actual.y());
+		assertEquals(expected.deltaX(), actual.deltaX());
+		assertEquals(expected.deltaY(), actual.deltaY());
+		assertEquals(expected.width(), actual.width());
+		assertEquals(expected.height(), actual.height());
+		assertEquals(expected.text(), actual.text());
+		assertEquals(expected.shouldFill(), actual.shouldFill());
+		if (expected instanceof DynamicShape) {
+			assertEquals(((DynamicShape) expected).colour(), ((DynamicShape) actual).colour());
+		}
+		if (expected instanceof CarrierShape) {
+			CarrierShape expectedCarrier = (CarrierShape) expected;
+			CarrierShape actualCarrier = (CarrierShape) actual;
+			assertEquals(expectedCarrier.shapeCount(), actualCarrier.shapeCount());
+			for (int i = 0; i < expectedCarrier.shapeCount(); i++) {
+				assertSame(actualCarrier, actualCarrier.shapeAt(i).parent());
+				assertEqual(expectedCarrier.shapeAt(i), actualCarrier.shapeAt(i));
+			}
+		}
+	}
+
+	private void assertEqual(BufferedImage expected, BufferedImage actual) {
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+			}
+		}
+	}
+
+	private BufferedImage render(ShapeModel model) {
+		BufferedImage image = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+		RasterPainter painter = new RasterPainter(image);
+		model.root().paint(painter);
+		painter.dispose();
+		return image;
+	}
+}
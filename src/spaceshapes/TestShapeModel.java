@@ -0,0 +1,805 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that a ShapeModel, whose Shapes are held in a ShapeStore,
+ * animates its composition hierarchy exactly as the recursive
+ * CarrierShape.move() algorithm does.
+ *
+ */
+public class TestShapeModel {
+
+	private ShapeModel _model;
+
+	// Hierarchy held by the model.
+	private CarrierShape _carrier;
+	private Shape _simpleShape;
+	private DynamicShape _dynamicShape;
+
+	// Identical hierarchy that is not part of a ShapeModel.
+	private CarrierShape _expectedRoot;
+
+	/**
+	 * Builds two identical composition hierarchies; one is held by a
+	 * ShapeModel and the other is standalone.
+	 */
+	@Before
+	public void setUp() {
+		_model = new ShapeModel(new Dimension(300, 200));
+		_carrier = new CarrierShape(10, 10, 3, -4, 120, 90);
+		_simpleShape = new RectangleShape(5, 5, 7, 2, 20, 10);
+		_dynamicShape = new DynamicShape(30, 40, -6, 5, 15, 15, Color.red);
+
+		_model.add(_carrier, _model.root());
+		_model.add(_simpleShape, _carrier);
+		_model.add(_dynamicShape, _carrier);
+		_model.add(new OvalShape(100, 100, 11, -9, 30, 20), _model.root());
+
+		_expectedRoot = new CarrierShape(0, 0, 0, 0, 300, 200);
+		CarrierShape carrier = new CarrierShape(10, 10, 3, -4, 120, 90);
+		carrier.add(new RectangleShape(5, 5, 7, 2, 20, 10));
+		carrier.add(new DynamicShape(30, 40, -6, 5, 15, 15, Color.red));
+		_expectedRoot.add(carrier);
+		_expectedRoot.add(new OvalShape(100, 100, 11, -9, 30, 20));
+	}
+
+	/**
+	 * Checks that clocking the model produces the same positions, velocities
+	 * and fill states as recursively moving an identical hierarchy.
+	 */
+	@Test
+	public void testClockMatchesRecursiveMove() {
+		for (int i = 0; i < 200; i++) {
+			_model.clock();
+			_expectedRoot.move(300, 200);
+
+			MockPainter actual = new MockPainter();
+			MockPainter expected = new MockPainter();
+			_model.root().paint(actual);
+			_expectedRoot.paint(expected);
+			assertEquals(expected.toString(), actual.toString());
+		}
+	}
+
+	/**
+	 * Checks that a Shape removed from the model retains its state and is no
+	 * longer moved when the model is clocked.
+	 */
+	@Test
+	public void testRemovedShapeRetainsStateAndStopsMoving() {
+		_model.clock();
+		int x = _simpleShape.x();
+		int y = _simpleShape.y();
+		int deltaX = _simpleShape.deltaX();
+
+		_model.remove(_carrier);
+		_model.clock();
+
+		assertFalse(_model.root().contains(_carrier));
+		assertEquals(x, _simpleShape.x());
+		assertEquals(y, _simpleShape.y());
+		assertEquals(deltaX, _simpleShape.deltaX());
+		assertTrue(_carrier.contains(_simpleShape));
+	}
+
+	/**
+	 * Checks that a removed CarrierShape, together with its children, can be
+	 * added back to the model and resumes moving.
+	 */
+	@Test
+	public void testRemovedShapeCanBeAddedAgain() {
+		_model.remove(_carrier);
+		assertTrue(_model.add(_carrier, _model.root()));
+
+		int x = _simpleShape.x();
+		_model.clock();
+		assertEquals(x + 7, _simpleShape.x());
+	}
+
+	/**
+	 * Checks that addAll() adds nothing, and fires no event, if any shape in
+	 * the batch cannot be added.
+	 */
+	@Test
+	public void testAddAllIsAllOrNothing() {
+		final boolean[] fired = {false};
+		_model.addShapeModelListener(new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				fired[0] = true;
+			}
+		});
+		Shape fits = new RectangleShape(0, 0, 1, 1, 10, 10);
+		Shape tooLarge = new RectangleShape(0, 0, 1, 1, 500, 10);
+
+		assertFalse(_model.addAll(Arrays.asList(fits, tooLarge), _carrier));
+		assertFalse(_model.addAll(Arrays.asList(fits, fits), _carrier));
+		assertFalse(_carrier.contains(fits));
+		assertEquals(2, _carrier.shapeCount());
+		assertFalse(fired[0]);
+	}
+
+	/**
+	 * Checks that clocking in parallel produces exactly the same positions as
+	 * clocking sequentially.
+	 */
+	@Test
+	public void testParallelClockMatchesSequentialClock() {
+		ShapeModel sequential = new ShapeModel(new Dimension(1000, 1000));
+		ShapeModel parallel = new ShapeModel(new Dimension(1000, 1000));
+		parallel.setParallelism(4, 16);
+		populate(sequential);
+		populate(parallel);
+
+		for (int i = 0; i < 100; i++) {
+			sequential.clock();
+			parallel.clock();
+		}
+
+		MockPainter expected = new MockPainter();
+		MockPainter actual = new MockPainter();
+		sequential.root().paint(expected);
+		parallel.root().paint(actual);
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+	/**
+	 * Checks that clock(n) leaves every shape, including nested shapes and
+	 * the fill state of dynamic shapes, in exactly the state reached by n
+	 * calls to clock().
+	 */
+	@Test
+	public void testClockTicksMatchesRepeatedClock() {
+		Random random = new Random(42);
+		for (int trial = 0; trial < 50; trial++) {
+			long seed = random.nextLong();
+			ShapeModel stepped = new ShapeModel(new Dimension(400, 300));
+			ShapeModel jumped = new ShapeModel(new Dimension(400, 300));
+			populateRandomly(stepped, new Random(seed));
+			populateRandomly(jumped, new Random(seed));
+
+			int ticks = random.nextInt(500);
+			for (int i = 0; i < ticks; i++) {
+				stepped.clock();
+			}
+			jumped.clock(ticks);
+
+			MockPainter expected = new MockPainter();
+			MockPainter actual = new MockPainter();
+			stepped.root().paint(expected);
+			jumped.root().paint(actual);
+			assertEquals(expected.toString(), actual.toString());
+		}
+	}
+
+	/**
+	 * Checks that clock(n) can jump a very large number of ticks.
+	 */
+	@Test
+	public void testClockManyTicks() {
+		ShapeModel model = new ShapeModel(new Dimension(100, 100));
+		Shape shape = new RectangleShape(0, 0, 3, 0, 10, 10);
+		model.add(shape, model.root());
+
+		// The shape crosses its 90 pixel range in 30 ticks, so it returns to
+		// its starting state every 60 ticks.
+		model.clock(60L * 1000000000L);
+		assertEquals(0, shape.x());
+		assertEquals(3, shape.deltaX());
+	}
+
+	/**
+	 * Checks that the ShapeMoved event fired by clock() identifies the union 
+	 * of the old and new areas painted by a moving shape, in world 
+	 * coordinates.
+	 */
+	@Test
+	public void testClockReportsDirtyRegion() {
+		ShapeModel model = new ShapeModel(new Dimension(500, 500));
+		CarrierShape carrier = new CarrierShape(100, 100, 0, 0, 200, 200);
+		Shape shape = new RectangleShape(10, 10, 5, 0, 20, 10);
+		model.add(carrier, model.root());
+		model.add(shape, carrier);
+		model.add(new RectangleShape(50, 50, 0, 0, 10, 10), carrier);
+
+		final ShapeModelEvent[] fired = new ShapeModelEvent[1];
+		model.addShapeModelListener(new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				fired[0] = event;
+			}
+		});
+
+		model.clock();
+		assertEquals(new Rectangle(110, 110, 26, 11), fired[0].dirtyRegion());
+
+		model.remove(shape);
+		assertEquals(new Rectangle(115, 110, 21, 11), fired[0].dirtyRegion());
+
+		model.clock();
+		assertNull(fired[0].dirtyRegion());
+	}
+
+	/**
+	 * Checks that shapes nested within a moving CarrierShape are treated as 
+	 * having moved, even though their positions relative to the carrier 
+	 * are unchanged.
+	 */
+	@Test
+	public void testClockReportsDirtyRegionOfCarriedShapes() {
+		ShapeModel model = new ShapeModel(new Dimension(500, 500));
+		CarrierShape carrier = new CarrierShape(100, 100, 1, 0, 200, 200);
+		model.add(carrier, model.root());
+		model.add(new RectangleShape(150, 20, 0, 0, 40, 10), carrier);
+
+		final ShapeModelEvent[] fired = new ShapeModelEvent[1];
+		model.addShapeModelListener(new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				fired[0] = event;
+			}
+		});
+
+		model.clock();
+		assertEquals(new Rectangle(100, 100, 202, 201), fired[0].dirtyRegion());
+	}
+
+	/**
+	 * Checks that queryPoint() and queryRect() return exactly the shapes 
+	 * found by exhaustively searching the hierarchy, as shapes move between
+	 * cells and are added and removed.
+	 */
+	@Test
+	public void testSpatialQueriesMatchExhaustiveSearch() {
+		Random random = new Random(7);
+		ShapeModel model = new ShapeModel(new Dimension(400, 300));
+		model.setSpatialIndexCellSize(32);
+		populateRandomly(model, random);
+		model.queryPoint(0, 0);
+
+		for (int tick = 0; tick < 100; tick++) {
+			model.clock();
+			if (tick % 10 == 0) {
+				CarrierShape carrier = (CarrierShape) model.root().shapeAt(random.nextInt(5));
+				model.remove(carrier.shapeAt(0));
+				model.add(new RectangleShape(random.nextInt(100), random.nextInt(50), 4, -3, 10, 10), carrier);
+			}
+
+			for (int i = 0; i < 20; i++) {
+				int x = random.nextInt(440) - 20;
+				int y = random.nextInt(340) - 20;
+				int width = 1 + random.nextInt(80);
+				int height = 1 + random.nextInt(80);
+
+				assertSameShapes(search(model.root(), 0, 0, x, y, 1, 1), model.queryPoint(x, y));
+				assertSameShapes(search(model.root(), 0, 0, x, y, width, height), 
+						model.queryRect(x, y, width, height));
+			}
+		}
+	}
+
+	/**
+	 * Checks that pick() returns the shape painted last at a point, taking 
+	 * the translation applied by nested CarrierShapes into account.
+	 */
+	@Test
+	public void testPickReturnsTopmostShape() {
+		ShapeModel model = new ShapeModel(new Dimension(500, 500));
+		CarrierShape carrier = new CarrierShape(100, 100, 0, 0, 200, 200);
+		Shape nested = new RectangleShape(10, 10, 0, 0, 50, 50);
+		Shape later = new RectangleShape(140, 140, 0, 0, 40, 40);
+		model.add(carrier, model.root());
+		model.add(nested, carrier);
+		model.add(later, model.root());
+
+		assertEquals(nested, model.pick(115, 115));
+		assertEquals(carrier, model.pick(105, 105));
+		assertEquals(later, model.pick(145, 145));
+		assertEquals(model.root(), model.pick(50, 50));
+		assertNull(model.pick(600, 600));
+	}
+
+	/**
+	 * Checks that, with collision detection enabled, each clock() reports
+	 * exactly those pairs of siblings that overlap but did not overlap after
+	 * the previous tick, as found by testing every pair.
+	 */
+	@Test
+	public void testCollisionsMatchExhaustiveSearch() {
+		Random random = new Random(11);
+		ShapeModel model = new ShapeModel(new Dimension(400, 300));
+		populateRandomly(model, random);
+		for (int i = 0; i < 40; i++) {
+			model.add(new RectangleShape(random.nextInt(350), random.nextInt(250), 
+					random.nextInt(21) - 10, random.nextInt(21) - 10, 1 + random.nextInt(40), 1 + random.nextInt(40)), model.root());
+		}
+		model.setCollisionDetection(true);
+
+		final List<Shape> reported = new ArrayList<Shape>();
+		model.addShapeModelListener(new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				if (event.eventType() == ShapeModelEvent.EventType.ShapesCollided) {
+					reported.addAll(event.operands());
+				}
+			}
+		});
+
+		// Shapes already overlapping when detection is enabled are reported
+		// on the first tick.
+		Set<String> previous = new HashSet<String>();
+		int collisions = 0;
+		for (int tick = 0; tick < 200; tick++) {
+			reported.clear();
+			model.clock();
+
+			Set<String> current = overlappingSiblings(model.root());
+			Set<String> expected = new HashSet<String>(current);
+			expected.removeAll(previous);
+			Set<String> actual = new HashSet<String>();
+			for (int i = 0; i < reported.size(); i += 2) {
+				actual.add(pairKey(reported.get(i), reported.get(i + 1)));
+			}
+			assertEquals(expected, actual);
+			assertEquals(reported.size(), 2 * actual.size());
+			collisions += actual.size();
+			previous = current;
+
+			if (tick % 20 == 0) {
+				CarrierShape carrier = (CarrierShape) model.root().shapeAt(random.nextInt(5));
+				model.remove(carrier.shapeAt(0));
+				previous = overlappingSiblings(model.root());
+
+				// Overlaps involving an added shape count as new collisions.
+				model.add(new RectangleShape(random.nextInt(100), random.nextInt(50), 4, -3, 10, 10), carrier);
+			}
+		}
+		assertTrue(collisions > 0);
+	}
+
+	/**
+	 * Checks that new collisions are still reported exactly after a burst of
+	 * overlapping Shapes disperses, leaving few overlaps.
+	 */
+	@Test
+	public void testCollisionsAfterBurst() {
+		ShapeModel model = new ShapeModel(new Dimension(2000, 2000));
+		for (int i = 0; i < 80; i++) {
+			model.add(new RectangleShape(1000, 1000, i % 9 - 4, i / 9 - 4, 20, 20), model.root());
+		}
+		model.setCollisionDetection(true);
+
+		final List<Shape> reported = new ArrayList<Shape>();
+		model.addShapeModelListener(new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				if (event.eventType() == ShapeModelEvent.EventType.ShapesCollided) {
+					reported.addAll(event.operands());
+				}
+			}
+		});
+
+		Set<String> previous = new HashSet<String>();
+		for (int tick = 0; tick < 300; tick++) {
+			reported.clear();
+			model.clock();
+
+			Set<String> expected = overlappingSiblings(model.root());
+			Set<String> current = new HashSet<String>(expected);
+			expected.removeAll(previous);
+			Set<String> actual = new HashSet<String>();
+			for (int i = 0; i < reported.size(); i += 2) {
+				actual.add(pairKey(reported.get(i), reported.get(i + 1)));
+			}
+			assertEquals(expected, actual);
+			previous = current;
+		}
+	}
+
+	/**
+	 * Checks that a Frame paints exactly what the live hierarchy painted when
+	 * the Frame was captured, even after further ticks.
+	 */
+	@Test
+	public void testFramePaintsCapturedState() {
+		assertNull(_model.acquireFrame());
+		_model.setFrameCapture(true);
+
+		for (int i = 0; i < 50; i++) {
+			_model.clock();
+		}
+		MockPainter expected = new MockPainter();
+		_model.root().paint(expected);
+		Frame frame = _model.acquireFrame();
+		assertEquals(50, frame.tick());
+
+		for (int i = 0; i < 20; i++) {
+			_model.clock();
+		}
+		MockPainter actual = new MockPainter();
+		frame.paint(actual);
+		frame.release();
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+	/**
+	 * Checks that a Frame can be painted part way between the previous tick 
+	 * and its own, with nested shapes carried along by their parents.
+	 */
+	@Test
+	public void testFramePaintsInterpolatedPositions() {
+		ShapeModel model = new ShapeModel(new Dimension(500, 500));
+		CarrierShape carrier = new CarrierShape(100, 100, 10, 0, 200, 200);
+		model.add(carrier, model.root());
+		model.add(new RectangleShape(10, 10, 0, 4, 20, 10), carrier);
+		model.setFrameCapture(true);
+		model.clock();
+		model.clock();
+
+		Frame frame = model.acquireFrame();
+		assertEquals(110, frame.previousX(1));
+		assertEquals(120, frame.x(1));
+
+		MockPainter halfway = new MockPainter();
+		frame.paint(halfway, 0.5);
+		frame.release();
+
+		MockPainter expected = new MockPainter();
+		expected.drawRect(0, 0, 500, 500);
+		expected.translate(0, 0);
+		expected.drawRect(115, 100, 200, 200);
+		expected.translate(115, 100);
+		expected.drawRect(10, 16, 20, 10);
+		expected.translate(-115, -100);
+		expected.translate(0, 0);
+		assertEquals(expected.toString(), halfway.toString());
+	}
+
+	/**
+	 * Checks that Frames read on another thread while the model is clocked 
+	 * are always consistent, and that Frames are recycled.
+	 */
+	@Test
+	public void testFramesAreConsistentAcrossThreads() throws InterruptedException {
+		ShapeModel model = new ShapeModel(new Dimension(1000000, 100));
+		final Shape shape = new RectangleShape(0, 0, 1, 0, 10, 10);
+		model.add(shape, model.root());
+		model.setFrameCapture(true);
+
+		final ShapeModel source = model;
+		final Set<Frame> seen = Collections.newSetFromMap(new IdentityHashMap<Frame, Boolean>());
+		final boolean[] consistent = {true};
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread reader = new Thread() {
+			public void run() {
+				while (!done.get()) {
+					Frame frame = source.acquireFrame();
+					seen.add(frame);
+					long tick = frame.tick();
+					for (int i = 0; i < 100; i++) {
+						consistent[0] &= frame.x(1) == tick && frame.worldX(1) == tick && frame.shape(1) == shape;
+					}
+					frame.release();
+				}
+			}
+		};
+		reader.start();
+		for (int i = 0; i < 20000; i++) {
+			model.clock();
+		}
+		done.set(true);
+		reader.join();
+
+		assertTrue(consistent[0]);
+		assertTrue(seen.size() <= 3);
+	}
+
+	/**
+	 * Checks that an asynchronously notified listener whose queue overflows
+	 * receives a single ShapeMoved event covering the ticks it missed when 
+	 * the Coalesce policy is used.
+	 */
+	@Test
+	public void testAsyncListenerCoalescesMoves() throws InterruptedException {
+		BlockingListener listener = new BlockingListener();
+		_model.addShapeModelListener(listener, ShapeModel.OverflowPolicy.Coalesce, 2);
+
+		_model.clock();
+		assertTrue(listener._started.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 10; i++) {
+			_model.clock();
+		}
+		listener.release(2);
+
+		assertEquals(2, listener._received.size());
+		// The merged event covers the area the oval occupied after the first tick.
+		assertTrue(listener._received.get(1).dirtyRegion().contains(new Rectangle(111, 91, 31, 21)));
+		_model.removeShapeModelListener(listener);
+	}
+
+	/**
+	 * Checks that an asynchronously notified listener whose queue overflows
+	 * receives only the most recent events when the DropOldest policy is 
+	 * used, and that clock() is not held up by the listener.
+	 */
+	@Test
+	public void testAsyncListenerDropsOldestEvents() throws InterruptedException {
+		BlockingListener listener = new BlockingListener();
+		_model.addShapeModelListener(listener, ShapeModel.OverflowPolicy.DropOldest, 3);
+
+		_model.clock();
+		assertTrue(listener._started.await(5, TimeUnit.SECONDS));
+		Shape added = new RectangleShape(1, 1, 1, 1, 5, 5);
+		for (int i = 0; i < 10; i++) {
+			_model.clock();
+		}
+		_model.add(added, _model.root());
+		listener.release(4);
+
+		assertEquals(4, listener._received.size());
+		assertEquals(ShapeModelEvent.EventType.ShapeMoved, listener._received.get(2).eventType());
+		assertEquals(added, listener._received.get(3).operand());
+		_model.removeShapeModelListener(listener);
+	}
+
+	/**
+	 * Checks that a producer blocked on the full queue of an asynchronously
+	 * notified listener is released, and that delivery continues, when the 
+	 * listener throws.
+	 */
+	@Test
+	public void testAsyncListenerSurvivesException() throws InterruptedException {
+		checkAsyncListenerSurvives(new IllegalStateException("listener failure"));
+	}
+
+	/**
+	 * Checks that a producer blocked on the full queue of an asynchronously
+	 * notified listener is released, and that delivery continues, when the 
+	 * listener throws an Error.
+	 */
+	@Test
+	public void testAsyncListenerSurvivesError() throws InterruptedException {
+		checkAsyncListenerSurvives(new Error("listener failure"));
+	}
+
+	/**
+	 * Checks that an asynchronously notified listener whose Executor rejects
+	 * delivery is treated as closed, without failing the model's mutators.
+	 */
+	@Test
+	public void testAsyncListenerRejectedByExecutor() {
+		final List<ShapeModelEvent> received = new ArrayList<ShapeModelEvent>();
+		ShapeModelListener listener = new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				received.add(event);
+			}
+		};
+		Executor executor = new Executor() {
+			public void execute(Runnable command) {
+				throw new RejectedExecutionException();
+			}
+		};
+		_model.addShapeModelListener(listener, ShapeModel.OverflowPolicy.Block, 1, executor);
+
+		_model.clock();
+		_model.clock();
+		_model.add(new RectangleShape(1, 1, 1, 1, 10, 10), _model.root());
+		assertTrue(received.isEmpty());
+		_model.removeShapeModelListener(listener);
+	}
+
+	/*
+	 * Runs testAsyncListenerSurvivesException with a listener that throws
+	 * failure, which must be unchecked.
+	 */
+	private void checkAsyncListenerSurvives(final Throwable failure) throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch delivered = new CountDownLatch(4);
+		ShapeModelListener listener = new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				delivered.countDown();
+				if (started.getCount() > 0) {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					if (failure instanceof Error) {
+						throw (Error) failure;
+					}
+					throw (RuntimeException) failure;
+				}
+			}
+		};
+		Executor executor = new Executor() {
+			public void execute(final Runnable command) {
+				Thread thread = new Thread(command);
+				thread.setDaemon(true);
+				thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+					public void uncaughtException(Thread t, Throwable e) {
+					}
+				});
+				thread.start();
+			}
+		};
+		_model.addShapeModelListener(listener, ShapeModel.OverflowPolicy.Block, 1, executor);
+
+		_model.clock();
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		_model.clock();
+		Thread producer = new Thread() {
+			public void run() {
+				// Blocks until the failing event has been handled.
+				_model.clock();
+				_model.clock();
+			}
+		};
+		producer.setDaemon(true);
+		producer.start();
+		Thread.sleep(50);
+		release.countDown();
+
+		producer.join(5000);
+		assertFalse(producer.isAlive());
+		assertTrue(delivered.await(5, TimeUnit.SECONDS));
+		_model.removeShapeModelListener(listener);
+	}
+
+	/*
+	 * Listener that blocks while handling the first event it receives, until
+	 * released.
+	 */
+	private static class BlockingListener implements ShapeModelListener {
+		final List<ShapeModelEvent> _received = Collections.synchronizedList(new ArrayList<ShapeModelEvent>());
+		final CountDownLatch _started = new CountDownLatch(1);
+		private final CountDownLatch _release = new CountDownLatch(1);
+		private volatile CountDownLatch _done;
+
+		public void update(ShapeModelEvent event) {
+			_received.add(event);
+			_started.countDown();
+			try {
+				_release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (_done != null) {
+				_done.countDown();
+			}
+		}
+
+		/*
+		 * Unblocks the listener and waits until it has received the 
+		 * specified number of events in total.
+		 */
+		void release(int expected) throws InterruptedException {
+			_done = new CountDownLatch(expected);
+			_release.countDown();
+			assertTrue(_done.await(5, TimeUnit.SECONDS));
+		}
+	}
+
+	/*
+	 * Returns a key for each pair of overlapping siblings in the hierarchy
+	 * rooted at carrier.
+	 */
+	private Set<String> overlappingSiblings(CarrierShape carrier) {
+		Set<String> pairs = new HashSet<String>();
+		for (int i = 0; i < carrier.shapeCount(); i++) {
+			Shape a = carrier.shapeAt(i);
+			for (int j = i + 1; j < carrier.shapeCount(); j++) {
+				Shape b = carrier.shapeAt(j);
+				if (a.x() < b.x() + b.width() && b.x() < a.x() + a.width() 
+						&& a.y() < b.y() + b.height() && b.y() < a.y() + a.height()) {
+					pairs.add(pairKey(a, b));
+				}
+			}
+			if (a instanceof CarrierShape) {
+				pairs.addAll(overlappingSiblings((CarrierShape) a));
+			}
+		}
+		return pairs;
+	}
+
+	private String pairKey(Shape a, Shape b) {
+		int first = System.identityHashCode(a);
+		int second = System.identityHashCode(b);
+		return Math.min(first, second) + ":" + Math.max(first, second);
+	}
+
+	/*
+	 * Returns the shapes in the hierarchy rooted at shape, whose parent has 
+	 * world position (originX, originY), whose painted area overlaps the 
+	 * specified rectangle.
+	 */
+	private List<Shape> search(Shape shape, int originX, int originY, int x, int y, int width, int height) {
+		List<Shape> found = new ArrayList<Shape>();
+		int worldX = originX + shape.x();
+		int worldY = originY + shape.y();
+		if (worldX < x + width && worldY < y + height 
+				&& worldX + shape.width() >= x && worldY + shape.height() >= y) {
+			found.add(shape);
+		}
+		if (shape instanceof CarrierShape) {
+			CarrierShape carrier = (CarrierShape) shape;
+			for (int i = 0; i < carrier.shapeCount(); i++) {
+				found.addAll(search(carrier.shapeAt(i), worldX, worldY, x, y, width, height));
+			}
+		}
+		return found;
+	}
+
+	/*
+	 * Asserts that two lists hold the same shapes, in any order.
+	 */
+	private void assertSameShapes(List<Shape> expected, List<Shape> actual) {
+		Comparator<Shape> byIdentity = new Comparator<Shape>() {
+			public int compare(Shape a, Shape b) {
+				return Integer.compare(System.identityHashCode(a), System.identityHashCode(b));
+			}
+		};
+		expected = new ArrayList<Shape>(expected);
+		actual = new ArrayList<Shape>(actual);
+		Collections.sort(expected, byIdentity);
+		Collections.sort(actual, byIdentity);
+		assertEquals(expected, actual);
+	}
+
+	/*
+	 * Adds random shapes, some with zero deltas or placed against the walls
+	 * of their parent, to the specified model.
+	 */
+	private void populateRandomly(ShapeModel model, Random random) {
+		for (int i = 0; i < 5; i++) {
+			CarrierShape carrier = new CarrierShape(random.nextInt(200), random.nextInt(150),
+					random.nextInt(21) - 10, random.nextInt(21) - 10, 150 + random.nextInt(50), 100 + random.nextInt(50));
+			model.add(carrier, model.root());
+			for (int j = 0; j < 10; j++) {
+				int width = 1 + random.nextInt(60);
+				int height = 1 + random.nextInt(60);
+				int x = random.nextBoolean() ? random.nextInt(150 - width) : 150 - width;
+				int y = random.nextBoolean() ? random.nextInt(100 - height) : 0;
+				int deltaX = random.nextInt(4) == 0 ? 0 : random.nextInt(41) - 20;
+				int deltaY = random.nextInt(4) == 0 ? 0 : random.nextInt(41) - 20;
+				model.add(new DynamicShape(x, y, deltaX, deltaY, width, height, Color.green), carrier);
+			}
+		}
+	}
+
+	/*
+	 * Adds a deterministic set of carriers, each holding a number of
+	 * simple and dynamic shapes, to the specified model.
+	 */
+	private void populate(ShapeModel model) {
+		for (int i = 0; i < 20; i++) {
+			CarrierShape carrier = new CarrierShape(i * 7, i * 11, i % 5 - 2, 3 - i % 4, 400, 300);
+			model.add(carrier, model.root());
+			for (int j = 0; j < 25; j++) {
+				model.add(new RectangleShape(j * 3, j * 5, j % 7 - 3, j % 9 - 4, 20, 15), carrier);
+				model.add(new DynamicShape(j * 5, j * 2, j % 6 + 1, -j % 5 - 1, 12, 12, Color.blue), carrier);
+			}
+		}
+	}
+}
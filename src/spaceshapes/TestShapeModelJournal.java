@@ -0,0 +1,187 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that a ShapeModel can be recovered from the snapshots and
+ * records written by a ShapeModelJournal.
+ *
+ */
+public class TestShapeModelJournal {
+
+	private File _directory;
+
+	private ShapeModel _model;
+
+	@Before
+	public void setUp() throws IOException {
+		_directory = Files.createTempDirectory("journal").toFile();
+		_model = new ShapeModel(new Dimension(400, 300));
+		_model.add(new RectangleShape(10, 10, 3, 2, 40, 30, "Before"), _model.root());
+		_model.clock(7);
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : _directory.listFiles()) {
+			file.delete();
+		}
+		_directory.delete();
+	}
+
+	/**
+	 * Checks that additions (including of CarrierShapes holding children),
+	 * removals and clocking, spread across several segments, are replayed.
+	 */
+	@Test
+	public void testRecoversJournaledChanges() throws Exception {
+		ShapeModelJournal journal = ShapeModelJournal.start(_model, _directory, 200, 5);
+		CarrierShape carrier = new CarrierShape(50, 40, 2, -3, 150, 120, "Carrier");
+		carrier.add(new DynamicShape(5, 5, 4, 3, 30, 20, new Color(1, 2, 3, 4)));
+		carrier.add(new OvalShape(60, 50, -2, 5, 20, 20));
+		_model.add(carrier, _model.root());
+		_model.clock(12);
+		OvalShape oval = new OvalShape(200, 100, 5, 5, 25, 25, "Oval");
+		HexagonShape hexagon = new HexagonShape(100, 200, -3, 1, 30, 25);
+		_model.addAll(Arrays.asList(oval, hexagon), _model.root());
+		for (int i = 0; i < 23; i++) {
+			_model.clock();
+		}
+		_model.add(new DynamicShape(1, 1, 3, 3, 20, 20, Color.RED), carrier);
+		_model.remove(_model.root().shapeAt(0));
+		_model.removeAll(Arrays.asList(carrier.shapeAt(1)), carrier);
+		_model.clock(4);
+		journal.close();
+
+		ShapeModel recovered = ShapeModelJournal.recover(_directory);
+		assertEquals(_model.tick(), recovered.tick());
+		TestSceneSnapshot.assertEqual(_model.root(), recovered.root());
+		_model.clock(50);
+		recovered.clock(50);
+		TestSceneSnapshot.assertEqual(_model.root(), recovered.root());
+	}
+
+	/**
+	 * Checks that a checkpoint supersedes earlier files and that journaling
+	 * can resume from a recovered model.
+	 */
+	@Test
+	public void testCheckpointAndResume() throws Exception {
+		ShapeModelJournal journal = ShapeModelJournal.start(_model, _directory, 200, 5);
+		_model.add(new OvalShape(0, 0, 1, 1, 10, 10), _model.root());
+		_model.clock(20);
+		journal.checkpoint();
+		_model.add(new RectangleShape(30, 30, -1, 2, 10, 10), _model.root());
+		journal.close();
+		assertEquals(2, _directory.list().length);
+
+		ShapeModel recovered = ShapeModelJournal.recover(_directory);
+		TestSceneSnapshot.assertEqual(_model.root(), recovered.root());
+
+		journal = ShapeModelJournal.start(recovered, _directory);
+		recovered.clock(3);
+		recovered.remove(recovered.root().shapeAt(1));
+		journal.close();
+
+		ShapeModel resumed = ShapeModelJournal.recover(_directory);
+		assertEquals(recovered.tick(), resumed.tick());
+		TestSceneSnapshot.assertEqual(recovered.root(), resumed.root());
+	}
+
+	/**
+	 * Checks that replay stops at a damaged record.
+	 */
+	@Test
+	public void testIgnoresDamagedRecord() throws Exception {
+		ShapeModelJournal journal = ShapeModelJournal.start(_model, _directory);
+		_model.add(new OvalShape(0, 0, 1, 1, 10, 10), _model.root());
+		_model.clock(3);
+		journal.close();
+
+		// Damage the final clock marker.
+		File segment = _directory.listFiles(new FilenameFilter() {
+			public boolean accept(File directory, String name) {
+				return name.endsWith(".log");
+			}
+		})[0];
+		byte[] bytes = Files.readAllBytes(segment.toPath());
+		int last = bytes.length - 1;
+		while (bytes[last] == 0) {
+			last--;
+		}
+		bytes[last] ^= 1;
+		Files.write(segment.toPath(), bytes);
+
+		ShapeModel recovered = ShapeModelJournal.recover(_directory);
+		assertEquals(7, recovered.tick());
+		assertEquals(2, recovered.root().shapeCount());
+	}
+
+	/**
+	 * Checks that once the writer has failed, the failure is reported by the
+	 * journal while the model, and its other listeners, carry on.
+	 */
+	@Test
+	public void testReportsWriterFailure() throws Exception {
+		ShapeModelJournal journal = ShapeModelJournal.start(_model, _directory, 1, 1);
+		final int[] events = new int[1];
+		_model.addShapeModelListener(new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				events[0]++;
+			}
+		});
+
+		// The writer cannot create the segment for the second record.
+		File blocker = new File(_directory, String.format("journal-%016d.log", 1));
+		blocker.mkdir();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (journal.failure() == null && System.nanoTime() < deadline) {
+			_model.clock();
+			Thread.sleep(10);
+		}
+		assertNotNull(journal.failure());
+
+		int before = events[0];
+		_model.clock();
+		_model.add(new RectangleShape(1, 1, 1, 1, 10, 10), _model.root());
+		assertEquals(before + 2, events[0]);
+
+		try {
+			journal.checkpoint();
+			fail();
+		} catch (IOException e) {
+			// Expected.
+		}
+		try {
+			journal.close();
+			fail();
+		} catch (IOException e) {
+			// Expected.
+		}
+		_model.clock();
+	}
+
+	/**
+	 * Checks that nothing is recovered from an empty directory.
+	 */
+	@Test
+	public void testRecoverWithoutSnapshot() throws IOException {
+		assertNull(ShapeModelJournal.recover(_directory));
+	}
+}
@@ -0,0 +1,118 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Dimension;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test the start/pause/step controls of class SimulationEngine.
+ *
+ */
+public class TestSimulationEngine {
+
+	private ShapeModel _model;
+	private Shape _shape;
+	private SimulationEngine _engine;
+
+	/**
+	 * Creates a model holding a single shape that moves one pixel per tick
+	 * without bouncing for the duration of each test.
+	 */
+	@Before
+	public void setUp() {
+		_model = new ShapeModel(new Dimension(1000000, 1000000));
+		_shape = new RectangleShape(1, 1, 1, 0, 10, 10);
+		_model.add(_shape, _model.root());
+		_engine = new SimulationEngine(_model, TimeUnit.MILLISECONDS.toNanos(1), 5);
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		_engine.stop();
+	}
+
+	/**
+	 * Checks that step() advances a paused simulation by exactly one tick.
+	 */
+	@Test
+	public void testStep() {
+		_engine.step();
+		_engine.step();
+
+		assertEquals(2, _engine.tickCount());
+		assertEquals(3, _shape.x());
+	}
+
+	/**
+	 * Checks that a started simulation ticks on its own thread, and that no
+	 * further ticks occur once it has been paused.
+	 */
+	@Test
+	public void testStartAndPause() throws InterruptedException {
+		_engine.start();
+		assertTrue(_engine.isRunning());
+		Thread.sleep(50);
+		_engine.pause();
+		assertFalse(_engine.isRunning());
+
+		long ticks = _engine.tickCount();
+		assertTrue(ticks > 0);
+		assertEquals(1 + ticks, _shape.x());
+
+		Thread.sleep(20);
+		assertEquals(ticks, _engine.tickCount());
+	}
+
+	/**
+	 * Checks that the engine can be queried and paused by a listener, and
+	 * queried by another thread, while a tick is in progress.
+	 */
+	@Test
+	public void testListenerDuringTick() throws InterruptedException {
+		final CountDownLatch ticking = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicBoolean released = new AtomicBoolean();
+		_model.addShapeModelListener(new ShapeModelListener() {
+			public void update(ShapeModelEvent event) {
+				if (event.eventType() == ShapeModelEvent.EventType.ShapeMoved && _engine.isRunning()) {
+					_engine.pause();
+					ticking.countDown();
+					try {
+						released.set(release.await(5, TimeUnit.SECONDS));
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		});
+		_engine.start();
+		assertTrue(ticking.await(5, TimeUnit.SECONDS));
+
+		// The tick is waiting for this thread, which must not block.
+		assertEquals(0, _engine.tickCount());
+		assertFalse(_engine.isRunning());
+		release.countDown();
+
+		_engine.pause();
+		assertTrue(released.get());
+		assertEquals(1, _engine.tickCount());
+	}
+
+	/**
+	 * Checks that step() is rejected while the simulation is running.
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void testStepWhileRunning() {
+		_engine.start();
+		_engine.step();
+	}
+}
@@ -0,0 +1,120 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that TiledRenderer produces exactly the pixels that painting
+ * a Frame with a single GraphicsPainter does.
+ *
+ */
+public class TestTiledRenderer {
+
+	private static final int WIDTH = 500;
+	private static final int HEIGHT = 350;
+
+	private ShapeModel _model;
+
+	private TiledRenderer _renderer;
+
+	@Before
+	public void setUpModel() {
+		_model = new ShapeModel(new Dimension(WIDTH, HEIGHT));
+		Random random = new Random(7);
+		BufferedImage picture = new BufferedImage(9, 7, BufferedImage.TYPE_INT_RGB);
+		for (int i = 0; i < 9 * 7; i++) {
+			picture.setRGB(i % 9, i / 9, random.nextInt());
+		}
+
+		for (int i = 0; i < 12; i++) {
+			CarrierShape carrier = new CarrierShape(random.nextInt(WIDTH - 150), random.nextInt(HEIGHT - 120), 3, 2,
+					150, 120, (i % 3 == 0) ? "Carrier " + i : null);
+			_model.add(carrier, _model.root());
+			_model.add(new OvalShape(random.nextInt(50), random.nextInt(40), 1, 1, 30 + random.nextInt(60),
+					20 + random.nextInt(60), "o" + i), carrier);
+			_model.add(new DynamicShape(random.nextInt(100), random.nextInt(80), 1, 1, 40, 30,
+					new Color(random.nextInt(256), 40, 200, (i % 2 == 0) ? 255 : 120)), carrier);
+			_model.add(new HexagonShape(random.nextInt(60), random.nextInt(40), 1, 1, 50, 40), carrier);
+			_model.add(new ImageRectangleShape(1, 1, picture), carrier);
+		}
+		for (int i = 0; i < 40; i++) {
+			_model.add(new OvalShape(random.nextInt(WIDTH - 200), random.nextInt(HEIGHT - 200), 2, 2,
+					1 + random.nextInt(199), 1 + random.nextInt(199)), _model.root());
+		}
+		// Ovals larger than the image, and crossing its edges.
+		_model.add(new OvalShape(-100, -60, 1, 1, WIDTH + 150, HEIGHT + 90), _model.root());
+		_model.add(new OvalShape(WIDTH - 80, HEIGHT - 50, 1, 1, 300, 200), _model.root());
+		_model.setFrameCapture(true);
+	}
+
+	@After
+	public void closeRenderer() {
+		if (_renderer != null) {
+			_renderer.close();
+		}
+	}
+
+	/**
+	 * Checks that tiled rendering matches a single GraphicsPainter for a
+	 * range of tile sizes, including tiles that do not divide the image.
+	 */
+	@Test
+	public void testTiledRenderingIsPixelIdentical() throws InterruptedException {
+		for (int tileSize : new int[] {17, 64, 1000}) {
+			_renderer = new TiledRenderer(tileSize, null);
+			for (int tick = 0; tick < 3; tick++) {
+				Frame frame = _model.acquireFrame();
+				try {
+					BufferedImage expected = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+					Graphics2D g = expected.createGraphics();
+					frame.paint(new GraphicsPainter(g));
+					g.dispose();
+
+					assertArrayEquals(pixels(expected), pixels(_renderer.render(frame, WIDTH, HEIGHT)));
+				} finally {
+					frame.release();
+				}
+				_model.clock();
+			}
+			_renderer.close();
+		}
+	}
+
+	/**
+	 * Checks that an image is cleared before being rendered into again.
+	 */
+	@Test
+	public void testRenderingReusesImage() throws InterruptedException {
+		_renderer = new TiledRenderer(32, null);
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Frame frame = _model.acquireFrame();
+		try {
+			_renderer.render(frame, image);
+		} finally {
+			frame.release();
+		}
+		_model.clock(5);
+
+		frame = _model.acquireFrame();
+		try {
+			_renderer.render(frame, image);
+			assertArrayEquals(pixels(_renderer.render(frame, WIDTH, HEIGHT)), pixels(image));
+		} finally {
+			frame.release();
+		}
+	}
+
+	private int[] pixels(BufferedImage image) {
+		return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	}
+}
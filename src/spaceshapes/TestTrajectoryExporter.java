@@ -0,0 +1,186 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class to test that TrajectoryReader returns exactly the rows, and the
+ * statistics, of the trajectories exported by a TrajectoryExporter.
+ *
+ */
+public class TestTrajectoryExporter {
+
+	private File _file;
+
+	// Expected rows: tick, id, x, y, deltaX, deltaY.
+	private List<long[]> _rows = new ArrayList<long[]>();
+
+	private TrajectoryReader _reader;
+
+	@Before
+	public void export() throws IOException {
+		_file = File.createTempFile("trajectory", ".spts");
+
+		ShapeModel model = new ShapeModel(new Dimension(300, 200));
+		CarrierShape carrier = new CarrierShape(20, 20, 3, 2, 150, 120);
+		model.add(new OvalShape(200, 50, -5, 3, 30, 30), model.root());
+		model.add(carrier, model.root());
+		model.add(new RectangleShape(10, 10, 4, 7, 20, 15), carrier);
+
+		TrajectoryExporter exporter = new TrajectoryExporter(model, _file, 7);
+		model.addShapeModelListener(exporter);
+		expect(model, exporter);
+		for (int tick = 1; tick <= 40; tick++) {
+			if (tick == 10) {
+				model.add(new HexagonShape(5, 5, 6, -2, 25, 20), carrier);
+			}
+			if (tick == 25) {
+				model.remove(model.root().shapeAt(0));
+			}
+			model.clock();
+			expect(model, exporter);
+		}
+		model.removeShapeModelListener(exporter);
+		exporter.close();
+
+		_reader = new TrajectoryReader(_file);
+	}
+
+	@After
+	public void deleteFile() throws IOException {
+		_reader.close();
+		_file.delete();
+	}
+
+	/**
+	 * Checks every row of every column, and the statistics of every chunk.
+	 */
+	@Test
+	public void testColumnsAndStatistics() throws IOException {
+		assertEquals(_rows.size(), _reader.rowCount());
+		assertEquals((_rows.size() + 6) / 7, _reader.rowGroupCount());
+
+		int row = 0;
+		for (int rowGroup = 0; rowGroup < _reader.rowGroupCount(); rowGroup++) {
+			int rows = _reader.rowCount(rowGroup);
+			assertTrue(rows == 7 || rowGroup == _reader.rowGroupCount() - 1);
+			for (TrajectoryReader.Column column : TrajectoryReader.Column.values()) {
+				long min = Long.MAX_VALUE;
+				long max = Long.MIN_VALUE;
+				for (int i = 0; i < rows; i++) {
+					long value;
+					if (column == TrajectoryReader.Column.Tick) {
+						LongBuffer ticks = _reader.ticks(rowGroup);
+						value = ticks.get(i);
+					} else {
+						IntBuffer values = _reader.column(rowGroup, column);
+						value = values.get(i);
+					}
+					assertEquals(_rows.get(row + i)[column.ordinal()], value);
+					min = Math.min(min, value);
+					max = Math.max(max, value);
+				}
+				assertEquals(min, _reader.min(rowGroup, column));
+				assertEquals(max, _reader.max(rowGroup, column));
+			}
+			row += rows;
+		}
+	}
+
+	/**
+	 * Checks that scanning a range of ids visits exactly the rows of those
+	 * Shapes, in order.
+	 */
+	@Test
+	public void testScanIdRange() throws IOException {
+		final List<long[]> visited = new ArrayList<long[]>();
+		assertEquals(_reader.rowGroupCount(), _reader.scan(TrajectoryReader.Column.DeltaY, 1, 2, new TrajectoryReader.RowVisitor() {
+			public void visit(long tick, int id, int value) {
+				visited.add(new long[] {tick, id, value});
+			}
+		}));
+
+		List<long[]> expected = new ArrayList<long[]>();
+		for (long[] row : _rows) {
+			if (row[1] >= 1 && row[1] <= 2) {
+				expected.add(new long[] {row[0], row[1], row[5]});
+			}
+		}
+		assertEquals(expected.size(), visited.size());
+		for (int i = 0; i < expected.size(); i++) {
+			for (int j = 0; j < 3; j++) {
+				assertEquals(expected.get(i)[j], visited.get(i)[j]);
+			}
+		}
+	}
+
+	/**
+	 * Checks that scanning a range of ids skips the row groups that cannot
+	 * hold those ids, when there are more Shapes than rows in a row group.
+	 */
+	@Test
+	public void testScanSkipsRowGroups() throws IOException {
+		File file = File.createTempFile("trajectory", ".spts");
+		try {
+			ShapeModel model = new ShapeModel(new Dimension(300, 200));
+			for (int i = 0; i < 40; i++) {
+				model.add(new RectangleShape(i, i, 1, 1, 10, 10), model.root());
+			}
+			TrajectoryExporter exporter = new TrajectoryExporter(model, file, 8);
+			model.addShapeModelListener(exporter);
+			for (int tick = 0; tick < 10; tick++) {
+				model.clock();
+			}
+			model.removeShapeModelListener(exporter);
+			exporter.close();
+
+			TrajectoryReader reader = new TrajectoryReader(file);
+			try {
+				final int[] rows = {0};
+				int read = reader.scan(TrajectoryReader.Column.X, 10, 12, new TrajectoryReader.RowVisitor() {
+					public void visit(long tick, int id, int value) {
+						assertEquals(id + tick, value);
+						rows[0]++;
+					}
+				});
+				// 40 Shapes in groups of 8 rows: ids 10 to 12 lie in one
+				// row group per tick.
+				assertEquals(55, reader.rowGroupCount());
+				assertEquals(11, read);
+				assertEquals(33, rows[0]);
+			} finally {
+				reader.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	private void expect(ShapeModel model, TrajectoryExporter exporter) {
+		List<Shape> shapes = new ShapeListing(model).shapes();
+		List<long[]> rows = new ArrayList<long[]>();
+		for (Shape shape : shapes) {
+			rows.add(new long[] {model.tick(), exporter.id(shape), shape.x(), shape.y(), shape.deltaX(), shape.deltaY()});
+		}
+		Collections.sort(rows, new Comparator<long[]>() {
+			public int compare(long[] a, long[] b) {
+				return Long.compare(a[1], b[1]);
+			}
+		});
+		_rows.addAll(rows);
+	}
+}
@@ -0,0 +1,396 @@
+package spaceshapes;
+
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Class that renders Frames into TYPE_INT_RGB BufferedImages using several
+ * threads. The image is divided into square tiles; each Shape in the Frame is
+ * assigned to the tiles its world bounds (including any text) overlap, and
+ * each tile is then painted, in parallel with the others, by its own
+ * GraphicsPainter clipped to the tile.
+ *
+ * The result is pixel-identical to painting the Frame with a single
+ * GraphicsPainter onto a new image of the same size. Java2D rasterises an
+ * oval differently when it crosses a clip boundary, so an oval that does not
+ * lie wholly within a tile is rasterised, once per render and unclipped, into
+ * a scratch image covering its bounds within the target; the resulting mask
+ * is shared by the tiles the oval crosses, each of which copies its share of
+ * the oval's pixels.
+ *
+ * A TiledRenderer may be used by one thread at a time. The Frame being
+ * rendered must be held (not released) until render() returns.
+ */
+public final class TiledRenderer {
+	// Default width and height of a tile, in pixels.
+	public static final int DEFAULT_TILE_SIZE = 64;
+
+	private final int _tileSize;
+
+	private final ExecutorService _executor;
+
+	// Executor created by this TiledRenderer, shut down by close().
+	private final ExecutorService _ownExecutor;
+
+	/**
+	 * Creates a TiledRenderer with the default tile size, using one thread
+	 * per available processor.
+	 */
+	public TiledRenderer() {
+		this(DEFAULT_TILE_SIZE, null);
+	}
+
+	/**
+	 * Creates a TiledRenderer.
+	 * @param tileSize the width and height of a tile, in pixels.
+	 * @param executor the ExecutorService that paints tiles, or null to use
+	 * a pool of daemon threads, one per available processor.
+	 * @throws IllegalArgumentException if tileSize is less than 1.
+	 */
+	public TiledRenderer(int tileSize, ExecutorService executor) {
+		if (tileSize < 1) {
+			throw new IllegalArgumentException();
+		}
+		_tileSize = tileSize;
+
+		if (executor == null) {
+			_ownExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "TiledRenderer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			_executor = _ownExecutor;
+		} else {
+			_ownExecutor = null;
+			_executor = executor;
+		}
+	}
+
+	/**
+	 * Renders frame into a new TYPE_INT_RGB image of the specified size.
+	 */
+	public BufferedImage render(Frame frame, int width, int height) throws InterruptedException {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		render(frame, image);
+		return image;
+	}
+
+	/**
+	 * Clears image to black and renders frame into it.
+	 * @throws IllegalArgumentException if image is not of TYPE_INT_RGB.
+	 */
+	public void render(final Frame frame, final BufferedImage image) throws InterruptedException {
+		if (image.getType() != BufferedImage.TYPE_INT_RGB) {
+			throw new IllegalArgumentException();
+		}
+		final int columns = (image.getWidth() + _tileSize - 1) / _tileSize;
+		final int rows = (image.getHeight() + _tileSize - 1) / _tileSize;
+		final int[][] bins = bin(frame, image, columns, rows);
+
+		// Masks of the ovals that cross tiles, keyed by their bounds.
+		final ConcurrentMap<Rectangle, FutureTask<BitSet>> ovals = new ConcurrentHashMap<Rectangle, FutureTask<BitSet>>();
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				final int tile = row * columns + column;
+				final int tileX = column * _tileSize;
+				final int tileY = row * _tileSize;
+				tasks.add(new Callable<Void>() {
+					public Void call() {
+						paintTile(frame, image, bins[tile], tileX, tileY, ovals);
+						return null;
+					}
+				});
+			}
+		}
+
+		for (Future<Void> future : _executor.invokeAll(tasks)) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				throw rethrow(e);
+			}
+		}
+	}
+
+	/**
+	 * Shuts down the threads created by this TiledRenderer, if any.
+	 */
+	public void close() {
+		if (_ownExecutor != null) {
+			_ownExecutor.shutdown();
+		}
+	}
+
+	/*
+	 * Returns, for each tile, the indices in paint order of the Shapes in
+	 * frame that may paint within it. The first element of each bin is the
+	 * number of indices that follow.
+	 */
+	private int[][] bin(Frame frame, BufferedImage image, int columns, int rows) {
+		int[][] bins = new int[columns * rows][];
+		for (int tile = 0; tile < bins.length; tile++) {
+			bins[tile] = new int[8];
+		}
+
+		Graphics2D g = image.createGraphics();
+		FontMetrics metrics = g.getFontMetrics();
+		g.dispose();
+
+		for (int i = 0; i < frame.size(); i++) {
+			int left = frame.worldX(i);
+			int top = frame.worldY(i);
+			int right = left + frame.width(i);
+			int bottom = top + frame.height(i);
+
+			// Centred text may extend beyond its shape on every side.
+			String text = frame.text(i);
+			if (text != null) {
+				int marginX = metrics.stringWidth(text) / 2 + metrics.getHeight();
+				int marginY = metrics.getHeight();
+				left -= marginX;
+				right += marginX;
+				top -= marginY;
+				bottom += marginY;
+			}
+
+			int firstColumn = Math.max(0, floorDiv(left, _tileSize));
+			int lastColumn = Math.min(columns - 1, floorDiv(right, _tileSize));
+			int firstRow = Math.max(0, floorDiv(top, _tileSize));
+			int lastRow = Math.min(rows - 1, floorDiv(bottom, _tileSize));
+			for (int row = firstRow; row <= lastRow; row++) {
+				for (int column = firstColumn; column <= lastColumn; column++) {
+					int tile = row * columns + column;
+					int[] bin = bins[tile];
+					int count = bin[0] + 1;
+					if (count == bin.length) {
+						bin = bins[tile] = Arrays.copyOf(bin, count * 2);
+					}
+					bin[count] = i;
+					bin[0] = count;
+				}
+			}
+		}
+		return bins;
+	}
+
+	/*
+	 * Clears the tile at (tileX, tileY) and paints the Shapes in bin onto it,
+	 * in the same order as Frame.paint() would.
+	 */
+	private void paintTile(Frame frame, BufferedImage image, int[] bin, int tileX, int tileY,
+			ConcurrentMap<Rectangle, FutureTask<BitSet>> ovals) {
+		Rectangle tile = new Rectangle(tileX, tileY,
+				Math.min(_tileSize, image.getWidth() - tileX), Math.min(_tileSize, image.getHeight() - tileY));
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		for (int y = tile.y; y < tile.y + tile.height; y++) {
+			Arrays.fill(pixels, y * image.getWidth() + tile.x, y * image.getWidth() + tile.x + tile.width, 0);
+		}
+
+		Graphics2D g = image.createGraphics();
+		TilePainter painter = new TilePainter(g, image, tile, ovals);
+		try {
+			// CarrierShapes whose text is painted after the Shapes they contain.
+			int[] pending = new int[8];
+			int depth = 0;
+
+			for (int k = 1; k <= bin[0]; k++) {
+				int i = bin[k];
+				while (depth > 0 && frame.end(pending[depth - 1]) <= i) {
+					paintText(frame, painter, pending[--depth]);
+				}
+
+				int originX = frame.worldX(i) - frame.x(i);
+				int originY = frame.worldY(i) - frame.y(i);
+				painter.translate(originX, originY);
+				frame.shape(i).doPaint(painter, frame.x(i), frame.y(i), frame.width(i), frame.height(i), frame.isFilled(i));
+				painter.translate(-originX, -originY);
+
+				if (frame.end(i) > i + 1) {
+					if (depth == pending.length) {
+						pending = Arrays.copyOf(pending, depth * 2);
+					}
+					pending[depth++] = i;
+				} else {
+					paintText(frame, painter, i);
+				}
+			}
+			while (depth > 0) {
+				paintText(frame, painter, pending[--depth]);
+			}
+		} finally {
+			g.dispose();
+		}
+	}
+
+	/*
+	 * Paints the text, if any, of the ith Shape in frame.
+	 */
+	private static void paintText(Frame frame, Painter painter, int i) {
+		String text = frame.text(i);
+		if (text != null) {
+			int originX = frame.worldX(i) - frame.x(i);
+			int originY = frame.worldY(i) - frame.y(i);
+			painter.translate(originX, originY);
+			Shape.paintText(painter, text, frame.x(i), frame.y(i), frame.width(i), frame.height(i));
+			painter.translate(-originX, -originY);
+		}
+	}
+
+	private static int floorDiv(int x, int y) {
+		int quotient = x / y;
+		return (x % y != 0 && (x < 0) != (y < 0)) ? quotient - 1 : quotient;
+	}
+
+	/*
+	 * Returns the unchecked cause of e, to be thrown in its place, or throws
+	 * it if it is an Error.
+	 */
+	private static RuntimeException rethrow(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof RuntimeException) {
+			return (RuntimeException) cause;
+		} else if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return new IllegalStateException(cause);
+	}
+
+	/*
+	 * Returns the pixels covered by an oval with the specified bounds, drawn
+	 * without a clip, within area (the part of its bounds inside the target
+	 * image); bit i represents pixel (area.x + i % area.width, area.y + i /
+	 * area.width). The oval is drawn into a scratch image covering area only:
+	 * rasterisation is unaffected by integer translation, and the scratch
+	 * image's edges fall either outside the oval or on the target's edges.
+	 */
+	private static BitSet rasteriseOval(int left, int top, int width, int height, Rectangle area) {
+		BufferedImage scratch = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = scratch.createGraphics();
+		try {
+			g.setColor(Color.WHITE);
+			g.drawOval(left - area.x, top - area.y, width, height);
+		} finally {
+			g.dispose();
+		}
+
+		int[] pixels = ((DataBufferInt) scratch.getRaster().getDataBuffer()).getData();
+		BitSet mask = new BitSet(pixels.length);
+		for (int i = 0; i < pixels.length; i++) {
+			if (pixels[i] != 0) {
+				mask.set(i);
+			}
+		}
+		return mask;
+	}
+
+	/*
+	 * GraphicsPainter that paints a single tile of a shared image. Ovals that
+	 * lie partly outside the tile are copied from a mask shared between tiles,
+	 * so that they are rasterised exactly as they would be without a clip.
+	 */
+	private final class TilePainter extends GraphicsPainter {
+		private final BufferedImage _image;
+
+		private final Rectangle _tile;
+
+		private final ConcurrentMap<Rectangle, FutureTask<BitSet>> _ovals;
+
+		// Total translation applied through this painter.
+		private int _translateX;
+
+		private int _translateY;
+
+		TilePainter(Graphics2D g, BufferedImage image, Rectangle tile, ConcurrentMap<Rectangle, FutureTask<BitSet>> ovals) {
+			super(g);
+			g.setClip(tile);
+			_image = image;
+			_tile = tile;
+			_ovals = ovals;
+		}
+
+		@Override
+		public void translate(int x, int y) {
+			super.translate(x, y);
+			_translateX += x;
+			_translateY += y;
+		}
+
+		@Override
+		public void drawOval(int x, int y, int width, int height) {
+			final int left = x + _translateX;
+			final int top = y + _translateY;
+			final int ovalWidth = width;
+			final int ovalHeight = height;
+			if (width < 0 || height < 0 || _tile.contains(left, top, width + 1, height + 1)) {
+				super.drawOval(x, y, width, height);
+				return;
+			}
+
+			final Rectangle area = new Rectangle(left, top, width + 1, height + 1)
+					.intersection(new Rectangle(0, 0, _image.getWidth(), _image.getHeight()));
+			Rectangle copy = area.intersection(_tile);
+			if (copy.isEmpty()) {
+				return;
+			}
+
+			// The first tile to need the oval rasterises it; the others wait
+			// for its mask.
+			Rectangle key = new Rectangle(left, top, width, height);
+			FutureTask<BitSet> task = new FutureTask<BitSet>(new Callable<BitSet>() {
+				public BitSet call() {
+					return rasteriseOval(left, top, ovalWidth, ovalHeight, area);
+				}
+			});
+			FutureTask<BitSet> existing = _ovals.putIfAbsent(key, task);
+			if (existing == null) {
+				task.run();
+			} else {
+				task = existing;
+			}
+			BitSet mask;
+			try {
+				mask = task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				throw rethrow(e);
+			}
+
+			int imageWidth = _image.getWidth();
+			int[] pixels = ((DataBufferInt) _image.getRaster().getDataBuffer()).getData();
+			Color colour = getColor();
+			boolean opaque = colour.getAlpha() == 255;
+			int rgb = colour.getRGB();
+			for (int row = copy.y; row < copy.y + copy.height; row++) {
+				int base = (row - area.y) * area.width - area.x;
+				int end = base + copy.x + copy.width;
+				for (int bit = mask.nextSetBit(base + copy.x); bit >= 0 && bit < end; bit = mask.nextSetBit(bit + 1)) {
+					int i = row * imageWidth + bit - base;
+					pixels[i] = opaque ? rgb : RasterPainter.blend(colour, pixels[i]);
+				}
+			}
+		}
+	}
+}
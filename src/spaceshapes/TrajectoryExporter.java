@@ -0,0 +1,319 @@
+package spaceshapes;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ShapeModelListener that streams the trajectory of every Shape in a
+ * ShapeModel, one row per Shape per tick, to a column-oriented file that a
+ * TrajectoryReader can scan.
+ *
+ * Each row holds a tick, the id of a Shape and its x, y, deltaX and deltaY
+ * values at that tick, with positions relative to the Shape's parent. A Shape
+ * is given an id, counting from 0, when it is first seen; ids are never
+ * reused. Within a tick, rows are in ascending order of id.
+ *
+ * Rows are gathered into row groups of a fixed number of rows (the last may
+ * be shorter). Each row group is written as one chunk per column, so a column
+ * can be read without reading the others, and the minimum and maximum value
+ * of every chunk are recorded in a footer at the end of the file:
+ * <pre>
+ *   "SPTS" version
+ *   row group: ticks (longs) ids xs ys deltaXs deltaYs (ints), padded to 8 bytes
+ *   ...
+ *   footer: row group count, then for each row group its row count, offset
+ *           and the minimum and maximum of each column
+ *   trailer: footer offset, "SPTS"
+ * </pre>
+ * All values are little-endian. Only one row group is held in memory, however
+ * long the model is recorded.
+ *
+ * Since rows are written tick by tick, a row group whose size exceeds the
+ * number of Shapes spans every id. For TrajectoryReader.scan() to skip row
+ * groups when reading a range of ids, the row group size must be smaller
+ * than the number of Shapes.
+ *
+ * A TrajectoryExporter must be registered as a synchronous listener of its
+ * model (see ShapeModel.addShapeModelListener(ShapeModelListener)).
+ *
+ */
+public final class TrajectoryExporter implements ShapeModelListener {
+	// Default number of rows in each row group.
+	public static final int DEFAULT_ROW_GROUP_SIZE = 64 * 1024;
+
+	// "SPTS", identifying a trajectory file.
+	static final int MAGIC = 0x53545053;
+
+	static final int VERSION = 1;
+
+	// Number of columns, in file order (see TrajectoryReader.Column).
+	static final int COLUMNS = 6;
+
+	private final ShapeModel _model;
+
+	private final int _rowGroupSize;
+
+	private final FileOutputStream _out;
+
+	private final FileChannel _channel;
+
+	private final ByteBuffer _buffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+	// Number of bytes written, including those buffered.
+	private long _offset;
+
+	// === Rows of the current row group. ===
+	private final long[] _ticks;
+
+	private final int[][] _columns;
+
+	private int _rows;
+	// ===
+
+	// Row count, offset and per-column minimum and maximum of each row group
+	// written.
+	private final List<long[]> _rowGroups = new ArrayList<long[]>();
+
+	// Ids of the Shapes in the model.
+	private Map<Shape, Integer> _ids = new IdentityHashMap<Shape, Integer>();
+
+	private int _nextId;
+
+	// The model's Shapes, in ascending order of id, and their ids.
+	private Shape[] _shapes;
+
+	private int[] _shapeIds;
+
+	// True if Shapes have been added or removed since the last tick recorded.
+	private boolean _changed = true;
+
+	// First failure to write the file, or null.
+	private IOException _failure;
+
+	/**
+	 * Creates a TrajectoryExporter that writes model's trajectories to file,
+	 * with the default row group size.
+	 */
+	public TrajectoryExporter(ShapeModel model, File file) throws IOException {
+		this(model, file, DEFAULT_ROW_GROUP_SIZE);
+	}
+
+	/**
+	 * Creates a TrajectoryExporter that writes model's trajectories to file,
+	 * replacing any existing content, and records the rows for the model's
+	 * current tick.
+	 * @throws IllegalArgumentException if rowGroupSize is less than 1.
+	 */
+	public TrajectoryExporter(ShapeModel model, File file, int rowGroupSize) throws IOException {
+		if (rowGroupSize < 1) {
+			throw new IllegalArgumentException();
+		}
+		_model = model;
+		_rowGroupSize = rowGroupSize;
+		_ticks = new long[rowGroupSize];
+		_columns = new int[COLUMNS - 1][rowGroupSize];
+		_out = new FileOutputStream(file);
+		_channel = _out.getChannel();
+		try {
+			putInt(MAGIC);
+			putInt(VERSION);
+			recordTick();
+		} catch (IOException e) {
+			_out.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Records the rows of each tick, and notes that Shapes have been added
+	 * or removed.
+	 */
+	public void update(ShapeModelEvent event) {
+		switch (event.eventType()) {
+		case ShapeMoved:
+			if (_failure == null) {
+				try {
+					recordTick();
+				} catch (IOException e) {
+					_failure = e;
+				}
+			}
+			break;
+		case ShapesCollided:
+			break;
+		default:
+			_changed = true;
+		}
+	}
+
+	/**
+	 * Returns the id given to shape, or -1 if shape is not in the model.
+	 */
+	public int id(Shape shape) {
+		Integer id = _ids.get(shape);
+		return (id == null) ? -1 : id;
+	}
+
+	/**
+	 * Writes the final row group and the footer, and closes the file. The
+	 * exporter should first be removed as a listener of its model.
+	 * @throws IOException if any part of the file could not be written.
+	 */
+	public void close() throws IOException {
+		try {
+			if (_failure == null) {
+				if (_rows > 0) {
+					writeRowGroup();
+				}
+				long footer = _offset;
+				putInt(_rowGroups.size());
+				for (long[] rowGroup : _rowGroups) {
+					for (long value : rowGroup) {
+						putLong(value);
+					}
+				}
+				putLong(footer);
+				putInt(MAGIC);
+				flush();
+			}
+		} catch (IOException e) {
+			_failure = e;
+		} finally {
+			_out.close();
+		}
+		if (_failure != null) {
+			throw _failure;
+		}
+	}
+
+	/*
+	 * Appends a row for every Shape at the model's current tick.
+	 */
+	private void recordTick() throws IOException {
+		if (_changed) {
+			listShapes();
+		}
+		long tick = _model.tick();
+		for (int i = 0; i < _shapes.length; i++) {
+			Shape shape = _shapes[i];
+			_ticks[_rows] = tick;
+			_columns[0][_rows] = _shapeIds[i];
+			_columns[1][_rows] = shape.x();
+			_columns[2][_rows] = shape.y();
+			_columns[3][_rows] = shape.deltaX();
+			_columns[4][_rows] = shape.deltaY();
+			if (++_rows == _rowGroupSize) {
+				writeRowGroup();
+			}
+		}
+	}
+
+	/*
+	 * Lists the model's Shapes in order of id, giving ids to new Shapes and
+	 * forgetting those removed.
+	 */
+	private void listShapes() {
+		List<Shape> shapes = new ShapeListing(_model).shapes();
+
+		Map<Shape, Integer> ids = new IdentityHashMap<Shape, Integer>();
+		long[] order = new long[shapes.size()];
+		for (int i = 0; i < order.length; i++) {
+			Shape shape = shapes.get(i);
+			Integer id = _ids.get(shape);
+			if (id == null) {
+				id = _nextId++;
+			}
+			ids.put(shape, id);
+			order[i] = ((long) id << 32) | i;
+		}
+		Arrays.sort(order);
+
+		_ids = ids;
+		_shapes = new Shape[order.length];
+		_shapeIds = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			_shapes[i] = shapes.get((int) order[i]);
+			_shapeIds[i] = (int) (order[i] >>> 32);
+		}
+		_changed = false;
+	}
+
+	/*
+	 * Writes the buffered rows as a row group and records its statistics.
+	 */
+	private void writeRowGroup() throws IOException {
+		long[] rowGroup = new long[2 + 2 * COLUMNS];
+		rowGroup[0] = _rows;
+		rowGroup[1] = _offset;
+
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for (int row = 0; row < _rows; row++) {
+			putLong(_ticks[row]);
+			min = Math.min(min, _ticks[row]);
+			max = Math.max(max, _ticks[row]);
+		}
+		rowGroup[2] = min;
+		rowGroup[3] = max;
+
+		for (int column = 0; column < COLUMNS - 1; column++) {
+			int[] values = _columns[column];
+			min = Long.MAX_VALUE;
+			max = Long.MIN_VALUE;
+			for (int row = 0; row < _rows; row++) {
+				putInt(values[row]);
+				min = Math.min(min, values[row]);
+				max = Math.max(max, values[row]);
+			}
+			rowGroup[4 + 2 * column] = min;
+			rowGroup[5 + 2 * column] = max;
+		}
+		while ((_offset & 7) != 0) {
+			put((byte) 0);
+		}
+
+		_rowGroups.add(rowGroup);
+		_rows = 0;
+	}
+
+	private void put(byte value) throws IOException {
+		ensure(1);
+		_buffer.put(value);
+		_offset++;
+	}
+
+	private void putInt(int value) throws IOException {
+		ensure(4);
+		_buffer.putInt(value);
+		_offset += 4;
+	}
+
+	private void putLong(long value) throws IOException {
+		ensure(8);
+		_buffer.putLong(value);
+		_offset += 8;
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (_buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		_buffer.flip();
+		while (_buffer.hasRemaining()) {
+			_channel.write(_buffer);
+		}
+		_buffer.clear();
+	}
+}
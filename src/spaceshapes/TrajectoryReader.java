@@ -0,0 +1,235 @@
+package spaceshapes;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Class that reads a trajectory file written by a TrajectoryExporter. Only the
+ * file's footer is read when it is opened; each chunk of a column is mapped
+ * into memory on its own when asked for, so files of any size can be read and
+ * scanning one column, or the rows of a range of Shape ids, leaves the rest of
+ * the file untouched.
+ *
+ * Row groups whose statistics show they hold no matching ids are skipped
+ * entirely by scan(). As rows are written tick by tick, a row group spans
+ * every id unless the model holds more Shapes than fit in a row group; only
+ * then does scanning a range of ids skip row groups.
+ *
+ */
+public class TrajectoryReader implements Closeable {
+	/**
+	 * Columns of a trajectory file.
+	 */
+	public enum Column {Tick, Id, X, Y, DeltaX, DeltaY};
+
+	/**
+	 * Receives the rows matched by a scan.
+	 */
+	public interface RowVisitor {
+		/**
+		 * Called for each row matched, in file order, with the value of the
+		 * column scanned.
+		 */
+		public void visit(long tick, int id, int value);
+	}
+
+	// Size of a row group's entry in the footer, in bytes.
+	private static final int ROW_GROUP_ENTRY = 8 * (2 + 2 * TrajectoryExporter.COLUMNS);
+
+	private final FileInputStream _in;
+
+	private final FileChannel _channel;
+
+	// Row group entries of the footer.
+	private final ByteBuffer _footer;
+
+	private final int _rowGroups;
+
+	/**
+	 * Opens the trajectory file file, which remains open until close() is
+	 * called.
+	 * @throws IOException if file cannot be read or is not a trajectory file.
+	 */
+	public TrajectoryReader(File file) throws IOException {
+		_in = new FileInputStream(file);
+		_channel = _in.getChannel();
+		try {
+			long size = _channel.size();
+			if (size < 24) {
+				throw new IOException(file + " is not a trajectory file");
+			}
+			ByteBuffer header = read(0, 8);
+			ByteBuffer trailer = read(size - 12, 12);
+			if (header.getInt(0) != TrajectoryExporter.MAGIC || trailer.getInt(8) != TrajectoryExporter.MAGIC) {
+				throw new IOException(file + " is not a trajectory file");
+			}
+			if (header.getInt(4) != TrajectoryExporter.VERSION) {
+				throw new IOException(file + " has an unsupported version");
+			}
+			long footer = trailer.getLong(0);
+			if (footer < 8 || footer > size - 16) {
+				throw new IOException(file + " is corrupt");
+			}
+			_rowGroups = read(footer, 4).getInt(0);
+			long entries = size - 12 - footer - 4;
+			if (_rowGroups < 0 || (long) _rowGroups * ROW_GROUP_ENTRY != entries || entries > Integer.MAX_VALUE) {
+				throw new IOException(file + " is corrupt");
+			}
+			_footer = read(footer + 4, (int) entries);
+			for (int i = 0; i < _rowGroups; i++) {
+				int rows = rowCount(i);
+				if (rows < 0 || 8L * rows > Integer.MAX_VALUE || offset(i) < 8 || offset(i) + 28L * rows > footer) {
+					throw new IOException(file + " is corrupt");
+				}
+			}
+		} catch (IOException e) {
+			_in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the number of row groups.
+	 */
+	public int rowGroupCount() {
+		return _rowGroups;
+	}
+
+	/**
+	 * Returns the total number of rows.
+	 */
+	public long rowCount() {
+		long rows = 0;
+		for (int i = 0; i < _rowGroups; i++) {
+			rows += rowCount(i);
+		}
+		return rows;
+	}
+
+	/**
+	 * Returns the number of rows in row group rowGroup.
+	 */
+	public int rowCount(int rowGroup) {
+		return (int) entry(rowGroup, 0);
+	}
+
+	/**
+	 * Returns the smallest value of column within row group rowGroup.
+	 */
+	public long min(int rowGroup, Column column) {
+		return entry(rowGroup, 2 + 2 * column.ordinal());
+	}
+
+	/**
+	 * Returns the largest value of column within row group rowGroup.
+	 */
+	public long max(int rowGroup, Column column) {
+		return entry(rowGroup, 3 + 2 * column.ordinal());
+	}
+
+	/**
+	 * Returns the ticks of the rows of row group rowGroup.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public LongBuffer ticks(int rowGroup) throws IOException {
+		return chunk(offset(rowGroup), 8 * rowCount(rowGroup)).asLongBuffer();
+	}
+
+	/**
+	 * Returns the values of column for the rows of row group rowGroup.
+	 * @throws IllegalArgumentException if column is Column.Tick, whose values
+	 * are returned by ticks().
+	 * @throws IOException if the file cannot be read.
+	 */
+	public IntBuffer column(int rowGroup, Column column) throws IOException {
+		if (column == Column.Tick) {
+			throw new IllegalArgumentException();
+		}
+		int rows = rowCount(rowGroup);
+		long offset = offset(rowGroup) + 8L * rows + 4L * rows * (column.ordinal() - 1);
+		return chunk(offset, 4 * rows).asIntBuffer();
+	}
+
+	/**
+	 * Visits every row whose Shape id lies between firstId and lastId
+	 * (inclusive), with the value of column. Only the tick, id and column
+	 * chunks of row groups that may hold such rows are read.
+	 * @return the number of row groups read.
+	 * @throws IllegalArgumentException if column is Column.Tick.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public int scan(Column column, int firstId, int lastId, RowVisitor visitor) throws IOException {
+		if (column == Column.Tick) {
+			throw new IllegalArgumentException();
+		}
+		int read = 0;
+		for (int rowGroup = 0; rowGroup < _rowGroups; rowGroup++) {
+			if (max(rowGroup, Column.Id) < firstId || min(rowGroup, Column.Id) > lastId) {
+				continue;
+			}
+			boolean all = min(rowGroup, Column.Id) >= firstId && max(rowGroup, Column.Id) <= lastId;
+			LongBuffer ticks = ticks(rowGroup);
+			IntBuffer ids = column(rowGroup, Column.Id);
+			IntBuffer values = column(rowGroup, column);
+			for (int row = 0; row < ids.limit(); row++) {
+				int id = ids.get(row);
+				if (all || (id >= firstId && id <= lastId)) {
+					visitor.visit(ticks.get(row), id, values.get(row));
+				}
+			}
+			read++;
+		}
+		return read;
+	}
+
+	/**
+	 * Closes the file. Buffers already returned remain readable.
+	 */
+	public void close() throws IOException {
+		_in.close();
+	}
+
+	private long offset(int rowGroup) {
+		return entry(rowGroup, 1);
+	}
+
+	/*
+	 * Returns the field-th long of the footer entry for rowGroup.
+	 */
+	private long entry(int rowGroup, int field) {
+		if (rowGroup < 0 || rowGroup >= _rowGroups) {
+			throw new IndexOutOfBoundsException();
+		}
+		return _footer.getLong(rowGroup * ROW_GROUP_ENTRY + 8 * field);
+	}
+
+	/*
+	 * Maps length bytes of the file, starting at offset, into memory as a
+	 * little-endian buffer.
+	 */
+	private ByteBuffer chunk(long offset, int length) throws IOException {
+		return _channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/*
+	 * Reads length bytes of the file, starting at position, into a
+	 * little-endian buffer.
+	 */
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (_channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+		return buffer;
+	}
+}
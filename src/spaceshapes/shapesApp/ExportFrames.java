@@ -0,0 +1,49 @@
+package spaceshapes.shapesApp;
+
+import java.io.File;
+
+import spaceshapes.FrameExporter;
+import spaceshapes.ShapeModel;
+
+/**
+ * Command-line program that exports frames of the SpaceShape application's
+ * initial animation to image files, without displaying them. Usage:
+ *
+ * ExportFrames directory first last [png|raw]
+ *
+ * Frames for ticks first (inclusive) to last (exclusive) are rendered in
+ * parallel and written to directory, which is created if necessary. The
+ * number of frames exported per second is reported on completion.
+ *
+ */
+public class ExportFrames {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3 || args.length > 4) {
+			System.err.println("Usage: ExportFrames directory first last [png|raw]");
+			System.exit(1);
+		}
+		File directory = new File(args[0]);
+		long first = Long.parseLong(args[1]);
+		long last = Long.parseLong(args[2]);
+		FrameExporter.Format format = (args.length == 4 && args[3].equalsIgnoreCase("raw"))
+				? FrameExporter.Format.Raw : FrameExporter.Format.Png;
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			System.err.println("Cannot create " + directory);
+			System.exit(1);
+		}
+
+		final ShapeConfig config = ShapeConfig.instance();
+		FrameExporter exporter = new FrameExporter(new FrameExporter.ModelFactory() {
+			public ShapeModel create() {
+				ShapeModel model = new ShapeModel(config.getAnimationBounds());
+				SpaceShape.populateModel(model);
+				return model;
+			}
+		}, directory, format);
+
+		double framesPerSecond = exporter.export(first, last);
+		System.out.printf("Exported %d frames at %.1f frames per second%n", last - first, framesPerSecond);
+	}
+}
@@ -41,11 +41,16 @@ public class ShapeConfig {
 	private static final String ANIMATION_WIDTH = "animation_width";
 	private static final String ANIMATION_HEIGHT = "animation_height";
 	private static final String SHAPES = "shape_classes";
+	private static final String ANIMATION_MODE = "animation_mode";
+	
+	// Value of the animation_mode property that selects active rendering.
+	private static final String ACTIVE_MODE = "active";
 	
 	// Property values.
 	private Dimension _bounds;
 	private String[] _shapeClassNames;
 	private List<Class<? extends Shape>> _shapeClasses;
+	private boolean _activeRendering;
 	
 	// Singleton instance.
 	private static ShapeConfig instance;
@@ -106,6 +111,10 @@ public class ShapeConfig {
 			} else {
 				_shapeClassNames = shapeTypes.split("\\s+");
 			}
+			
+			// Read animation mode property; any value but "active" selects 
+			// passive rendering.
+			_activeRendering = ACTIVE_MODE.equalsIgnoreCase(props.getProperty(ANIMATION_MODE, "").trim());
 		}
 	} 
 	
@@ -120,6 +129,15 @@ public class ShapeConfig {
 		return _bounds;
 	}
 	
+	/**
+	 * Returns true if the animation_mode property is "active", in which case
+	 * the animation is painted by a render thread rather than in response to
+	 * repaint requests.
+	 */
+	public boolean isActiveRendering() {
+		return _activeRendering;
+	}
+	
 	/**
 	 * Returns an array of strings containing names of shape classes. If no 
 	 * shape classes are named in the properties file, this method returns an 
@@ -198,6 +216,9 @@ public class ShapeConfig {
 		System.out.println("Animation bounds ...");
 		System.out.println("  " + config.getAnimationBounds());
 		
+		System.out.println("Active rendering ...");
+		System.out.println("  " + config.isActiveRendering());
+		
 		System.out.println("Shape class names ... ");
 		for(String className : config.getShapeClassNames()) {
 			System.out.println("  " + className);
@@ -7,7 +7,12 @@ import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.BorderFactory;
 import javax.swing.DefaultComboBoxModel;
@@ -22,6 +27,7 @@ import javax.swing.JTable;
 import javax.swing.JTree;
 import javax.swing.SwingUtilities;
 import javax.swing.Timer;
+import javax.swing.border.TitledBorder;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
 import javax.swing.plaf.basic.BasicComboBoxRenderer;
@@ -41,6 +47,7 @@ import spaceshapes.forms.FormResolver;
 import spaceshapes.forms.util.Form;
 import spaceshapes.forms.util.FormComponent;
 import spaceshapes.forms.util.FormHandler;
+import spaceshapes.views.ActiveAnimationView;
 import spaceshapes.views.AnimationView;
 import spaceshapes.views.TableModelAdapter;
 import spaceshapes.views.Task2;
@@ -57,6 +64,10 @@ import spaceshapes.views.Task2;
  * (ShapeModelListeners). The application uses a ShapeConfig object to read 
  * properties from the spaceshapes.properties file, one of which is the name of a
  * ShapeFactory implementation class that is used to create Shapes on request. 
+ * If the animation_mode property is "active", the animation view is an 
+ * ActiveAnimationView, which paints from its own render thread and reports 
+ * the frame rate it achieves, instead of an AnimationView; picking shapes 
+ * with the mouse is then unavailable.
  * 
  * @author Paramvir Singh (Original Author - Ian Warren)
  * 
@@ -73,6 +84,7 @@ public class SpaceShape extends JPanel {
 	// View instances.
 	private JTree _treeView;
 	private AnimationView _animationView;
+	private ActiveAnimationView _activeAnimationView;
 	private JTable _tabularView;
 	
 	/*
@@ -87,7 +99,7 @@ public class SpaceShape extends JPanel {
 	private JButton _deleteShape;
 	private JComboBox<Class<? extends Shape>> _shapeTypes;
 	
-	// Shape selected in the JTree view.
+	// Shape selected in the JTree view (or by clicking in the animation view).
 	private Shape _shapeSelected;
 
 	/**
@@ -97,15 +109,18 @@ public class SpaceShape extends JPanel {
 		// Instantiate model and populate it with an initial set of shapes.
 		ShapeConfig config = ShapeConfig.instance();
 		_model = new ShapeModel(config.getAnimationBounds());
-		populateModel();
+		populateModel(_model);
 		
 		_comboBoxModel = new ShapeClassComboBoxModel();
 		
 		// Instantiate GUI objects and construct GUI.
 		buildGUI();
 		
-		// Register views with models.
-		_model.addShapeModelListener(_animationView);
+		// Register views with models. An ActiveAnimationView reads the 
+		// model's Frames rather than listening to it.
+		if(_animationView != null) {
+			_model.addShapeModelListener(_animationView);
+		}
 		_model.addShapeModelListener(_tableModelAdapter);
 		_model.addShapeModelListener(_treeModelAdapter);
 		
@@ -144,25 +159,25 @@ public class SpaceShape extends JPanel {
 	}
 	
 	/*
-	 * Adds shapes to the model.
+	 * Adds the application's initial set of shapes to model.
 	 */
-	private void populateModel() {
-		CarrierShape root = _model.root();
+	static void populateModel(ShapeModel model) {
+		CarrierShape root = model.root();
 		
-		_model.add(new RectangleShape(440, 0, 10, 10, 4, 2), root);
-		_model.add(new RectangleShape(0, 0, 5, 7), root);
-		_model.add(new HexagonShape(20, 20, 4, 4, 200, 20, "Space-Shape"), root);
-		_model.add(new RectangleShape(0, 0, 2, 2, 10, 10), root);
-		_model.add(new DynamicShape(0, 0, 2, 3, 180, 130, "Changes Color", Color.CYAN), root);
-		_model.add(new OvalShape(50,110,2,2), root);
+		model.add(new RectangleShape(440, 0, 10, 10, 4, 2), root);
+		model.add(new RectangleShape(0, 0, 5, 7), root);
+		model.add(new HexagonShape(20, 20, 4, 4, 200, 20, "Space-Shape"), root);
+		model.add(new RectangleShape(0, 0, 2, 2, 10, 10), root);
+		model.add(new DynamicShape(0, 0, 2, 3, 180, 130, "Changes Color", Color.CYAN), root);
+		model.add(new OvalShape(50,110,2,2), root);
 		
 
 		CarrierShape child = new CarrierShape(10, 10, 2, 2, 100, 100);
-		_model.add(new RectangleShape(10, 10, 10, 10, 4, 2), child);
-		_model.add(new DynamicShape(0, 0, 2, 3, 50, 80, Color.RED), child);
-		_model.add(new OvalShape(10,10,2,2, 60, 60), child);
-		_model.add(child, root);
-		_model.add(new DynamicShape(0,0,0,20,35,25), root);
+		model.add(new RectangleShape(10, 10, 10, 10, 4, 2), child);
+		model.add(new DynamicShape(0, 0, 2, 3, 50, 80, Color.RED), child);
+		model.add(new OvalShape(10,10,2,2, 60, 60), child);
+		model.add(child, root);
+		model.add(new DynamicShape(0,0,0,20,35,25), root);
 	}
 	
 	/*
@@ -245,6 +260,38 @@ public class SpaceShape extends JPanel {
 				_tableModelAdapter.setAdaptee(_shapeSelected);
 			}
 		});
+		
+		/*
+		 * Event handling code to be executed whenever the user clicks on a
+		 * shape in the animation view. The shape is selected in the JTree 
+		 * view, which in turn updates the buttons and the table view.
+		 */
+		if(_animationView != null) {
+			_animationView.addPropertyChangeListener(AnimationView.SELECTED_SHAPE_PROPERTY, new PropertyChangeListener() {
+				public void propertyChange(PropertyChangeEvent e) {
+					Shape shape = (Shape)e.getNewValue();
+					TreePath path = new TreePath(shape.path().toArray());
+					
+					_treeView.setSelectionPath(path);
+					_treeView.scrollPathToVisible(path);
+				}
+			});
+		}
+		
+		/*
+		 * Event handling code to be executed whenever the active animation 
+		 * view is shown. Its render thread can only be started once the view
+		 * is displayable, and stops by itself when the view is removed.
+		 */
+		if(_activeAnimationView != null) {
+			_activeAnimationView.addHierarchyListener(new HierarchyListener() {
+				public void hierarchyChanged(HierarchyEvent e) {
+					if((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0 && _activeAnimationView.isShowing()) {
+						_activeAnimationView.start();
+					}
+				}
+			});
+		}
 	}
 	
 	/*
@@ -262,7 +309,15 @@ public class SpaceShape extends JPanel {
 		_treeView = new JTree(_treeModelAdapter);
 		_treeView.getSelectionModel().setSelectionMode(TreeSelectionModel.SINGLE_TREE_SELECTION);
 		_tabularView = new JTable(_tableModelAdapter);
-		_animationView = new AnimationView(ShapeConfig.instance().getAnimationBounds());
+		Component animationView;
+		if(ShapeConfig.instance().isActiveRendering()) {
+			_activeAnimationView = new ActiveAnimationView(_model, ShapeConfig.instance().getAnimationBounds());
+			_activeAnimationView.setInterpolation(TimeUnit.MILLISECONDS.toNanos(DELAY));
+			animationView = _activeAnimationView;
+		} else {
+			_animationView = new AnimationView(ShapeConfig.instance().getAnimationBounds());
+			animationView = _animationView;
+		}
 		
 		/*
 		 * Create a panel to house the JTree component. The panel includes a 
@@ -279,12 +334,27 @@ public class SpaceShape extends JPanel {
 		 * titled border and scroll bars if the animation area exceeds the 
 		 * allocated screen space.
 		 */
-		JPanel animationPanel = new JPanel();
-		animationPanel.setBorder(BorderFactory.createTitledBorder("Space shape animation"));
-		JScrollPane scrollPaneForAnimation = new JScrollPane(_animationView);
+		final JPanel animationPanel = new JPanel();
+		final TitledBorder animationBorder = BorderFactory.createTitledBorder("Space shape animation");
+		animationPanel.setBorder(animationBorder);
+		JScrollPane scrollPaneForAnimation = new JScrollPane(animationView);
 		scrollPaneForAnimation.setPreferredSize(new Dimension(504,504));
 		animationPanel.add(scrollPaneForAnimation);
-		_animationView.setPreferredSize(ShapeConfig.instance().getAnimationBounds());
+		animationView.setPreferredSize(ShapeConfig.instance().getAnimationBounds());
+		
+		/*
+		 * When rendering actively, show the frame rate achieved in the 
+		 * animation panel's title, updated once a second.
+		 */
+		if(_activeAnimationView != null) {
+			Timer frameRateTimer = new Timer(1000, new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					animationBorder.setTitle(String.format("Space shape animation (%.0f fps)", _activeAnimationView.framesPerSecond()));
+					animationPanel.repaint();
+				}
+			});
+			frameRateTimer.start();
+		}
 
 		
 		/*
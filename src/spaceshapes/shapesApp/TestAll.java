@@ -14,6 +14,18 @@ import org.junit.runners.Suite;
  */
 @RunWith(Suite.class)
 @Suite.SuiteClasses({spaceshapes.TestCarrierShape.class, 
+	spaceshapes.TestFrameExporter.class, 
+	spaceshapes.TestGraphicsPainter.class, 
+	spaceshapes.TestMotionRecorder.class, 
+	spaceshapes.TestRasterPainter.class, 
+	spaceshapes.TestRecordingPainter.class, 
+	spaceshapes.TestSceneLoader.class, 
+	spaceshapes.TestSceneSnapshot.class, 
+	spaceshapes.TestShapeModel.class, 
+	spaceshapes.TestShapeModelJournal.class, 
+	spaceshapes.TestSimulationEngine.class, 
+	spaceshapes.TestTiledRenderer.class, 
+	spaceshapes.TestTrajectoryExporter.class, 
 	spaceshapes.views.TestTask1.class, 
 	spaceshapes.views.TestTask2.class,
 	spaceshapes.forms.TestImageShapeFormHandler.class})
@@ -0,0 +1,262 @@
+package spaceshapes.views;
+
+import java.awt.Canvas;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.TimeUnit;
+
+import spaceshapes.Frame;
+import spaceshapes.GraphicsPainter;
+import spaceshapes.ShapeModel;
+
+/**
+ * Class that presents an animation view of a ShapeModel using active
+ * rendering. Rather than waiting for Swing to coalesce and schedule repaint()
+ * requests, an ActiveAnimationView paints frames itself, from a dedicated
+ * render thread, at a fixed target rate. Each frame is drawn into the back
+ * buffer of a BufferStrategy (which Java2D backs with accelerated
+ * VolatileImages where possible) and then shown, so frame delivery does not
+ * depend on how busy the Event Dispatch Thread is.
+ *
+ * The view paints the Frames captured by the model (see
+ * ShapeModel.setFrameCapture()), so it never reads Shapes while the model is
+ * being clocked; it may optionally interpolate between ticks, as
+ * AnimationView does. The achieved frame rate is measured once a second.
+ *
+ * Because a BufferStrategy requires a heavyweight component, this view is an
+ * AWT Canvas. It must be displayable (i.e. added to a visible window) before
+ * start() is called.
+ *
+ */
+@SuppressWarnings("serial")
+public class ActiveAnimationView extends Canvas {
+	// Default target frame rate.
+	public static final int DEFAULT_FRAMES_PER_SECOND = 60;
+
+	// Model whose Frames are rendered.
+	private ShapeModel _model;
+
+	// Interval between frames, in nanoseconds.
+	private long _frameNanos;
+
+	// Length of a model tick when interpolating, otherwise 0.
+	private volatile long _tickNanos;
+
+	// Render thread, null when not running. A render thread exits as soon as
+	// it is no longer the current one.
+	private volatile Thread _thread;
+
+	// Frame rate achieved over the most recent measurement period.
+	private volatile double _framesPerSecond;
+
+	// Total number of frames shown.
+	private volatile long _frameCount;
+
+	/**
+	 * Creates an ActiveAnimationView of model with the default target frame
+	 * rate. Frame capture is enabled on the model; this constructor must
+	 * therefore be called on the thread that clocks the model.
+	 */
+	public ActiveAnimationView(ShapeModel model, Dimension bounds) {
+		this(model, bounds, DEFAULT_FRAMES_PER_SECOND);
+	}
+
+	/**
+	 * Creates an ActiveAnimationView of model. Frame capture is enabled on
+	 * the model; this constructor must therefore be called on the thread
+	 * that clocks the model.
+	 * @param model the ShapeModel to display.
+	 * @param bounds the size of the view.
+	 * @param framesPerSecond the target frame rate.
+	 * @throws IllegalArgumentException if framesPerSecond is not positive.
+	 */
+	public ActiveAnimationView(ShapeModel model, Dimension bounds, int framesPerSecond) {
+		if(framesPerSecond <= 0) {
+			throw new IllegalArgumentException();
+		}
+		_model = model;
+		_frameNanos = TimeUnit.SECONDS.toNanos(1) / framesPerSecond;
+		_model.setFrameCapture(true);
+
+		setBackground(Color.BLACK);
+		setPreferredSize(bounds);
+		setSize(bounds);
+
+		// All painting is done by the render thread.
+		setIgnoreRepaint(true);
+	}
+
+	/**
+	 * Enables or disables interpolated rendering; see
+	 * AnimationView.setInterpolation().
+	 * @param tickNanos the interval at which the model is clocked, in
+	 * nanoseconds, or 0 to disable interpolation.
+	 * @throws IllegalArgumentException if tickNanos is negative.
+	 */
+	public void setInterpolation(long tickNanos) {
+		if(tickNanos < 0) {
+			throw new IllegalArgumentException();
+		}
+		_tickNanos = tickNanos;
+	}
+
+	/**
+	 * Starts the render thread. Has no effect if it is already running.
+	 * @throws IllegalStateException if this view is not displayable.
+	 */
+	public synchronized void start() {
+		if(!isDisplayable()) {
+			throw new IllegalStateException();
+		}
+		if(_thread == null) {
+			createBufferStrategy(2);
+			_thread = new Thread(new Runnable() {
+				public void run() {
+					renderLoop();
+				}
+			}, "ActiveAnimationView");
+			_thread.setDaemon(true);
+			_thread.start();
+		}
+	}
+
+	/**
+	 * Stops the render thread and waits for it to terminate. Must not be
+	 * called while holding the AWT tree lock, which the render thread may
+	 * need in order to finish its frame.
+	 */
+	public void stop() throws InterruptedException {
+		Thread thread = halt();
+		if(thread != null) {
+			thread.join();
+		}
+	}
+
+	/**
+	 * Stops rendering when this view stops being displayable, since its
+	 * BufferStrategy is then no longer usable. AWT calls this method holding
+	 * the tree lock, so the render thread is told to stop but not waited for.
+	 */
+	@Override
+	public void removeNotify() {
+		halt();
+		super.removeNotify();
+	}
+
+	/**
+	 * Returns the frame rate achieved over the most recent second.
+	 */
+	public double framesPerSecond() {
+		return _framesPerSecond;
+	}
+
+	/**
+	 * Returns the number of frames shown since the view was created.
+	 */
+	public long frameCount() {
+		return _frameCount;
+	}
+
+	/*
+	 * Detaches and interrupts the render thread, if any, returning it.
+	 */
+	private synchronized Thread halt() {
+		Thread thread = _thread;
+		_thread = null;
+		if(thread != null) {
+			thread.interrupt();
+		}
+		return thread;
+	}
+
+	/*
+	 * Body of the render thread: renders a frame at each point of an ideal
+	 * timeline, skipping frames rather than bursting when it falls behind.
+	 */
+	private void renderLoop() {
+		Thread current = Thread.currentThread();
+		BufferStrategy strategy = getBufferStrategy();
+		GraphicsPainter painter = null;
+		long next = System.nanoTime();
+		long periodStart = next;
+		long periodFrames = 0;
+
+		while(_thread == current) {
+			long now = System.nanoTime();
+			if(now - next < 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(next - now);
+				} catch(InterruptedException e) {
+					return;
+				}
+				continue;
+			}
+			next += _frameNanos;
+			if(now - next >= 0) {
+				next = now + _frameNanos;
+			}
+
+			// Render until the back buffer's contents survive to be shown.
+			try {
+				do {
+					do {
+						Graphics g = strategy.getDrawGraphics();
+						try {
+							if(painter == null) {
+								painter = new GraphicsPainter(g);
+							} else {
+								painter.setGraphics(g);
+							}
+							render(g, painter);
+						} finally {
+							g.dispose();
+						}
+					} while(strategy.contentsRestored());
+					strategy.show();
+				} while(strategy.contentsLost());
+			} catch(IllegalStateException e) {
+				// The view's peer was destroyed after removeNotify() stopped
+				// this thread.
+				if(_thread != current) {
+					return;
+				}
+				throw e;
+			}
+
+			_frameCount++;
+			periodFrames++;
+			long elapsed = now - periodStart;
+			if(elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+				_framesPerSecond = periodFrames * (double)TimeUnit.SECONDS.toNanos(1) / elapsed;
+				periodStart = now;
+				periodFrames = 0;
+			}
+		}
+	}
+
+	/*
+	 * Clears the back buffer and paints the model's latest Frame onto it.
+	 */
+	private void render(Graphics g, GraphicsPainter painter) {
+		Color colour = g.getColor();
+		g.setColor(getBackground());
+		g.fillRect(0, 0, getWidth(), getHeight());
+		g.setColor(colour);
+
+		Frame frame = _model.acquireFrame();
+		if(frame != null) {
+			try {
+				long tickNanos = _tickNanos;
+				if(tickNanos > 0) {
+					frame.paint(painter, (double)(System.nanoTime() - frame.nanoTime()) / tickNanos);
+				} else {
+					frame.paint(painter);
+				}
+			} finally {
+				frame.release();
+			}
+		}
+	}
+}
@@ -2,13 +2,24 @@ package spaceshapes.views;
 
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 
 import javax.swing.JPanel;
+import javax.swing.Timer;
 
 import spaceshapes.GraphicsPainter;
 import spaceshapes.CarrierShape;
+import spaceshapes.Frame;
 import spaceshapes.Painter;
+import spaceshapes.Shape;
+import spaceshapes.ShapeModel;
 import spaceshapes.ShapeModelEvent;
 import spaceshapes.ShapeModelListener;
 
@@ -20,14 +31,65 @@ import spaceshapes.ShapeModelListener;
  * animation, removing a deleted shape from the animation, or updating the 
  * positions of shapes that have moved.
  * 
+ * Rather than repainting the whole panel on every update, an AnimationView
+ * repaints only the dirty region described by each ShapeModelEvent, and does
+ * not repaint at all when nothing has changed. Because text is centred on
+ * a shape and may be painted beyond its bounds, dirty regions are enlarged by
+ * a margin derived from the widest text of any shape seen so far.
+ * 
+ * If the model captures Frames, the view paints the latest Frame rather than
+ * walking the live composition hierarchy, so painting is unaffected by a 
+ * model being clocked on another thread. Frames also allow interpolated
+ * rendering (see setInterpolation()): the view then repaints at display rate,
+ * painting each shape part way between its positions at the two most recent
+ * ticks, so that motion is smooth even when the model is clocked slowly.
+ * 
+ * An AnimationView also supports picking with the mouse. The shape under the
+ * cursor is found with ShapeModel.pick() and is outlined by a hover 
+ * highlight, which is repainted on its own as the cursor or the shape moves.
+ * Clicking selects the shape under the cursor: the view fires a property 
+ * change event for SELECTED_SHAPE_PROPERTY whose new value is the shape.
+ * 
  * @author Ian Warren
  *
  */
 public class AnimationView extends JPanel implements ShapeModelListener {
 
+	// Name of the bound property fired when a shape is clicked on.
+	public static final String SELECTED_SHAPE_PROPERTY = "selectedShape";
+	
+	// Gap between a hovered shape and its highlight.
+	private static final int HIGHLIGHT_GAP = 2;
+	
+	// Delay between repaints when rendering with interpolation (about 60 Hz).
+	private static final int RENDER_DELAY = 16;
+	
 	// Reference to root CarrierShape.
 	private CarrierShape _root;
 	
+	// Model whose shapes are displayed, used for picking.
+	private ShapeModel _model;
+	
+	// Position of the mouse cursor, or null when it is outside the view.
+	private Point _mouse;
+	
+	// Area covered by the hover highlight, or null when nothing is hovered.
+	private Rectangle _hoverBounds;
+	
+	// Length of a model tick when rendering with interpolation, otherwise 0.
+	private long _tickNanos;
+	
+	// Timer that repaints the view when rendering with interpolation.
+	private Timer _renderTimer;
+	
+	// Painter reused by each call to paintComponent().
+	private GraphicsPainter _painter;
+	
+	// Amount by which text may extend horizontally / vertically beyond the 
+	// bounds of a shape.
+	private int _textMarginX;
+	private int _textMarginY;
+	
 	/**
 	 * Creates an AnimationView object with specified bounds.
 	 */
@@ -36,6 +98,29 @@ public class AnimationView extends JPanel implements ShapeModelListener {
 		_root = null;
 		
 		setSize(bounds.width, bounds.height);
+		
+		MouseAdapter mouseHandler = new MouseAdapter() {
+			public void mouseMoved(MouseEvent e) {
+				_mouse = e.getPoint();
+				updateHover();
+			}
+			
+			public void mouseExited(MouseEvent e) {
+				_mouse = null;
+				updateHover();
+			}
+			
+			public void mouseClicked(MouseEvent e) {
+				if(_model != null) {
+					Shape shape = _model.pick(e.getX(), e.getY());
+					if(shape != null) {
+						firePropertyChange(SELECTED_SHAPE_PROPERTY, null, shape);
+					}
+				}
+			}
+		};
+		addMouseListener(mouseHandler);
+		addMouseMotionListener(mouseHandler);
 	}
 	
 	/**
@@ -46,16 +131,69 @@ public class AnimationView extends JPanel implements ShapeModelListener {
 		super.paintComponent(g);
 		
 		
-		// Create a GraphicsPainter to paint the Swing component.
-		Painter painter = new GraphicsPainter(g);
+		// Point the GraphicsPainter at the Swing component's Graphics.
+		if(_painter == null) {
+			_painter = new GraphicsPainter(g);
+		} else {
+			_painter.setGraphics(g);
+		}
+		_painter.setTextMargin(_textMarginX, _textMarginY);
+		Painter painter = _painter;
 		
 		/*
 		 * Paint the shapes, starting with the root and recursively work
 		 * through the composition structure.
 		 */
-		if(_root != null) {
+		Frame frame = (_model == null) ? null : _model.acquireFrame();
+		if(frame != null) {
+			try {
+				if(_tickNanos > 0) {
+					// Blend by the fraction of a tick elapsed since capture.
+					frame.paint(painter, (double)(System.nanoTime() - frame.nanoTime()) / _tickNanos);
+				} else {
+					frame.paint(painter);
+				}
+			} finally {
+				frame.release();
+			}
+		} else if(_root != null) {
 			_root.paint(painter);
 		}
+		
+		if(_hoverBounds != null) {
+			g.setColor(Color.YELLOW);
+			g.drawRect(_hoverBounds.x, _hoverBounds.y, _hoverBounds.width - 1, _hoverBounds.height - 1);
+		}
+	}
+	
+	/**
+	 * Enables or disables interpolated rendering. When enabled, and provided
+	 * the model captures Frames, the view repaints itself at display rate 
+	 * and paints each shape between its previous and current positions, 
+	 * blended by the fraction of a tick that has elapsed since the current 
+	 * Frame was captured. Shapes are thus shown one tick behind the model.
+	 * This method must be called on the Event Dispatch Thread.
+	 * @param tickNanos the interval at which the model is clocked, in 
+	 * nanoseconds, or 0 to disable interpolation.
+	 * @throws IllegalArgumentException if tickNanos is negative.
+	 */
+	public void setInterpolation(long tickNanos) {
+		if(tickNanos < 0) {
+			throw new IllegalArgumentException();
+		}
+		_tickNanos = tickNanos;
+		
+		if(tickNanos > 0 && _renderTimer == null) {
+			_renderTimer = new Timer(RENDER_DELAY, new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					repaint();
+				}
+			});
+			_renderTimer.start();
+		} else if(tickNanos == 0 && _renderTimer != null) {
+			_renderTimer.stop();
+			_renderTimer = null;
+		}
 	}
 	
 	/**
@@ -63,8 +201,92 @@ public class AnimationView extends JPanel implements ShapeModelListener {
 	 * that made the update() call.
 	 */
 	public void update(ShapeModelEvent event) {
-		_root = event.source().root();
-		repaint();
+		CarrierShape root = event.source().root();
+		
+		if(_root != root) {
+			// First event from this model: measure all text and paint everything.
+			_root = root;
+			_model = event.source();
+			measureText(_root);
+			repaint();
+			updateHover();
+			return;
+		}
+		
+		if(event.eventType() == ShapeModelEvent.EventType.ShapeAdded ||
+				event.eventType() == ShapeModelEvent.EventType.ShapesAdded) {
+			for(Shape shape : event.operands()) {
+				measureText(shape);
+			}
+		}
+		
+		Rectangle dirty = event.dirtyRegion();
+		if(dirty != null && _renderTimer == null) {
+			repaint(dirty.x - _textMarginX, dirty.y - _textMarginY, 
+					dirty.width + 2 * _textMarginX, dirty.height + 2 * _textMarginY);
+		}
+		
+		// The shape under a stationary cursor may have moved, or changed.
+		updateHover();
+	}
+	
+	/*
+	 * Picks the shape under the mouse cursor and, if the hover highlight 
+	 * needs to move, repaints its old and new areas. The root is never 
+	 * highlighted.
+	 */
+	private void updateHover() {
+		Rectangle bounds = null;
+		
+		if(_model != null && _mouse != null) {
+			Shape hovered = _model.pick(_mouse.x, _mouse.y);
+			if(hovered != null && hovered != _root) {
+				bounds = highlightBounds(hovered);
+			}
+		}
+		
+		if(bounds == null ? _hoverBounds != null : !bounds.equals(_hoverBounds)) {
+			if(_hoverBounds != null) {
+				repaint(_hoverBounds);
+			}
+			if(bounds != null) {
+				repaint(bounds);
+			}
+			_hoverBounds = bounds;
+		}
+	}
+	
+	/*
+	 * Returns the area of the highlight drawn around shape, which lies just
+	 * outside the area the shape paints.
+	 */
+	private Rectangle highlightBounds(Shape shape) {
+		int x = 0;
+		int y = 0;
+		for(Shape s = shape; s != null; s = s.parent()) {
+			x += s.x();
+			y += s.y();
+		}
+		return new Rectangle(x - HIGHLIGHT_GAP, y - HIGHLIGHT_GAP, 
+				shape.width() + 2 * HIGHLIGHT_GAP + 1, shape.height() + 2 * HIGHLIGHT_GAP + 1);
+	}
+	
+	/*
+	 * Widens the text margins, if necessary, to cover the text of shape and
+	 * of any shapes it contains.
+	 */
+	private void measureText(Shape shape) {
+		if(shape.text() != null) {
+			FontMetrics metrics = getFontMetrics(getFont());
+			_textMarginX = Math.max(_textMarginX, metrics.stringWidth(shape.text()) / 2 + 1);
+			_textMarginY = Math.max(_textMarginY, metrics.getHeight());
+		}
+		if(shape instanceof CarrierShape) {
+			CarrierShape carrier = (CarrierShape)shape;
+			for(int i = 0; i < carrier.shapeCount(); i++) {
+				measureText(carrier.shapeAt(i));
+			}
+		}
 	}
 	
 }
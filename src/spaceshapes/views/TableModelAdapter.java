@@ -149,7 +149,16 @@ public class TableModelAdapter extends AbstractTableModel implements ShapeModelL
 				// so the view will need to be updated to show the new shape.
 				fireTableRowsInserted(parent.shapeCount() - 1, parent.shapeCount() - 1);
 			}
-		} else if(eventType == ShapeModelEvent.EventType.ShapeRemoved) {
+		} else if(eventType == ShapeModelEvent.EventType.ShapesAdded) {
+			if(event.parent() == _adaptee) {
+				// A batch of shapes has been appended to the parent 
+				// represented by this TableModel; notify the view of all the
+				// new rows at once.
+				int[] indices = event.indices();
+				fireTableRowsInserted(indices[0], indices[indices.length - 1]);
+			}
+		} else if(eventType == ShapeModelEvent.EventType.ShapeRemoved ||
+				eventType == ShapeModelEvent.EventType.ShapesRemoved) {
 			CarrierShape parent = event.parent();
 			if(parent == _adaptee) {
 				// The removed shape's former parent is represented by this 
@@ -157,8 +166,7 @@ public class TableModelAdapter extends AbstractTableModel implements ShapeModelL
 				// removed shape.
 				fireTableDataChanged();
 			} 
-		} else {
-			// Processing a ShapeMoved event.
+		} else if(eventType == ShapeModelEvent.EventType.ShapeMoved) {
 			fireTableDataChanged();
 		}
 	}	
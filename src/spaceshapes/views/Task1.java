@@ -51,13 +51,9 @@ public class Task1 implements TreeModel {
 
 	@Override
 	public int getIndexOfChild(Object parent, Object simpleShape) {
-		if (parent instanceof CarrierShape) {
+		if (parent instanceof CarrierShape && simpleShape instanceof Shape) {
 			CarrierShape container = (CarrierShape) parent;
-			for (int i = 0; i < container.shapeCount(); i++) {
-				if (container.shapeAt(i) == simpleShape) {
-					return 1;
-				}
-			}
+			return container.indexOf((Shape) simpleShape);
 		}
 		return -1;
 	}
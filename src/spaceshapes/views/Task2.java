@@ -30,11 +30,21 @@ public class Task2 extends Task1 implements ShapeModelListener {
 		else if(eventType == ShapeModelEvent.EventType.ShapeRemoved) {
 			fireTreeRemove(parent, operand, index);
 		}
+		else if(eventType == ShapeModelEvent.EventType.ShapesAdded) {
+			fireTreeInsert(parent, event.operands().toArray(), event.indices());
+		}
+		else if(eventType == ShapeModelEvent.EventType.ShapesRemoved) {
+			fireTreeRemove(parent, event.operands().toArray(), event.indices());
+		}
 	}
 
 	public void fireTreeInsert(CarrierShape parent, Shape child, int index) {
 		Object[] children = {child};
 		int[] indicies = {index};
+		fireTreeInsert(parent, children, indicies);
+	}
+
+	public void fireTreeInsert(CarrierShape parent, Object[] children, int[] indicies) {
 		Object[] path = getPath(parent);
 		TreeModelEvent e = new TreeModelEvent(_adaptee, path, indicies, children);
 		for (int i = 0; i < _listenerList.size(); i++) {
@@ -45,6 +55,10 @@ public class Task2 extends Task1 implements ShapeModelListener {
 	public void fireTreeRemove(CarrierShape parent, Shape child, int index) {
 		Object[] children = {child};
 		int[] indicies = {index};
+		fireTreeRemove(parent, children, indicies);
+	}	
+
+	public void fireTreeRemove(CarrierShape parent, Object[] children, int[] indicies) {
 		Object[] path = getPath(parent);
 		TreeModelEvent e = new TreeModelEvent(_adaptee, path, indicies, children);	
 		for (int i = 0; i < _listenerList.size(); i++) {
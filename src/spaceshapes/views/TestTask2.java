@@ -1,6 +1,7 @@
 package spaceshapes.views;
 
 import java.awt.Dimension;
+import java.util.Arrays;
 
 import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
@@ -184,4 +185,91 @@ public class TestTask2 {
 		_model.add( _newShape, _emptyNest );
 		assertTrue( _listenerMethodCalled );
 	}
+
+	/**
+	 * Checks that adding a batch of shapes to a ShapeModel results in a 
+	 * single TreeModelEvent that identifies all of the inserted nodes.
+	 */
+	@Test
+	public void test_shapesAdded() {
+		final Shape second = new RectangleShape(10, 10, 1, 1, 20, 20);
+		_adapter.addTreeModelListener( new TreeModelListener() {
+			
+			public void treeNodesChanged( TreeModelEvent e ) {
+				fail();
+			}
+
+			public void treeNodesInserted( TreeModelEvent e ) {
+				// Only one notification is expected for the whole batch.
+				assertTrue( !_listenerMethodCalled );
+				_listenerMethodCalled = true;
+				
+				int[] indices = e.getChildIndices();
+				Object[] children = e.getChildren();
+				Object[] path = e.getPath();
+				
+				assertEquals( 2, indices.length );
+				assertEquals( 0, indices[ 0 ] );
+				assertEquals( 1, indices[ 1 ] );
+				assertEquals( 2, children.length );
+				assertSame( _newShape, children[ 0 ] );
+				assertSame( second, children[ 1 ] );
+				assertEquals( 2, path.length );
+				assertSame( _emptyNest, path[ 1 ] );
+			}
+
+			public void treeNodesRemoved( TreeModelEvent e ) {
+				fail();
+			}
+
+			public void treeStructureChanged( TreeModelEvent e ) {
+				fail();
+			}
+		} );
+		
+		assertTrue( _model.addAll( Arrays.asList( _newShape, second ), _emptyNest ) );
+		assertTrue( _listenerMethodCalled );
+	}
+
+	/**
+	 * Checks that removing a batch of shapes from a ShapeModel results in a
+	 * single TreeModelEvent that identifies the former index positions of all
+	 * removed nodes in ascending order.
+	 */
+	@Test
+	public void test_shapesRemoved() {
+		_adapter.addTreeModelListener( new TreeModelListener() {
+
+			public void treeNodesChanged( TreeModelEvent e ) {
+				fail();
+			}
+
+			public void treeNodesInserted( TreeModelEvent e ) {
+				fail();
+			}
+
+			public void treeNodesRemoved( TreeModelEvent e ) {
+				assertTrue( !_listenerMethodCalled );
+				_listenerMethodCalled = true;
+				
+				int[] indices = e.getChildIndices();
+				Object[] children = e.getChildren();
+				
+				assertEquals( 2, indices.length );
+				assertEquals( 0, indices[ 0 ] );
+				assertEquals( 1, indices[ 1 ] );
+				assertSame( _emptyNest, children[ 0 ] );
+				assertSame( _simpleShape, children[ 1 ] );
+				assertEquals( 1, e.getPath().length );
+			}
+
+			public void treeStructureChanged( TreeModelEvent e ) {
+				fail();
+			}
+		} );
+		
+		assertTrue( _model.removeAll( Arrays.asList( _simpleShape, _emptyNest ), _root ) );
+		assertTrue( _listenerMethodCalled );
+		assertEquals( 0, _root.shapeCount() );
+	}
 }